@@ -0,0 +1,41 @@
+package ca.bazlur.guardrailsdemo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+// Benchmark input, one message per line in src/jmh/resources/corpus/<name>.txt. Blank lines
+// and lines starting with # are skipped.
+public enum Corpus {
+    CLEAN,
+    ADVERSARIAL,
+    LONG,
+    MULTILINGUAL;
+
+    public List<String> messages() {
+        return load(name().toLowerCase(Locale.ROOT));
+    }
+
+    public static List<String> load(String name) {
+        String resource = "/corpus/" + name + ".txt";
+        try (InputStream in = Corpus.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalArgumentException("No corpus " + resource);
+            }
+            List<String> lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)).lines()
+                    .filter(line -> !line.isBlank() && !line.startsWith("#"))
+                    .toList();
+            if (lines.isEmpty()) {
+                throw new IllegalArgumentException("Empty corpus " + resource);
+            }
+            return lines;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package ca.bazlur.guardrailsdemo;
+
+import ca.bazlur.guardrailsdemo.AiServiceConfiguration.InputGuardrailChain;
+import ca.bazlur.guardrailsdemo.guardrail.*;
+import ca.bazlur.guardrailsdemo.memory.BoundedChatMemoryStore;
+import ca.bazlur.guardrailsdemo.model.PromptBudget;
+import ca.bazlur.guardrailsdemo.model.TokenCounter;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.guardrail.InputGuardrail;
+import dev.langchain4j.guardrail.InputGuardrailException;
+import dev.langchain4j.guardrail.OutputGuardrailException;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// One /chat call end to end: input guardrails, chat memory, prompt budget, the model and the
+// output guardrails, assembled by the same bean methods as the application. The model is a
+// stub that answers at once, so the time measured is the pipeline's own. A rejected message
+// is part of the workload, as it is in production.
+//
+// The per-user limiters are left out of the chain: they would reject every message after a
+// few thousand calls. InputGuardrailBenchmark measures them on their own. Guardrail verdicts
+// are cached as configured, so once the corpus has been seen most verdicts are cache hits.
+@State(Scope.Thread)
+public class PipelineBenchmark {
+
+    private static final int SESSIONS = 64;
+    private static final int CHAT_MEMORY_TOKENS = 2000;
+
+    @Param
+    public Corpus corpus;
+
+    @Param({"sequential", "parallel", "adaptive"})
+    public String execution;
+
+    private ExpiryScheduler scheduler;
+    private CustomerSupportAssistant assistant;
+    private String[] messages;
+    private String[] sessionIds;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        scheduler = new ExpiryScheduler(Duration.ofSeconds(1));
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        TokenCounter tokenCounter = new TokenCounter("gpt-4", scheduler);
+        VerdictCache verdictCache = new VerdictCache(10_000, Duration.ofHours(1), scheduler);
+        RateLimitingGuardrail rateLimiting = new RateLimitingGuardrail(10, true, "gcra", scheduler);
+        GuardrailMetrics guardrailMetrics = new GuardrailMetrics(meterRegistry,
+                rateLimiting,
+                new ContextAwareInputGuardrail(10_000, Duration.ofMinutes(30), scheduler),
+                verdictCache);
+
+        List<InputGuardrail> guardrails = List.of(
+                guardrailMetrics.instrument(new ContentSafetyInputGuardrail(1000, 250, tokenCounter, verdictCache)),
+                guardrailMetrics.instrument(new InputSanitizerGuardrail(tokenCounter, 200, verdictCache)),
+                guardrailMetrics.instrument(new ConversationContextGuardrail()),
+                guardrailMetrics.instrument(new PromptInjectionGuardrail(verdictCache)));
+        InputGuardrailChain chain = new InputGuardrailChain(switch (execution) {
+            case "parallel" -> List.of(new ParallelInputGuardrails(guardrails));
+            case "adaptive" -> List.of(new AdaptiveInputGuardrails(guardrails, Map.of(), 256));
+            default -> guardrails;
+        });
+
+        AiServiceConfiguration configuration = new AiServiceConfiguration();
+        assistant = configuration.customerSupportAssistant(
+                new StubChatModel(),
+                Optional.empty(),
+                configuration.chatMemoryProvider(
+                        new BoundedChatMemoryStore(100_000, Duration.ofMinutes(30), scheduler),
+                        tokenCounter, CHAT_MEMORY_TOKENS),
+                chain,
+                rateLimiting,
+                new ProfessionalToneOutputGuardrail(),
+                new HallucinationDetectionGuardrail(),
+                null,
+                new PromptBudget(tokenCounter, 8192, 1000),
+                tokenCounter,
+                guardrailMetrics,
+                meterRegistry,
+                3,
+                CHAT_MEMORY_TOKENS,
+                false,
+                false);
+        messages = corpus.messages().toArray(String[]::new);
+        sessionIds = new String[SESSIONS];
+        for (int i = 0; i < SESSIONS; i++) {
+            sessionIds[i] = "session-" + i;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.close();
+    }
+
+    // Each session in turn is sent the whole corpus, so conversations fill their memory
+    // without asking any one question often enough to be rejected as repetitive
+    @Benchmark
+    public String chat() {
+        String message = messages[next % messages.length];
+        String sessionId = sessionIds[next / messages.length];
+        next = (next + 1) % (messages.length * SESSIONS);
+        try {
+            return assistant.chat(sessionId, message);
+        } catch (InputGuardrailException | OutputGuardrailException e) {
+            return e.getMessage();
+        }
+    }
+
+    private static final class StubChatModel implements ChatModel {
+        private static final String ANSWER = "Thank you for reaching out. Your request has been received and "
+                + "our team will follow up by email within two business days. Please let me know if there is "
+                + "anything else I can help with.";
+
+        @Override
+        public ChatResponse doChat(ChatRequest request) {
+            return ChatResponse.builder().aiMessage(AiMessage.from(ANSWER)).build();
+        }
+    }
+}
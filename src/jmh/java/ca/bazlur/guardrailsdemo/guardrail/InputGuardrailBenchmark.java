@@ -0,0 +1,138 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import ca.bazlur.guardrailsdemo.Corpus;
+import ca.bazlur.guardrailsdemo.model.TokenCounter;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.guardrail.GuardrailRequestParams;
+import dev.langchain4j.guardrail.InputGuardrailRequest;
+import dev.langchain4j.guardrail.InputGuardrailResult;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.TokenWindowChatMemory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+// Each input guardrail on its own, over every corpus. The stateless guardrails run without
+// a verdict cache, so every call evaluates the rules. Limits are the ones in application.yaml.
+//
+// The per-user limiters key their state by message, so after the first few hundred calls
+// every corpus message is over its limit: they measure the rejection path, the one a flood
+// of requests exercises.
+@State(Scope.Thread)
+public class InputGuardrailBenchmark {
+
+    private static final int CHAT_MEMORY_TOKENS = 2000;
+
+    @Param
+    public Corpus corpus;
+
+    private ExpiryScheduler scheduler;
+    private ContentSafetyInputGuardrail contentSafety;
+    private InputSanitizerGuardrail sanitizer;
+    private PromptInjectionGuardrail promptInjection;
+    private CustomerContextInputGuardrail customerContext;
+    private ConversationContextGuardrail conversationContext;
+    private ContextAwareInputGuardrail contextAware;
+    private RateLimitingGuardrail rateLimiting;
+
+    private UserMessage[] messages;
+    private InputGuardrailRequest[] requests;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        scheduler = new ExpiryScheduler(Duration.ofSeconds(1));
+        TokenCounter tokenCounter = new TokenCounter("gpt-4", scheduler);
+        contentSafety = new ContentSafetyInputGuardrail(1000, 250, tokenCounter, VerdictCache.disabled());
+        sanitizer = new InputSanitizerGuardrail(tokenCounter, 200, VerdictCache.disabled());
+        promptInjection = new PromptInjectionGuardrail();
+        customerContext = new CustomerContextInputGuardrail();
+        conversationContext = new ConversationContextGuardrail();
+        contextAware = new ContextAwareInputGuardrail(10_000, Duration.ofMinutes(30), scheduler);
+        rateLimiting = new RateLimitingGuardrail(10, true, "gcra", scheduler);
+
+        messages = corpus.messages().stream().map(UserMessage::from).toArray(UserMessage[]::new);
+        GuardrailRequestParams params = GuardrailRequestParams.builder()
+                .chatMemory(fullChatMemory(tokenCounter))
+                .userMessageTemplate("{{it}}")
+                .variables(Map.of())
+                .build();
+        requests = new InputGuardrailRequest[messages.length];
+        for (int i = 0; i < messages.length; i++) {
+            requests[i] = InputGuardrailRequest.builder().userMessage(messages[i]).commonParams(params).build();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.close();
+    }
+
+    @Benchmark
+    public InputGuardrailResult contentSafety() {
+        return contentSafety.validate(nextMessage());
+    }
+
+    @Benchmark
+    public InputGuardrailResult inputSanitizer() {
+        return sanitizer.validate(nextMessage());
+    }
+
+    @Benchmark
+    public InputGuardrailResult promptInjection() {
+        return promptInjection.validate(nextMessage());
+    }
+
+    @Benchmark
+    public InputGuardrailResult customerContext() {
+        return customerContext.validate(nextMessage());
+    }
+
+    // Compared against a conversation that fills the token window
+    @Benchmark
+    public InputGuardrailResult conversationContext() {
+        InputGuardrailRequest request = requests[next];
+        next = (next + 1) % requests.length;
+        return conversationContext.validate(request);
+    }
+
+    @Benchmark
+    public InputGuardrailResult contextAware() {
+        return contextAware.validate(nextMessage());
+    }
+
+    @Benchmark
+    public InputGuardrailResult rateLimiting() {
+        return rateLimiting.validate(nextMessage());
+    }
+
+    private UserMessage nextMessage() {
+        UserMessage message = messages[next];
+        next = (next + 1) % messages.length;
+        return message;
+    }
+
+    // Clean questions and answers, added until the oldest have been evicted
+    private static ChatMemory fullChatMemory(TokenCounter tokenCounter) {
+        ChatMemory memory = TokenWindowChatMemory.withMaxTokens(CHAT_MEMORY_TOKENS, tokenCounter);
+        List<String> questions = Corpus.CLEAN.messages();
+        List<String> answers = Corpus.load("answers");
+        int added = 0;
+        for (int i = 0; added < 2 * CHAT_MEMORY_TOKENS; i++) {
+            String question = questions.get(i % questions.size());
+            String answer = answers.get(i % answers.size());
+            memory.add(UserMessage.from(question));
+            memory.add(AiMessage.from(answer));
+            added += tokenCounter.estimateTokenCountInText(question) + tokenCounter.estimateTokenCountInText(answer);
+        }
+        return memory;
+    }
+}
@@ -0,0 +1,112 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import ca.bazlur.guardrailsdemo.Corpus;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.guardrail.ChatExecutor;
+import dev.langchain4j.guardrail.GuardrailRequestParams;
+import dev.langchain4j.guardrail.OutputGuardrailRequest;
+import dev.langchain4j.guardrail.OutputGuardrailResult;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.rag.AugmentationResult;
+import dev.langchain4j.rag.content.Content;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Map;
+
+// Each output guardrail on its own, over answers that pass, answers that are reprompted
+// and, for the JSON guardrail, structured answers with and without valid JSON
+@State(Scope.Thread)
+public class OutputGuardrailBenchmark {
+
+    private final ProfessionalToneOutputGuardrail professionalTone = new ProfessionalToneOutputGuardrail();
+    private final HallucinationDetectionGuardrail hallucinationDetection = new HallucinationDetectionGuardrail();
+    private final CustomerSupportJsonGuardrail customerSupportJson = new CustomerSupportJsonGuardrail();
+
+    private AiMessage[] answers;
+    private OutputGuardrailRequest[] withoutContext;
+    private OutputGuardrailRequest[] withContext;
+    private AiMessage[] jsonAnswers;
+    private int next;
+    private int nextJson;
+
+    @Setup
+    public void setUp() {
+        answers = Corpus.load("answers").stream().map(AiMessage::from).toArray(AiMessage[]::new);
+        jsonAnswers = Corpus.load("json").stream().map(AiMessage::from).toArray(AiMessage[]::new);
+
+        AugmentationResult augmentationResult = AugmentationResult.builder()
+                .chatMessage(UserMessage.from(Corpus.CLEAN.messages().get(0)))
+                .contents(Corpus.load("context").stream().map(Content::from).toList())
+                .build();
+        withoutContext = requests(params(null));
+        withContext = requests(params(augmentationResult));
+    }
+
+    @Benchmark
+    public OutputGuardrailResult professionalTone() {
+        AiMessage answer = answers[next];
+        next = (next + 1) % answers.length;
+        return professionalTone.validate(answer);
+    }
+
+    @Benchmark
+    public OutputGuardrailResult hallucinationDetection() {
+        OutputGuardrailRequest request = withoutContext[next];
+        next = (next + 1) % withoutContext.length;
+        return hallucinationDetection.validate(request);
+    }
+
+    // Every fact in the answer is compared with the facts in the retrieved passages
+    @Benchmark
+    public OutputGuardrailResult hallucinationDetectionWithRagContext() {
+        OutputGuardrailRequest request = withContext[next];
+        next = (next + 1) % withContext.length;
+        return hallucinationDetection.validate(request);
+    }
+
+    @Benchmark
+    public OutputGuardrailResult customerSupportJson() {
+        AiMessage answer = jsonAnswers[nextJson];
+        nextJson = (nextJson + 1) % jsonAnswers.length;
+        return customerSupportJson.validate(answer);
+    }
+
+    private OutputGuardrailRequest[] requests(GuardrailRequestParams params) {
+        OutputGuardrailRequest[] requests = new OutputGuardrailRequest[answers.length];
+        for (int i = 0; i < answers.length; i++) {
+            requests[i] = OutputGuardrailRequest.builder()
+                    .responseFromLLM(ChatResponse.builder().aiMessage(answers[i]).build())
+                    .chatExecutor(NO_REPROMPTS)
+                    .requestParams(params)
+                    .build();
+        }
+        return requests;
+    }
+
+    private static GuardrailRequestParams params(AugmentationResult augmentationResult) {
+        return GuardrailRequestParams.builder()
+                .augmentationResult(augmentationResult)
+                .userMessageTemplate("{{it}}")
+                .variables(Map.of())
+                .build();
+    }
+
+    // A guardrail only asks for a reprompt; the benchmark never performs one
+    private static final ChatExecutor NO_REPROMPTS = new ChatExecutor() {
+        @Override
+        public ChatResponse execute() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ChatResponse execute(List<ChatMessage> chatMessages) {
+            throw new UnsupportedOperationException();
+        }
+    };
+}
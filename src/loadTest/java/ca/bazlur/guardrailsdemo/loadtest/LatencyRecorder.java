@@ -0,0 +1,38 @@
+package ca.bazlur.guardrailsdemo.loadtest;
+
+import java.util.Arrays;
+
+// Every latency of one load step, kept exactly so that the tail percentiles are not
+// approximated. A step at a few hundred requests per second records a few hundred
+// thousand values.
+final class LatencyRecorder {
+
+    private long[] nanos = new long[1024];
+    private int count;
+
+    synchronized void record(long latencyNanos) {
+        if (count == nanos.length) {
+            nanos = Arrays.copyOf(nanos, count * 2);
+        }
+        nanos[count++] = latencyNanos;
+    }
+
+    synchronized Percentiles percentiles() {
+        long[] sorted = Arrays.copyOf(nanos, count);
+        Arrays.sort(sorted);
+        return new Percentiles(at(sorted, 0.50), at(sorted, 0.95), at(sorted, 0.99), at(sorted, 0.999),
+                count == 0 ? 0 : sorted[count - 1]);
+    }
+
+    // Nearest rank
+    private static long at(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(quantile * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    record Percentiles(long p50, long p95, long p99, long p999, long max) {
+    }
+}
@@ -0,0 +1,200 @@
+package ca.bazlur.guardrailsdemo.loadtest;
+
+import ca.bazlur.guardrailsdemo.GuardrailsDemoApplication;
+import ca.bazlur.guardrailsdemo.SessionIds;
+import ca.bazlur.guardrailsdemo.model.ReplayChatModel;
+import ca.bazlur.guardrailsdemo.model.StubChatModel;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+// Starts the application in this JVM on the stub chat model and drives /api/support/chat at
+// increasing arrival rates until the stack saturates:
+//
+//   ./gradlew loadTest --args='--rates=25,50,100,200,400 --duration=30s'
+//
+// Options, with their defaults:
+//   --rates=10,25,50,100,200,400   requests per second, one step each
+//   --duration=30s --warmup=10s    per step; the warmup runs at the first rate and is not reported
+//   --arrivals=poisson             or constant
+//   --sessions=10000               distinct chat sessions the requests are spread over
+//   --seed=42                      the nth request of every run with the same seed carries the
+//                                  same message in the same session
+//   --max-in-flight=10000          arrivals beyond this many outstanding requests are dropped
+//   --timeout=30s                  client timeout per request
+//   --slo=2s                       a step is saturated when p99 exceeds this, more than 1% of
+//                                  requests fail, or fewer than 90% of the offered rate complete
+//
+// Any other --name=value is passed to the application, e.g. --app.stub-model.error-rate=0.01.
+// The rate limiter is off unless enabled that way, since every request would otherwise come
+// from a handful of users.
+//
+// To compare two builds on the same model answers, record a run on one build with
+// --app.chat-model.provider=openai --app.chat-model.recording.enabled=true, then run both
+// with --app.chat-model.provider=replay and the same seed.
+public final class LoadTest {
+
+    private static final double MAX_FAILURE_RATIO = 0.01;
+    private static final double MIN_COMPLETED_RATIO = 0.9;
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>(Map.of(
+                "rates", "10,25,50,100,200,400",
+                "duration", "30s",
+                "warmup", "10s",
+                "arrivals", "poisson",
+                "sessions", "10000",
+                "max-in-flight", "10000",
+                "timeout", "30s",
+                "slo", "2s",
+                "seed", "42"));
+        Map<String, String> properties = new LinkedHashMap<>(Map.of(
+                "server.port", "0",
+                "app.chat-model.provider", "stub",
+                "app.guardrails.input.rate-limit.enabled", "false",
+                "logging.level.root", "WARN",
+                "logging.level.ca.bazlur.guardrailsdemo", "ERROR"));
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            }
+            (options.containsKey(option[0]) ? options : properties).put(option[0], option[1]);
+        }
+
+        double[] rates = Arrays.stream(options.get("rates").split(",")).mapToDouble(Double::parseDouble).toArray();
+        Duration duration = DurationStyle.detectAndParse(options.get("duration"));
+        Duration warmup = DurationStyle.detectAndParse(options.get("warmup"));
+        Duration slo = DurationStyle.detectAndParse(options.get("slo"));
+
+        try (ConfigurableApplicationContext context = SpringApplication.run(GuardrailsDemoApplication.class,
+                properties.entrySet().stream().map(e -> "--" + e.getKey() + "=" + e.getValue()).toArray(String[]::new));
+             HttpClient client = HttpClient.newBuilder()
+                     .executor(Executors.newVirtualThreadPerTaskExecutor())
+                     .build()) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            OpenLoadGenerator generator = new OpenLoadGenerator(client,
+                    URI.create("http://localhost:" + port + "/api/support/chat"),
+                    messages(),
+                    sessionIds(context.getBean(SessionIds.class), Integer.parseInt(options.get("sessions"))),
+                    Long.parseLong(options.get("seed")),
+                    !options.get("arrivals").equals("constant"),
+                    Integer.parseInt(options.get("max-in-flight")),
+                    DurationStyle.detectAndParse(options.get("timeout")));
+            MeterRegistry meterRegistry = context.getBean(MeterRegistry.class);
+            LongSupplier modelCalls = modelCalls(context);
+
+            System.out.printf("Warming up at %.0f req/s for %s%n", rates[0], warmup);
+            generator.run(rates[0], warmup);
+
+            System.out.printf("%8s %8s %9s %8s %8s %8s %8s %8s %8s %8s %8s %8s %8s %9s %8s%n",
+                    "rate", "sent", "ok/s", "p50", "p95", "p99", "p999", "max", "rejected",
+                    "out-fail", "errors", "timeouts", "dropped", "reprompts", "calls");
+            String saturation = null;
+            for (double rate : rates) {
+                double repromptsBefore = reprompts(meterRegistry);
+                long callsBefore = modelCalls == null ? 0 : modelCalls.getAsLong();
+                OpenLoadGenerator.Step step = generator.run(rate, duration);
+                LatencyRecorder.Percentiles latency = step.latencies.percentiles();
+                System.out.printf("%8.0f %8d %9.1f %8s %8s %8s %8s %8s %8d %8d %8d %8d %8d %9.0f %8s%n",
+                        rate, step.sent.sum(), step.throughput(),
+                        millis(latency.p50()), millis(latency.p95()), millis(latency.p99()),
+                        millis(latency.p999()), millis(latency.max()),
+                        step.rejected.sum(), step.outputFailures.sum(), step.errors.sum(),
+                        step.timeouts.sum(), step.dropped.sum(),
+                        reprompts(meterRegistry) - repromptsBefore,
+                        modelCalls == null ? "-" : Long.toString(modelCalls.getAsLong() - callsBefore));
+                saturation = saturation(step, latency, slo);
+                if (saturation != null) {
+                    System.out.printf("Saturated at %.0f req/s: %s%n", rate, saturation);
+                    break;
+                }
+            }
+            if (saturation == null) {
+                System.out.printf("Not saturated at %.0f req/s%n", rates[rates.length - 1]);
+            }
+            context.getBeanProvider(ReplayChatModel.class).ifAvailable(replay -> System.out.printf(
+                    "Replay: %d requests matched by question only, %d not recorded%n",
+                    replay.questionMatches(), replay.misses()));
+        }
+    }
+
+    private static String saturation(OpenLoadGenerator.Step step, LatencyRecorder.Percentiles latency, Duration slo) {
+        if (latency.p99() > slo.toNanos()) {
+            return "p99 latency " + millis(latency.p99()) + " exceeds " + slo.toMillis() + "ms";
+        }
+        if (step.failureRatio() > MAX_FAILURE_RATIO) {
+            return String.format("%.1f%% of requests failed, timed out or were dropped", step.failureRatio() * 100);
+        }
+        double completedRate = step.completed() / (step.elapsedNanos / 1e9);
+        if (completedRate < MIN_COMPLETED_RATIO * step.rate) {
+            return String.format("only %.1f req/s completed", completedRate);
+        }
+        return null;
+    }
+
+    // Requests that reached the stub or replayed model, reprompts included; null for OpenAI
+    private static LongSupplier modelCalls(ConfigurableApplicationContext context) {
+        StubChatModel stub = context.getBeanProvider(StubChatModel.class).getIfAvailable();
+        if (stub != null) {
+            return stub::calls;
+        }
+        ReplayChatModel replay = context.getBeanProvider(ReplayChatModel.class).getIfAvailable();
+        if (replay != null) {
+            return replay::calls;
+        }
+        // OpenAI, when recording real answers
+        return null;
+    }
+
+    // Output guardrail verdicts that sent the answer back to the model
+    private static double reprompts(MeterRegistry meterRegistry) {
+        return meterRegistry.find("guardrail.validation").tag("verdict", "reprompt").timers().stream()
+                .mapToDouble(Timer::count)
+                .sum();
+    }
+
+    private static String millis(long nanos) {
+        return nanos / 1_000_000 + "ms";
+    }
+
+    // The server only accepts session IDs it issued
+    private static List<String> sessionIds(SessionIds sessionIds, int sessions) {
+        return Stream.generate(sessionIds::issue).limit(sessions).toList();
+    }
+
+    private static List<String> messages() {
+        try (InputStream in = LoadTest.class.getResourceAsStream("/messages.txt")) {
+            if (in == null) {
+                throw new IllegalStateException("No messages.txt on the classpath");
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8).lines()
+                    .filter(line -> !line.isBlank() && !line.startsWith("#"))
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package ca.bazlur.guardrailsdemo.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Sends requests at a fixed arrival rate, whether or not earlier ones have been answered, as
+// independent customers would. Each request runs on its own virtual thread. Its latency is
+// measured from the time it was due to be sent rather than the time it was sent, so that a
+// stalled generator cannot hide queueing delay (coordinated omission).
+//
+// Arrivals are evenly spaced, or Poisson distributed with the same mean. At most maxInFlight
+// requests are outstanding; an arrival beyond that is dropped and counted, which keeps an
+// overloaded server from exhausting the generator's memory.
+final class OpenLoadGenerator {
+
+    private static final String OUTPUT_GUARDRAIL_FAILURE = "Unable to generate appropriate response";
+
+    private final HttpClient client;
+    private final URI chatUri;
+    private final List<String> messages;
+    private final List<String> sessionIds;
+    private final long seed;
+    private final boolean poisson;
+    private final int maxInFlight;
+    private final Duration timeout;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Numbers the requests across steps, so that runs with the same seed send the same ones
+    private long sequence;
+
+    OpenLoadGenerator(HttpClient client, URI chatUri, List<String> messages, List<String> sessionIds, long seed,
+                      boolean poisson, int maxInFlight, Duration timeout) {
+        this.client = client;
+        this.chatUri = chatUri;
+        this.messages = List.copyOf(messages);
+        this.sessionIds = List.copyOf(sessionIds);
+        this.seed = seed;
+        this.poisson = poisson;
+        this.maxInFlight = maxInFlight;
+        this.timeout = timeout;
+    }
+
+    // Returns once every request sent during the step has completed or timed out
+    Step run(double rate, Duration duration) {
+        Step step = new Step(rate);
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        long meanInterval = (long) (1e9 / rate);
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (long due = start; due < end; due += interval(meanInterval)) {
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                step.sent.increment();
+                if (!inFlight.tryAcquire()) {
+                    sequence++;
+                    step.dropped.increment();
+                    continue;
+                }
+                long scheduled = due;
+                String body = body(sequence++);
+                executor.execute(() -> {
+                    try {
+                        send(scheduled, body, step);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+        step.elapsedNanos = System.nanoTime() - start;
+        return step;
+    }
+
+    private long interval(long meanInterval) {
+        return poisson ? (long) (-meanInterval * Math.log(1 - ThreadLocalRandom.current().nextDouble())) : meanInterval;
+    }
+
+    private void send(long scheduled, String body, Step step) {
+        HttpRequest request = HttpRequest.newBuilder(chatUri)
+                .timeout(timeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        try {
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            step.latencies.record(System.nanoTime() - scheduled);
+            int status = response.statusCode();
+            if (status == 200) {
+                step.ok.increment();
+            } else if (status == 504) {
+                step.timeouts.increment();
+            } else if (status >= 400 && status < 500) {
+                step.rejected.increment();
+            } else if (response.body().contains(OUTPUT_GUARDRAIL_FAILURE)) {
+                step.outputFailures.increment();
+            } else {
+                step.errors.increment();
+            }
+        } catch (HttpTimeoutException e) {
+            step.latencies.record(System.nanoTime() - scheduled);
+            step.timeouts.increment();
+        } catch (IOException e) {
+            step.errors.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String body(long number) {
+        SplittableRandom random = new SplittableRandom(seed + number * 0x9E3779B97F4A7C15L);
+        String message = messages.get(random.nextInt(messages.size()))
+                .replace("{n}", Integer.toString(random.nextInt(1_000, 100_000)));
+        try {
+            return objectMapper.writeValueAsString(Map.of(
+                    "message", message,
+                    "sessionId", sessionIds.get(random.nextInt(sessionIds.size()))));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static final class Step {
+        final double rate;
+        final LatencyRecorder latencies = new LatencyRecorder();
+        final LongAdder sent = new LongAdder();
+        final LongAdder ok = new LongAdder();
+        // 4xx: input guardrails, prompt budget and malformed requests
+        final LongAdder rejected = new LongAdder();
+        // 500 after the output guardrails ran out of reprompts
+        final LongAdder outputFailures = new LongAdder();
+        // Other 5xx and connection failures
+        final LongAdder errors = new LongAdder();
+        // 504 from the server's chat timeout, or no answer within the client timeout
+        final LongAdder timeouts = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        long elapsedNanos;
+
+        Step(double rate) {
+            this.rate = rate;
+        }
+
+        long completed() {
+            return ok.sum() + rejected.sum() + outputFailures.sum() + errors.sum() + timeouts.sum();
+        }
+
+        double throughput() {
+            return ok.sum() / (elapsedNanos / 1e9);
+        }
+
+        // Share of sent requests that failed for reasons other than a guardrail rejection
+        double failureRatio() {
+            long sent = this.sent.sum();
+            return sent == 0 ? 0 : (double) (errors.sum() + timeouts.sum() + dropped.sum()) / sent;
+        }
+    }
+}
@@ -1,69 +1,327 @@
 package ca.bazlur.guardrailsdemo;
 
 import ca.bazlur.guardrailsdemo.guardrail.*;
+import ca.bazlur.guardrailsdemo.model.CachingChatModel;
+import ca.bazlur.guardrailsdemo.model.ChatRecording;
+import ca.bazlur.guardrailsdemo.model.PromptBudget;
+import ca.bazlur.guardrailsdemo.model.RecordingChatModel;
+import ca.bazlur.guardrailsdemo.model.ReplayChatModel;
+import ca.bazlur.guardrailsdemo.model.ResponseCache;
+import ca.bazlur.guardrailsdemo.model.SpeculativeChatModel;
+import ca.bazlur.guardrailsdemo.model.StubChatModel;
+import ca.bazlur.guardrailsdemo.model.TokenCounter;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.guardrail.InputGuardrail;
 import dev.langchain4j.guardrail.config.OutputGuardrailsConfig;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.ChatMemoryProvider;
+import dev.langchain4j.memory.chat.TokenWindowChatMemory;
 import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
 import dev.langchain4j.model.openai.OpenAiChatModel;
+import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
 import dev.langchain4j.service.AiServices;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
 
 @Configuration
 public class AiServiceConfiguration {
 
     @Bean
+    @ConditionalOnProperty(name = "app.chat-model.provider", havingValue = "openai", matchIfMissing = true)
     public ChatModel chatModel(@Value("${langchain4j.open-ai.chat-model.api-key}") String apiKey,
                                @Value("${langchain4j.open-ai.chat-model.model-name}") String modelName,
                                @Value("${langchain4j.open-ai.chat-model.timeout}") Duration timeout,
                                @Value("${langchain4j.open-ai.chat-model.temperature}") double temperature,
                                @Value("${langchain4j.open-ai.chat-model.log-requests}") boolean logRequests,
                                @Value("${langchain4j.open-ai.chat-model.log-responses}") boolean logResponses,
-                               @Value("${langchain4j.open-ai.chat-model.max-tokens}") int maxTokens) {
+                               @Value("${langchain4j.open-ai.chat-model.max-tokens}") int maxTokens,
+                               @Value("${app.guardrails.output.max-length:1000}") int maxOutputLength) {
         return OpenAiChatModel.builder()
                 .apiKey(apiKey)
                 .modelName(modelName)
                 .logRequests(logRequests)
                 .logResponses(logResponses)
                 .temperature(temperature)
-                .maxCompletionTokens(maxTokens)
+                .maxCompletionTokens(completionTokens(maxTokens, maxOutputLength))
                 .timeout(timeout)
                 .build();
     }
 
     @Bean
-    public CustomerSupportAssistant customerSupportAssistant(
-            ChatModel chatModel,
+    @ConditionalOnProperty(name = "app.chat-model.provider", havingValue = "openai", matchIfMissing = true)
+    public StreamingChatModel streamingChatModel(@Value("${langchain4j.open-ai.chat-model.api-key}") String apiKey,
+                                                 @Value("${langchain4j.open-ai.chat-model.model-name}") String modelName,
+                                                 @Value("${langchain4j.open-ai.chat-model.timeout}") Duration timeout,
+                                                 @Value("${langchain4j.open-ai.chat-model.temperature}") double temperature,
+                                                 @Value("${langchain4j.open-ai.chat-model.log-requests}") boolean logRequests,
+                                                 @Value("${langchain4j.open-ai.chat-model.log-responses}") boolean logResponses,
+                                                 @Value("${langchain4j.open-ai.chat-model.max-tokens}") int maxTokens,
+                                                 @Value("${app.guardrails.output.max-length:1000}") int maxOutputLength) {
+        return OpenAiStreamingChatModel.builder()
+                .apiKey(apiKey)
+                .modelName(modelName)
+                .logRequests(logRequests)
+                .logResponses(logResponses)
+                .temperature(temperature)
+                .maxCompletionTokens(completionTokens(maxTokens, maxOutputLength))
+                .timeout(timeout)
+                .build();
+    }
+
+    // Answers locally from templates with a simulated latency, for load tests without a provider
+    @Bean
+    @ConditionalOnProperty(name = "app.chat-model.provider", havingValue = "stub")
+    public StubChatModel stubChatModel(@Value("${app.stub-model.first-token-latency:500ms}") Duration firstTokenLatency,
+                                       @Value("${app.stub-model.latency-distribution:lognormal}") String distribution,
+                                       @Value("${app.stub-model.latency-spread:0.5}") double spread,
+                                       @Value("${app.stub-model.tokens-per-second:50}") double tokensPerSecond,
+                                       @Value("${app.stub-model.error-rate:0}") double errorRate,
+                                       @Value("${app.stub-model.templates:classpath:stub-model/answers.txt}") Resource templates,
+                                       TokenCounter tokenCounter) throws IOException {
+        return new StubChatModel(firstTokenLatency,
+                StubChatModel.LatencyDistribution.valueOf(distribution.trim().toUpperCase()),
+                spread, tokensPerSecond, errorRate, readTemplates(templates), tokenCounter);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "app.chat-model.provider", havingValue = "stub")
+    public StreamingChatModel stubStreamingChatModel(StubChatModel stubChatModel) {
+        return stubChatModel.streaming();
+    }
+
+    // One template per line; blank lines and lines starting with # are skipped
+    private static List<String> readTemplates(Resource templates) throws IOException {
+        try (InputStream in = templates.getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8).lines()
+                    .filter(line -> !line.isBlank() && !line.startsWith("#"))
+                    .toList();
+        }
+    }
+
+    // Answers from a recording, after the latencies observed when it was made
+    @Bean
+    @ConditionalOnProperty(name = "app.chat-model.provider", havingValue = "replay")
+    public ReplayChatModel replayChatModel(@Value("${app.chat-model.replay.file:data/chat-recording.gz}") String file,
+                                           @Value("${app.chat-model.replay.latency-scale:1}") double latencyScale)
+            throws IOException {
+        return new ReplayChatModel(Path.of(file), latencyScale);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "app.chat-model.provider", havingValue = "replay")
+    public StreamingChatModel replayStreamingChatModel(ReplayChatModel replayChatModel) {
+        return replayChatModel.streaming();
+    }
+
+    // Closed with the application context, which flushes the file
+    @Bean
+    @ConditionalOnProperty(name = "app.chat-model.recording.enabled", havingValue = "true")
+    public ChatRecording.Writer chatRecording(@Value("${app.chat-model.recording.file:data/chat-recording.gz}") String file)
+            throws IOException {
+        return new ChatRecording.Writer(Path.of(file));
+    }
+
+    @Bean
+    public PromptBudget promptBudget(TokenCounter tokenCounter,
+                                     @Value("${app.token-budget.context-window:8192}") int contextWindow,
+                                     @Value("${langchain4j.open-ai.chat-model.max-tokens}") int maxTokens,
+                                     @Value("${app.guardrails.output.max-length:1000}") int maxOutputLength) {
+        return new PromptBudget(tokenCounter, contextWindow, completionTokens(maxTokens, maxOutputLength));
+    }
+
+    // max-tokens caps the completion, but a longer one than the tone guardrail keeps would
+    // only be generated to be truncated
+    private static int completionTokens(int maxTokens, int maxOutputLength) {
+        return Math.min(maxTokens, ProfessionalToneOutputGuardrail.maxCompletionTokens(maxOutputLength));
+    }
+
+    // One window per session, read from and written back to the store on every call. Shared by
+    // the blocking and streaming assistants, so both endpoints continue the same conversation.
+    // The oldest messages are dropped once the history exceeds its token budget, however few
+    // messages that is.
+    @Bean
+    public ChatMemoryProvider chatMemoryProvider(ChatMemoryStore chatMemoryStore,
+                                                 TokenCounter tokenCounter,
+                                                 @Value("${app.chat-memory.max-tokens:2000}") int maxTokens) {
+        return sessionId -> TokenWindowChatMemory.builder()
+                .id(sessionId)
+                .maxTokens(maxTokens, tokenCounter)
+                .chatMemoryStore(chatMemoryStore)
+                .build();
+    }
+
+    // Wrapped so that Spring injects this list rather than every InputGuardrail bean. Spring
+    // calls close() on shutdown, which stops the threads of a parallel chain.
+    public record InputGuardrailChain(List<InputGuardrail> guardrails) implements AutoCloseable {
+
+        @Override
+        public void close() throws Exception {
+            for (InputGuardrail guardrail : guardrails) {
+                if (guardrail instanceof AutoCloseable closeable) {
+                    closeable.close();
+                }
+            }
+        }
+    }
+
+    @Bean
+    public InputGuardrailChain inputGuardrailChain(
             ContentSafetyInputGuardrail contentSafetyInputGuardrail,
             ConversationContextGuardrail conversationContextGuardrail,
             PromptInjectionGuardrail injectionGuard,
-            ProfessionalToneOutputGuardrail toneGuard,
-            HallucinationDetectionGuardrail hallucinationDetectionGuardrail,
             InputSanitizerGuardrail inputSanitizerGuardrail,
             ContextAwareInputGuardrail contextAwareInputGuardrail,
             RateLimitingGuardrail rateLimitingGuardrail,
-            @Value("${app.guardrails.output.max-retries}") int maxRetries) {
+            GuardrailMetrics guardrailMetrics,
+            @Value("${app.guardrails.input.execution:sequential}") String inputExecution,
+            @Value("${app.guardrails.input.reorder-interval:256}") int reorderInterval) {
+
+        InputGuardrail contentSafety = guardrailMetrics.instrument(contentSafetyInputGuardrail);
+        InputGuardrail sanitizer = guardrailMetrics.instrument(inputSanitizerGuardrail);
+        InputGuardrail conversationContext = guardrailMetrics.instrument(conversationContextGuardrail);
+        InputGuardrail injection = guardrailMetrics.instrument(injectionGuard);
+        InputGuardrail contextAware = guardrailMetrics.instrument(contextAwareInputGuardrail);
+        InputGuardrail rateLimiting = guardrailMetrics.instrument(rateLimitingGuardrail);
+
+        List<InputGuardrail> inputGuardrails = List.of(
+                contentSafety,
+                sanitizer,
+                conversationContext,
+                injection,
+                contextAware,
+                rateLimiting
+        );
+        switch (inputExecution.trim().toLowerCase()) {
+            case "parallel" -> inputGuardrails = List.of(new ParallelInputGuardrails(inputGuardrails));
+            // Session history should only record questions that got past the injection check
+            case "adaptive" -> inputGuardrails = List.of(new AdaptiveInputGuardrails(inputGuardrails,
+                    Map.of(contextAware, List.of(injection)), reorderInterval));
+            case "sequential" -> {
+            }
+            default -> throw new IllegalArgumentException("Unknown input guardrail execution mode: " + inputExecution);
+        }
+        return new InputGuardrailChain(inputGuardrails);
+    }
+
+    @Bean
+    public CustomerSupportAssistant customerSupportAssistant(
+            ChatModel chatModel,
+            Optional<ChatRecording.Writer> chatRecording,
+            ChatMemoryProvider chatMemoryProvider,
+            InputGuardrailChain inputGuardrailChain,
+            RateLimitingGuardrail rateLimitingGuardrail,
+            ProfessionalToneOutputGuardrail toneGuard,
+            HallucinationDetectionGuardrail hallucinationDetectionGuardrail,
+            ResponseCache responseCache,
+            PromptBudget promptBudget,
+            TokenCounter tokenCounter,
+            GuardrailMetrics guardrailMetrics,
+            MeterRegistry meterRegistry,
+            @Value("${app.guardrails.output.max-retries}") int maxRetries,
+            @Value("${app.chat-memory.max-tokens:2000}") int chatMemoryMaxTokens,
+            @Value("${app.response-cache.enabled:true}") boolean responseCacheEnabled,
+            @Value("${app.speculative-dispatch.enabled:false}") boolean speculativeDispatchEnabled) {
 
         OutputGuardrailsConfig outputConfig = OutputGuardrailsConfig.builder()
                 .maxRetries(maxRetries)
                 .build();
 
-        return AiServices.builder(CustomerSupportAssistant.class)
-                .chatModel(chatModel)
-                .chatMemory(MessageWindowChatMemory.withMaxMessages(10))
-                .inputGuardrails(
-                        contentSafetyInputGuardrail,
-                        inputSanitizerGuardrail,
-                        conversationContextGuardrail,
-                        injectionGuard,
-                        contextAwareInputGuardrail,
-                        rateLimitingGuardrail
-                )
-                .outputGuardrails(toneGuard, hallucinationDetectionGuardrail)
+        // Records what the provider was asked, not what the response cache answered
+        ChatModel providerModel = chatRecording
+                .<ChatModel>map(recording -> new RecordingChatModel(chatModel, recording))
+                .orElse(chatModel);
+        ChatModel budgetedModel = promptBudget.guard(providerModel);
+        SpeculativeChatModel speculativeChatModel = speculativeDispatchEnabled
+                ? new SpeculativeChatModel(budgetedModel, meterRegistry) : null;
+        ChatModel model = speculativeChatModel != null ? speculativeChatModel : budgetedModel;
+        CachingChatModel cachingChatModel = responseCacheEnabled ? new CachingChatModel(model, responseCache) : null;
+
+        CustomerSupportAssistant assistant = AiServices.builder(CustomerSupportAssistant.class)
+                .chatModel(cachingChatModel != null ? cachingChatModel : model)
+                .chatMemoryProvider(chatMemoryProvider)
+                .inputGuardrails(inputGuardrailChain.guardrails())
+                .outputGuardrails(guardrailMetrics.instrument(toneGuard),
+                        guardrailMetrics.instrument(hallucinationDetectionGuardrail))
                 .outputGuardrailsConfig(outputConfig)
                 .build();
+
+        CustomerSupportAssistant speculating = speculativeChatModel == null ? assistant
+                : (sessionId, message) -> {
+                    Supplier<String> call = () -> assistant.chat(sessionId, message);
+                    // A question the rate limiter will reject would only waste the speculative request
+                    if (!rateLimitingGuardrail.wouldAllow(UserMessage.from(message))) {
+                        return speculativeChatModel.skip(call);
+                    }
+                    return speculativeChatModel.speculate(
+                            predictRequest(chatMemoryProvider.get(sessionId), message, cachingChatModel,
+                                    chatMemoryMaxTokens, tokenCounter),
+                            call);
+                };
+        // Each chat call is one cache turn, so guardrail retries inside it bypass the cache
+        CustomerSupportAssistant caching = cachingChatModel == null ? speculating
+                : (sessionId, message) -> cachingChatModel.turn(() -> speculating.chat(sessionId, message));
+        // The input guardrails of one chat call share the analysis of its message
+        return (sessionId, message) -> TextAnalysis.shared(() -> caching.chat(sessionId, message));
+    }
+
+    // The request AiServices will send for the message unless an input guardrail rewrites it,
+    // or null when the response cache would answer it and there is nothing to speculate on
+    private static ChatRequest predictRequest(ChatMemory chatMemory, String message, CachingChatModel cachingChatModel,
+                                              int chatMemoryMaxTokens, TokenCounter tokenCounter) {
+        ChatMemory next = TokenWindowChatMemory.withMaxTokens(chatMemoryMaxTokens, tokenCounter);
+        chatMemory.messages().forEach(next::add);
+        next.add(SystemMessage.from(CustomerSupportAssistant.SYSTEM_PROMPT));
+        next.add(UserMessage.from(message));
+        ChatRequest request = ChatRequest.builder().messages(next.messages()).build();
+        return cachingChatModel != null && cachingChatModel.isCached(request) ? null : request;
+    }
+
+    // Output guardrails are applied by StreamingChatService as tokens arrive, not by AiServices,
+    // which would hold the stream back until the whole answer had been generated
+    @Bean
+    public StreamingChatService streamingChatService(
+            StreamingChatModel streamingChatModel,
+            ChatMemoryProvider chatMemoryProvider,
+            InputGuardrailChain inputGuardrailChain,
+            ProfessionalToneOutputGuardrail toneGuard,
+            HallucinationDetectionGuardrail hallucinationDetectionGuardrail,
+            PromptBudget promptBudget,
+            GuardrailMetrics guardrailMetrics,
+            @Value("${app.guardrails.output.max-retries}") int maxRetries) {
+
+        StreamingChatModel budgetedModel = promptBudget.guard(streamingChatModel);
+
+        StreamingCustomerSupportAssistant assistant = AiServices.builder(StreamingCustomerSupportAssistant.class)
+                .streamingChatModel(budgetedModel)
+                .chatMemoryProvider(chatMemoryProvider)
+                .inputGuardrails(inputGuardrailChain.guardrails())
+                .build();
+        StreamingCustomerSupportAssistant repromptAssistant = AiServices.builder(StreamingCustomerSupportAssistant.class)
+                .streamingChatModel(budgetedModel)
+                .chatMemoryProvider(chatMemoryProvider)
+                .build();
+        StreamingCustomerSupportAssistant sharing =
+                (sessionId, message) -> TextAnalysis.shared(() -> assistant.chat(sessionId, message));
+        return new StreamingChatService(sharing, repromptAssistant,
+                List.of(guardrailMetrics.instrument(toneGuard), guardrailMetrics.instrument(hallucinationDetectionGuardrail)),
+                maxRetries);
     }
 }
\ No newline at end of file
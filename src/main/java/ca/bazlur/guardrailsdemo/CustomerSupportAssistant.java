@@ -1,10 +1,13 @@
 package ca.bazlur.guardrailsdemo;
 
 
+import dev.langchain4j.service.MemoryId;
 import dev.langchain4j.service.SystemMessage;
 import dev.langchain4j.service.UserMessage;
 
 public interface CustomerSupportAssistant {
-  @SystemMessage("You are a helpful customer support assistant. Respond professionally and helpfully to customer queries.")
-  String chat(@UserMessage String message);
+  String SYSTEM_PROMPT = "You are a helpful customer support assistant. Respond professionally and helpfully to customer queries.";
+
+  @SystemMessage(SYSTEM_PROMPT)
+  String chat(@MemoryId String sessionId, @UserMessage String message);
 }
@@ -1,10 +1,25 @@
 package ca.bazlur.guardrailsdemo;
 
+import ca.bazlur.guardrailsdemo.guardrail.GuardrailMetrics;
+import ca.bazlur.guardrailsdemo.model.PromptBudget.PromptTooLargeException;
 import dev.langchain4j.guardrail.InputGuardrailException;
 import dev.langchain4j.guardrail.OutputGuardrailException;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 @Slf4j
 @RestController
@@ -12,31 +27,200 @@ import org.springframework.web.bind.annotation.*;
 public class CustomerSupportController {
 
   private final CustomerSupportAssistant assistant;
+  private final StreamingChatService streamingChatService;
+  private final SessionIds sessionIds;
+  private final Duration chatTimeout;
+  private final Duration streamTimeout;
+  // A blocked virtual thread only holds its stack, so thousands of slow model calls in
+  // flight share a handful of carrier threads
+  private final ExecutorService chatExecutor =
+      Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-", 0).factory());
 
-  public CustomerSupportController(CustomerSupportAssistant assistant) {
+  public CustomerSupportController(CustomerSupportAssistant assistant,
+                                   StreamingChatService streamingChatService,
+                                   SessionIds sessionIds,
+                                   @Value("${app.chat.timeout:2m}") Duration chatTimeout,
+                                   @Value("${app.streaming.timeout:2m}") Duration streamTimeout) {
     this.assistant = assistant;
+    this.streamingChatService = streamingChatService;
+    this.sessionIds = sessionIds;
+    this.chatTimeout = chatTimeout;
+    this.streamTimeout = streamTimeout;
+  }
+
+  // Interrupts the chats still in flight, which aborts their guardrail and model calls
+  @PreDestroy
+  void close() {
+    chatExecutor.shutdownNow();
+  }
+
+  // A new conversation for a client that keeps several, or has no servlet session
+  @PostMapping("/sessions")
+  public SessionResponse newSession() {
+    return new SessionResponse(sessionIds.issue());
   }
 
+  // Answered asynchronously: the servlet thread is released at once and the assistant call,
+  // reprompts included, runs on its own virtual thread. When the timeout passes or the
+  // client goes away, that thread is interrupted, which aborts the model request in flight.
   @PostMapping("/chat")
-  public ResponseEntity<ChatResponse> chat(@RequestBody ChatRequest request) {
+  public DeferredResult<ResponseEntity<ChatResponse>> chat(@RequestBody ChatRequest request, HttpServletRequest httpRequest) {
+    DeferredResult<ResponseEntity<ChatResponse>> result = new DeferredResult<>(chatTimeout.toMillis());
+    String sessionId = sessionId(request, httpRequest);
+    if (sessionId == null) {
+      result.setResult(ResponseEntity.badRequest()
+          .body(new ChatResponse(false, null, "Invalid session ID")));
+      return result;
+    }
+    Future<?> call = chatExecutor.submit(() -> {
+      try {
+        result.setResult(answer(sessionId, request.message()));
+      } catch (RuntimeException e) {
+        // Handled by GuardrailExceptionHandler, as if the controller had thrown it
+        result.setErrorResult(e);
+      }
+    });
+    result.onTimeout(() -> {
+      call.cancel(true);
+      log.warn("Chat request timed out after {}", chatTimeout);
+      result.setResult(ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+          .body(new ChatResponse(false, null, "The assistant took too long to respond. Please try again.")));
+    });
+    result.onError(error -> call.cancel(true));
+    return result;
+  }
+
+  private ResponseEntity<ChatResponse> answer(String sessionId, String message) {
     try {
-      String response = assistant.chat(request.message());
+      String response = assistant.chat(sessionId, message);
       return ResponseEntity.ok(new ChatResponse(true, response, null));
     } catch (InputGuardrailException e) {
-      log.info("Invalid input {}", e.getMessage());
+      String reason = GuardrailMetrics.unproxied(e.getMessage());
+      log.info("Invalid input {}", reason);
       return ResponseEntity.badRequest()
-          .body(new ChatResponse(false, null, "Invalid input: " + e.getMessage()));
+          .body(new ChatResponse(false, null, "Invalid input: " + reason));
     } catch (OutputGuardrailException e) {
       log.info("Invalid output {}", e.getMessage());
       return ResponseEntity.internalServerError()
           .body(new ChatResponse(false, null, "Unable to generate appropriate response"));
+    } catch (PromptTooLargeException e) {
+      log.info("Prompt too large {}", e.getMessage());
+      return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+          .body(new ChatResponse(false, null, e.getMessage()));
+    }
+  }
+
+  // Server-sent events: "token" for each piece of the answer, "retract" when the output
+  // guardrails withdraw what was sent so far, then "done" with the full answer or "error"
+  @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public ResponseEntity<SseEmitter> chatStream(@RequestBody ChatRequest request, HttpServletRequest httpRequest) {
+    String sessionId = sessionId(request, httpRequest);
+    if (sessionId == null) {
+      return ResponseEntity.badRequest().build();
+    }
+    SseEmitter emitter = new SseEmitter(streamTimeout.toMillis());
+    SseListener listener = new SseListener(emitter);
+    emitter.onTimeout(listener::close);
+    emitter.onError(error -> listener.close());
+    emitter.onCompletion(listener::close);
+
+    // Held by the emitter until the handler returns, then flushed with the response headers.
+    // The guardrails and the model run on their own virtual thread, so they cannot delay it.
+    listener.send(SseEmitter.event().comment("stream open"));
+    chatExecutor.execute(() -> {
+      try {
+        streamingChatService.stream(sessionId, request.message(), listener);
+      } catch (RuntimeException e) {
+        log.error("Streaming chat failed", e);
+        listener.onError("Sorry, I encountered an error processing your request.");
+      }
+    });
+    return ResponseEntity.ok(emitter);
+  }
+
+  // Chat memory is kept per session: one issued by newSession() that the client names, or
+  // else the servlet session. Null if the client's session ID was not issued here. A servlet
+  // session is only created for a client that names none, so cookieless clients do not leave
+  // one behind per request.
+  private String sessionId(ChatRequest request, HttpServletRequest httpRequest) {
+    String sessionId = request.sessionId();
+    if (sessionId == null || sessionId.isEmpty()) {
+      return httpRequest.getSession().getId();
     }
+    return sessionIds.isValid(sessionId) ? sessionId : null;
   }
 
+  private static final class SseListener implements StreamingChatService.Listener {
+    private final SseEmitter emitter;
+    private volatile boolean closed;
+
+    SseListener(SseEmitter emitter) {
+      this.emitter = emitter;
+    }
+
+    @Override
+    public void onToken(String token) {
+      send(event("token", token));
+    }
+
+    @Override
+    public void onRetract(String reason) {
+      send(event("retract", reason));
+    }
+
+    @Override
+    public void onComplete(String answer) {
+      send(event("done", answer));
+      complete();
+    }
+
+    @Override
+    public void onError(String message) {
+      send(event("error", message));
+      complete();
+    }
+
+    // The client went away or the emitter timed out; the rest of the stream is discarded
+    void close() {
+      closed = true;
+    }
+
+    void send(SseEmitter.SseEventBuilder event) {
+      if (closed) {
+        return;
+      }
+      try {
+        emitter.send(event);
+      } catch (IOException | IllegalStateException e) {
+        log.debug("Streaming client disconnected: {}", e.getMessage());
+        close();
+      }
+    }
+
+    private void complete() {
+      if (!closed) {
+        closed = true;
+        emitter.complete();
+      }
+    }
+
+    private static SseEmitter.SseEventBuilder event(String name, String text) {
+      return SseEmitter.event().name(name).data(new StreamChunk(text), MediaType.APPLICATION_JSON);
+    }
+  }
 }
 
-record ChatRequest(String message) {
+record ChatRequest(String message, String sessionId) {
+  ChatRequest(String message) {
+    this(message, null);
+  }
 }
 
 record ChatResponse(boolean success, String response, String error) {
-}
\ No newline at end of file
+}
+
+record StreamChunk(String text) {
+}
+
+record SessionResponse(String sessionId) {
+}
@@ -1,5 +1,6 @@
 package ca.bazlur.guardrailsdemo;
 
+import ca.bazlur.guardrailsdemo.guardrail.GuardrailMetrics;
 import dev.langchain4j.guardrail.InputGuardrailException;
 import dev.langchain4j.guardrail.OutputGuardrailException;
 import lombok.extern.slf4j.Slf4j;
@@ -19,17 +20,19 @@ public class GuardrailExceptionHandler {
 
     @ExceptionHandler(InputGuardrailException.class)
     public ResponseEntity<ErrorResponse> handleInputGuardrailException(InputGuardrailException e, WebRequest request) {
-        log.warn("Input guardrail validation failed: {}", e.getMessage());
+        // Instrumented guardrails are named by their proxy class in the message
+        String message = GuardrailMetrics.unproxied(e.getMessage());
+        log.warn("Input guardrail validation failed: {}", message);
 
         // Log exception details for monitoring
         log.warn("Input guardrail exception of type: {}", e.getClass().getSimpleName());
 
         // Get the error message from the exception
-        String errorMessage = e.getMessage() != null ? e.getMessage() : "Input validation failed";
+        String errorMessage = message != null ? message : "Input validation failed";
         List<String> failures = List.of(errorMessage);
         
         // Extract guardrail information from exception message if available
-        String failedGuardrail = extractGuardrailName(e.getMessage());
+        String failedGuardrail = extractGuardrailName(message);
 
         return ResponseEntity.badRequest()
                 .body(new ErrorResponse(
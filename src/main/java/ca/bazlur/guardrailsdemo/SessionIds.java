@@ -0,0 +1,77 @@
+package ca.bazlur.guardrailsdemo;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+// Chat session IDs for clients that keep several conversations, or no cookies. An ID is a
+// random part and an HMAC of it under the server's key, so a client can only address the
+// conversations it was issued, not one it guessed or saw another client use.
+//
+// Without a configured key a random one is drawn at startup, and IDs issued before a restart
+// are rejected. Set app.chat.session-key to keep them valid across restarts.
+@Component
+public class SessionIds {
+
+  private static final String ALGORITHM = "HmacSHA256";
+  private static final int RANDOM_BYTES = 16;
+  private static final int SIGNATURE_BYTES = 16;
+  private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+  private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+  private final SecureRandom random = new SecureRandom();
+  private final SecretKeySpec key;
+
+  public SessionIds(@Value("${app.chat.session-key:}") String key) {
+    this(key.isBlank() ? null : Base64.getDecoder().decode(key));
+  }
+
+  SessionIds(byte[] key) {
+    if (key == null) {
+      key = new byte[32];
+      random.nextBytes(key);
+    }
+    this.key = new SecretKeySpec(key, ALGORITHM);
+  }
+
+  public String issue() {
+    byte[] id = new byte[RANDOM_BYTES];
+    random.nextBytes(id);
+    String encoded = ENCODER.encodeToString(id);
+    return encoded + "." + ENCODER.encodeToString(sign(encoded));
+  }
+
+  // Whether the ID was issued with this server's key
+  public boolean isValid(String sessionId) {
+    int dot = sessionId.indexOf('.');
+    if (dot <= 0 || dot != sessionId.lastIndexOf('.')) {
+      return false;
+    }
+    byte[] signature;
+    try {
+      signature = DECODER.decode(sessionId.substring(dot + 1));
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    return MessageDigest.isEqual(signature, sign(sessionId.substring(0, dot)));
+  }
+
+  private byte[] sign(String id) {
+    try {
+      // Mac instances are not thread-safe, and creating one is cheap next to a chat call
+      Mac mac = Mac.getInstance(ALGORITHM);
+      mac.init(key);
+      return Arrays.copyOf(mac.doFinal(id.getBytes(StandardCharsets.UTF_8)), SIGNATURE_BYTES);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Cannot sign session IDs", e);
+    }
+  }
+}
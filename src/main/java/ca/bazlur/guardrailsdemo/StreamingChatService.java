@@ -0,0 +1,203 @@
+package ca.bazlur.guardrailsdemo;
+
+import ca.bazlur.guardrailsdemo.guardrail.GuardrailMetrics;
+import ca.bazlur.guardrailsdemo.guardrail.IncrementalOutputGuardrail;
+import ca.bazlur.guardrailsdemo.guardrail.IncrementalOutputGuardrail.Violation;
+import ca.bazlur.guardrailsdemo.model.PromptBudget.PromptTooLargeException;
+import dev.langchain4j.guardrail.InputGuardrailException;
+import dev.langchain4j.service.TokenStream;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+
+// Streams an answer token by token while the output guardrails watch it grow. Input
+// guardrails run as usual before the model is called. Every token is checked before it is
+// forwarded, and the first one that makes the answer unacceptable withdraws everything
+// sent so far and starts a reprompt, just as the blocking assistant would after the whole
+// completion. Checks that need the complete answer run when the stream ends.
+//
+// Violations a guardrail can repair itself, such as a missing courtesy phrase or an answer
+// over the length limit, cost no reprompt. The rest of the answer is held back once it runs
+// over the limit, and when the stream ends the client gets the repaired answer: what it has
+// not seen yet, or a retract and the whole answer if the repair changed what it has seen.
+//
+// The model keeps generating after a violation, because langchain4j 1.1.0 cannot cancel a
+// stream. Its remaining tokens are dropped, and the reprompt is sent once the stream has
+// ended, so the chat memory records the turns in order.
+@Slf4j
+public class StreamingChatService {
+
+  public interface Listener {
+    void onToken(String token);
+
+    // Everything sent since the last retract is withdrawn; a revised answer may follow
+    void onRetract(String reason);
+
+    void onComplete(String answer);
+
+    void onError(String message);
+  }
+
+  private final StreamingCustomerSupportAssistant assistant;
+  private final StreamingCustomerSupportAssistant repromptAssistant;
+  private final List<IncrementalOutputGuardrail> outputGuardrails;
+  private final int maxRetries;
+
+  // repromptAssistant shares the assistant's model and memory but has no input guardrails,
+  // since reprompts are written by the output guardrails rather than the user
+  public StreamingChatService(StreamingCustomerSupportAssistant assistant,
+                              StreamingCustomerSupportAssistant repromptAssistant,
+                              List<? extends IncrementalOutputGuardrail> outputGuardrails,
+                              int maxRetries) {
+    this.assistant = assistant;
+    this.repromptAssistant = repromptAssistant;
+    this.outputGuardrails = List.copyOf(outputGuardrails);
+    this.maxRetries = maxRetries;
+  }
+
+  public void stream(String sessionId, String message, Listener listener) {
+    TokenStream tokens;
+    try {
+      tokens = assistant.chat(sessionId, message);
+    } catch (InputGuardrailException e) {
+      String reason = GuardrailMetrics.unproxied(e.getMessage());
+      log.info("Invalid input {}", reason);
+      listener.onError("Invalid input: " + reason);
+      return;
+    }
+    new Attempt(sessionId, listener, 0).consume(tokens);
+  }
+
+  private Violation firstViolation(String text, boolean partial) {
+    for (IncrementalOutputGuardrail guardrail : outputGuardrails) {
+      Violation violation = partial ? guardrail.checkPartial(text) : guardrail.checkComplete(text);
+      if (violation != null) {
+        return violation;
+      }
+    }
+    return null;
+  }
+
+  // The answer rewritten by each guardrail that rejects it, or null if one of them cannot
+  // repair it or the result is still unacceptable
+  private String repaired(String text) {
+    String answer = text;
+    for (IncrementalOutputGuardrail guardrail : outputGuardrails) {
+      if (guardrail.checkComplete(answer) != null) {
+        answer = guardrail.repair(answer);
+        if (answer == null) {
+          return null;
+        }
+      }
+    }
+    return firstViolation(answer, false) == null ? answer : null;
+  }
+
+  // One completion. Its callbacks arrive one at a time from the model client.
+  private final class Attempt {
+    private final String sessionId;
+    private final Listener listener;
+    private final int retries;
+    private final StringBuilder text = new StringBuilder();
+    // Length of the text forwarded to the client
+    private int forwarded;
+    // A repairable violation was found; the rest of the answer waits for the repair
+    private boolean holding;
+    private Violation violation;
+
+    Attempt(String sessionId, Listener listener, int retries) {
+      this.sessionId = sessionId;
+      this.listener = listener;
+      this.retries = retries;
+    }
+
+    void consume(TokenStream tokens) {
+      tokens.onPartialResponse(this::onToken)
+          .onCompleteResponse(response -> onComplete())
+          .onError(this::onError)
+          .start();
+    }
+
+    private void onToken(String token) {
+      if (violation != null) {
+        return;
+      }
+      text.append(token);
+      if (holding) {
+        return;
+      }
+      String partial = text.toString();
+      Violation found = firstViolation(partial, true);
+      if (found == null) {
+        listener.onToken(token);
+        forwarded = text.length();
+        return;
+      }
+      if (repaired(partial) != null) {
+        log.debug("Holding back the streamed answer after {} characters: {}", text.length(), found.message());
+        holding = true;
+        return;
+      }
+      violation = found;
+      log.info("Streamed answer withdrawn after {} characters: {}", text.length(), violation.message());
+      listener.onRetract(violation.message());
+    }
+
+    private void onComplete() {
+      if (violation == null) {
+        String answer = text.toString();
+        Violation found = firstViolation(answer, false);
+        if (found == null) {
+          finish(answer, null);
+          return;
+        }
+        String repaired = repaired(answer);
+        if (repaired != null) {
+          log.debug("Streamed answer repaired: {}", found.message());
+          finish(repaired, found.message());
+          return;
+        }
+        violation = found;
+        log.info("Streamed answer withdrawn on completion: {}", violation.message());
+        listener.onRetract(violation.message());
+      }
+
+      if (retries >= maxRetries) {
+        log.info("Invalid output {}", violation.message());
+        listener.onError("Unable to generate appropriate response");
+        return;
+      }
+      TokenStream next;
+      try {
+        next = repromptAssistant.chat(sessionId, violation.reprompt());
+      } catch (RuntimeException e) {
+        onError(e);
+        return;
+      }
+      new Attempt(sessionId, listener, retries + 1).consume(next);
+    }
+
+    // Sends the part of the answer the client has not seen, after a retract if the answer no
+    // longer starts with what it has seen
+    private void finish(String answer, String reason) {
+      String sent = text.substring(0, forwarded);
+      if (!answer.startsWith(sent)) {
+        listener.onRetract(reason);
+        listener.onToken(answer);
+      } else if (answer.length() > sent.length()) {
+        listener.onToken(answer.substring(sent.length()));
+      }
+      listener.onComplete(answer);
+    }
+
+    private void onError(Throwable error) {
+      if (error instanceof PromptTooLargeException) {
+        log.warn("Model request rejected before sending: {}", error.getMessage());
+        listener.onError(error.getMessage());
+        return;
+      }
+      log.error("Streaming chat failed", error);
+      listener.onError("Sorry, I encountered an error processing your request.");
+    }
+  }
+}
@@ -0,0 +1,12 @@
+package ca.bazlur.guardrailsdemo;
+
+
+import dev.langchain4j.service.MemoryId;
+import dev.langchain4j.service.SystemMessage;
+import dev.langchain4j.service.TokenStream;
+import dev.langchain4j.service.UserMessage;
+
+public interface StreamingCustomerSupportAssistant {
+  @SystemMessage(CustomerSupportAssistant.SYSTEM_PROMPT)
+  TokenStream chat(@MemoryId String sessionId, @UserMessage String message);
+}
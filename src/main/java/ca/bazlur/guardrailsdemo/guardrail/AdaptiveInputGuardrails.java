@@ -0,0 +1,263 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import dev.langchain4j.guardrail.InputGuardrail;
+import dev.langchain4j.guardrail.InputGuardrailRequest;
+import dev.langchain4j.guardrail.InputGuardrailResult;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Runs a chain of input guardrails one after another, stopping at the first rejection, in an
+// order learned from traffic. Each guardrail's latency and rejection rate are measured, and
+// every reorderInterval requests the chain is re-sorted by expected cost per rejection
+// (mean latency / rejection rate), which is the order that minimises the expected time to
+// reject when the checks are independent. Cheap checks that reject a lot move to the front.
+//
+// Only guardrails between two RewritingInputGuardrails are reordered, so every guardrail
+// still sees the text it would see in declared order, and a guardrail never runs before the
+// guardrails it declares a dependency on. One request in SAMPLE_EVERY keeps running past a
+// rejection so that the statistics of guardrails behind a frequent rejecter stay current.
+// Even then a guardrail is skipped if one it depends on rejected, or if it is a
+// StatefulInputGuardrail, since it would record a message the chain has already rejected.
+@Slf4j
+public class AdaptiveInputGuardrails implements InputGuardrail {
+
+  private static final int SAMPLE_EVERY = 32;
+  private static final double SMOOTHING = 0.2;
+  private static final double MIN_REJECTION_RATE = 0.001;
+
+  private final List<InputGuardrail> guardrails;
+  private final int[][] dependencies;
+  private final int reorderInterval;
+  private final Stats[] stats;
+  private final AtomicLong requests = new AtomicLong();
+  private final ReentrantLock reorderLock = new ReentrantLock();
+  private volatile int[] order;
+
+  public AdaptiveInputGuardrails(List<? extends InputGuardrail> guardrails,
+                                 Map<? extends InputGuardrail, ? extends List<? extends InputGuardrail>> dependencies,
+                                 int reorderInterval) {
+    if (reorderInterval <= 0) {
+      throw new IllegalArgumentException("Reorder interval must be positive");
+    }
+    this.guardrails = List.copyOf(guardrails);
+    this.reorderInterval = reorderInterval;
+    this.stats = new Stats[this.guardrails.size()];
+    Arrays.setAll(stats, i -> new Stats());
+
+    Map<InputGuardrail, Integer> positions = new IdentityHashMap<>();
+    for (int i = 0; i < this.guardrails.size(); i++) {
+      positions.put(this.guardrails.get(i), i);
+    }
+    this.dependencies = new int[this.guardrails.size()][];
+    for (int i = 0; i < this.guardrails.size(); i++) {
+      List<? extends InputGuardrail> declared = dependencies.getOrDefault(this.guardrails.get(i), List.of());
+      int[] resolved = new int[declared.size()];
+      for (int d = 0; d < declared.size(); d++) {
+        Integer position = positions.get(declared.get(d));
+        if (position == null || segmentEnd(position) > segmentEnd(i) || position == i) {
+          throw new IllegalArgumentException(name(i) + " cannot depend on " + GuardrailMetrics.nameOf(declared.get(d)));
+        }
+        resolved[d] = position;
+      }
+      this.dependencies[i] = resolved;
+    }
+    this.order = computeOrder(new double[this.guardrails.size()]);
+  }
+
+  @Override
+  public InputGuardrailResult validate(InputGuardrailRequest request) {
+    return TextAnalysis.shared(() -> validateShared(request));
+  }
+
+  private InputGuardrailResult validateShared(InputGuardrailRequest request) {
+    long requestNumber = requests.incrementAndGet();
+    boolean sampling = requestNumber % SAMPLE_EVERY == 0;
+    if (requestNumber % reorderInterval == 0) {
+      reorder();
+    }
+
+    InputGuardrailRequest current = request;
+    boolean rewritten = false;
+    InputGuardrailResult firstRejection = null;
+    boolean[] rejected = sampling ? new boolean[guardrails.size()] : null;
+    for (int index : order) {
+      InputGuardrail guardrail = guardrails.get(index);
+      if (firstRejection != null && !runsAfterRejection(index, rejected)) {
+        // Counts as rejected, so that whatever depends on it is skipped too
+        rejected[index] = true;
+        continue;
+      }
+      long start = System.nanoTime();
+      InputGuardrailResult result = guardrail.validate(current).validatedBy(guardrail.getClass());
+      stats[index].record(System.nanoTime() - start, !result.isSuccess());
+
+      if (result.isFatal()) {
+        return result;
+      }
+      if (!result.isSuccess()) {
+        if (firstRejection == null) {
+          firstRejection = result;
+        }
+        if (!sampling) {
+          break;
+        }
+        rejected[index] = true;
+      } else if (result.hasRewrittenResult()) {
+        current = current.withText(result.successfulText());
+        rewritten = true;
+      }
+    }
+
+    if (firstRejection != null) {
+      return firstRejection;
+    }
+    return rewritten ? successWith(current.userMessage().singleText()) : success();
+  }
+
+  // Whether a sampled request keeps running this guardrail once the chain has rejected it
+  private boolean runsAfterRejection(int index, boolean[] rejected) {
+    if (guardrails.get(index) instanceof StatefulInputGuardrail) {
+      return false;
+    }
+    for (int dependency : dependencies[index]) {
+      if (rejected[dependency]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Simple class names in the order the chain currently runs
+  public List<String> currentOrder() {
+    List<String> names = new ArrayList<>();
+    for (int index : order) {
+      names.add(name(index));
+    }
+    return names;
+  }
+
+  private void reorder() {
+    if (!reorderLock.tryLock()) {
+      return;
+    }
+    try {
+      double[] scores = new double[guardrails.size()];
+      for (int i = 0; i < scores.length; i++) {
+        scores[i] = stats[i].fold();
+      }
+      int[] updated = computeOrder(scores);
+      if (!Arrays.equals(updated, order)) {
+        order = updated;
+        log.info("Input guardrail order is now {}", currentOrder());
+      }
+    } finally {
+      reorderLock.unlock();
+    }
+  }
+
+  // Segments between rewriters keep their place; inside a segment the guardrail with the lowest
+  // score whose dependencies have already run goes next
+  private int[] computeOrder(double[] scores) {
+    int size = guardrails.size();
+    int[] result = new int[size];
+    boolean[] placed = new boolean[size];
+    int next = 0;
+    int segmentStart = 0;
+    while (segmentStart < size) {
+      int end = segmentEnd(segmentStart);
+      List<Integer> segment = new ArrayList<>();
+      for (int i = segmentStart; i < end; i++) {
+        segment.add(i);
+      }
+      segment.sort(Comparator.comparingDouble((Integer i) -> scores[i]).thenComparingInt(i -> i));
+      while (!segment.isEmpty()) {
+        int chosen = -1;
+        for (int candidate : segment) {
+          if (dependenciesPlaced(candidate, placed)) {
+            chosen = candidate;
+            break;
+          }
+        }
+        if (chosen < 0) {
+          throw new IllegalArgumentException("Guardrail dependencies form a cycle among " + segment.stream().map(this::name).toList());
+        }
+        segment.remove(Integer.valueOf(chosen));
+        placed[chosen] = true;
+        result[next++] = chosen;
+      }
+      if (end < size) {
+        placed[end] = true;
+        result[next++] = end;
+      }
+      segmentStart = end + 1;
+    }
+    return result;
+  }
+
+  private boolean dependenciesPlaced(int index, boolean[] placed) {
+    for (int dependency : dependencies[index]) {
+      if (!placed[dependency]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Position of the first rewriter at or after index, or the chain length if there is none
+  private int segmentEnd(int index) {
+    int i = index;
+    while (i < guardrails.size() && !(guardrails.get(i) instanceof RewritingInputGuardrail)) {
+      i++;
+    }
+    return i;
+  }
+
+  private String name(int index) {
+    return GuardrailMetrics.nameOf(guardrails.get(index));
+  }
+
+  private static final class Stats {
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private double meanNanos = Double.NaN;
+    private double rejectionRate = Double.NaN;
+
+    void record(long elapsedNanos, boolean rejected) {
+      calls.increment();
+      nanos.add(elapsedNanos);
+      if (rejected) {
+        rejections.increment();
+      }
+    }
+
+    // Folds the counts since the last call into the running averages and returns the
+    // expected cost per rejection. Only called under the reorder lock.
+    double fold() {
+      long periodCalls = calls.sumThenReset();
+      long periodNanos = nanos.sumThenReset();
+      long periodRejections = rejections.sumThenReset();
+      if (periodCalls > 0) {
+        meanNanos = smooth(meanNanos, (double) periodNanos / periodCalls);
+        rejectionRate = smooth(rejectionRate, (double) periodRejections / periodCalls);
+      }
+      if (Double.isNaN(meanNanos)) {
+        return 0;
+      }
+      return meanNanos / Math.max(rejectionRate, MIN_REJECTION_RATE);
+    }
+
+    private static double smooth(double average, double sample) {
+      return Double.isNaN(average) ? sample : average + SMOOTHING * (sample - average);
+    }
+  }
+}
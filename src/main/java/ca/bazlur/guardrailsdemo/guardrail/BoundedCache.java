@@ -0,0 +1,315 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+// Size- and idle-time-bounded map for per-user state and cached verdicts, using the
+// W-TinyLFU policy: new entries land in a small LRU window, and an entry leaving the window
+// only displaces the main region's LRU victim if it has been seen more often, as estimated
+// by a 4-bit count-min sketch that is halved periodically so old popularity fades. A burst of one-off keys
+// therefore cannot flush out the entries that keep coming back.
+//
+// Idle entries are removed by the shared ExpiryScheduler, never on the request path.
+// All operations take the cache lock and are O(1). Only getOrCreate() calls user code
+// under the lock, so its factory must be cheap; compute expensive values outside and put().
+// The removal listener also runs under the lock and must not call back into the cache.
+public final class BoundedCache<K, V> {
+
+    public record Stats(long hits, long misses, long evictions, long expirations, int size) {
+    }
+
+    private final int maxEntries;
+    private final int windowMax;
+    private final int protectedMax;
+    private final long idleTimeoutNanos;
+    private final ExpiryScheduler expiryScheduler;
+    private final BiConsumer<K, V> removalListener;
+    private final FrequencySketch sketch;
+    private final Map<K, Node<K, V>> entries;
+    private final AccessOrder<K, V> window = new AccessOrder<>();
+    private final AccessOrder<K, V> probation = new AccessOrder<>();
+    private final AccessOrder<K, V> protectedRegion = new AccessOrder<>();
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    public BoundedCache(int maxEntries, long idleTimeoutNanos, ExpiryScheduler expiryScheduler) {
+        this(maxEntries, idleTimeoutNanos, expiryScheduler, (key, value) -> {
+        });
+    }
+
+    // removalListener is told about every entry that leaves the cache: evicted, expired or invalidated
+    public BoundedCache(int maxEntries, long idleTimeoutNanos, ExpiryScheduler expiryScheduler,
+                        BiConsumer<K, V> removalListener) {
+        if (maxEntries <= 0 || idleTimeoutNanos <= 0) {
+            throw new IllegalArgumentException("Cache size and idle timeout must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.windowMax = Math.max(1, maxEntries / 100);
+        this.protectedMax = (int) ((maxEntries - windowMax) * 0.8);
+        this.idleTimeoutNanos = idleTimeoutNanos;
+        this.expiryScheduler = expiryScheduler;
+        this.removalListener = removalListener;
+        this.sketch = new FrequencySketch(maxEntries);
+        this.entries = new HashMap<>(Math.min(maxEntries, 1 << 16) * 4 / 3 + 1);
+    }
+
+    // Returns the value for key, creating it on a miss. Either way the entry counts as used now.
+    public synchronized V getOrCreate(K key, Supplier<V> factory, long nowNanos) {
+        V value = getIfPresent(key, nowNanos);
+        if (value == null) {
+            value = factory.get();
+            insert(key, value, nowNanos);
+        }
+        return value;
+    }
+
+    // Returns the value for key and counts the entry as used now, or null on a miss
+    public synchronized V getIfPresent(K key, long nowNanos) {
+        sketch.increment(key.hashCode());
+        Node<K, V> node = entries.get(key);
+        if (node == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        node.lastAccess = nowNanos;
+        onHit(node);
+        return node.value;
+    }
+
+    // Returns the value for key without counting a use, or null
+    public synchronized V peek(K key) {
+        Node<K, V> node = entries.get(key);
+        return node == null ? null : node.value;
+    }
+
+    // Adds the entry unless the key is already present. The admission policy may still
+    // decide that a new key is not worth keeping.
+    public synchronized void put(K key, V value, long nowNanos) {
+        if (!entries.containsKey(key)) {
+            insert(key, value, nowNanos);
+        }
+    }
+
+    // Removes the entry, returning whether it was present
+    public synchronized boolean invalidate(K key) {
+        Node<K, V> node = entries.get(key);
+        if (node == null) {
+            return false;
+        }
+        remove(node);
+        return true;
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, expirations, entries.size());
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private void insert(K key, V value, long nowNanos) {
+        Node<K, V> node = new Node<>(key, value, nowNanos);
+        entries.put(key, node);
+        window.addLast(node);
+        node.region = Region.WINDOW;
+        evictIfNeeded();
+        if (node.region != null) {
+            expiryScheduler.schedule(nowNanos + idleTimeoutNanos, now -> expireIfIdle(node, now));
+        }
+    }
+
+    private void onHit(Node<K, V> node) {
+        switch (node.region) {
+            case WINDOW -> window.moveToEnd(node);
+            case PROTECTED -> protectedRegion.moveToEnd(node);
+            case PROBATION -> {
+                probation.remove(node);
+                protectedRegion.addLast(node);
+                node.region = Region.PROTECTED;
+                while (protectedRegion.size > protectedMax) {
+                    Node<K, V> demoted = protectedRegion.head;
+                    protectedRegion.remove(demoted);
+                    probation.addLast(demoted);
+                    demoted.region = Region.PROBATION;
+                }
+            }
+        }
+    }
+
+    private void evictIfNeeded() {
+        while (window.size > windowMax) {
+            Node<K, V> candidate = window.head;
+            window.remove(candidate);
+            probation.addLast(candidate);
+            candidate.region = Region.PROBATION;
+            if (entries.size() > maxEntries) {
+                evictFromMain(candidate);
+            }
+        }
+    }
+
+    // The candidate only gets in if the sketch says it is used more often than the main LRU victim
+    private void evictFromMain(Node<K, V> candidate) {
+        Node<K, V> victim = probation.head != candidate ? probation.head : protectedRegion.head;
+        if (victim == null
+                || sketch.frequency(candidate.key.hashCode()) <= sketch.frequency(victim.key.hashCode())) {
+            victim = candidate;
+        }
+        evictions++;
+        remove(victim);
+    }
+
+    // Runs on the expiry thread; re-arms itself until the entry has been idle for the full timeout
+    private synchronized long expireIfIdle(Node<K, V> node, long nowNanos) {
+        if (node.region == null) {
+            return ExpiryScheduler.DONE;
+        }
+        if (nowNanos - node.lastAccess < idleTimeoutNanos) {
+            return node.lastAccess + idleTimeoutNanos;
+        }
+        expirations++;
+        remove(node);
+        return ExpiryScheduler.DONE;
+    }
+
+    private void remove(Node<K, V> node) {
+        switch (node.region) {
+            case WINDOW -> window.remove(node);
+            case PROBATION -> probation.remove(node);
+            case PROTECTED -> protectedRegion.remove(node);
+        }
+        node.region = null;
+        entries.remove(node.key);
+        removalListener.accept(node.key, node.value);
+    }
+
+    private enum Region {
+        WINDOW, PROBATION, PROTECTED
+    }
+
+    private static final class Node<K, V> {
+        private final K key;
+        private final V value;
+        private long lastAccess;
+        private Region region;
+        private Node<K, V> prev;
+        private Node<K, V> next;
+
+        Node(K key, V value, long lastAccess) {
+            this.key = key;
+            this.value = value;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    // Intrusive LRU list: head is the least recently used node
+    private static final class AccessOrder<K, V> {
+        private Node<K, V> head;
+        private Node<K, V> tail;
+        private int size;
+
+        void addLast(Node<K, V> node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            size++;
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+
+        void moveToEnd(Node<K, V> node) {
+            if (node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+
+    // Count-min sketch with four 4-bit counters per key, packed sixteen to a long. Once the
+    // number of increments reaches ten times the cache size every counter is halved.
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+        };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maxEntries) {
+            int size = Integer.highestOneBit(Math.max(8, Math.min(maxEntries, 1 << 24)) - 1) << 1;
+            this.table = new long[size];
+            this.tableMask = size - 1;
+            this.sampleSize = (int) Math.min(10L * maxEntries, Integer.MAX_VALUE);
+        }
+
+        int frequency(int hash) {
+            int frequency = 15;
+            for (int i = 0; i < SEEDS.length; i++) {
+                long h = spread(hash, i);
+                frequency = Math.min(frequency, (int) ((table[index(h)] >>> shift(h)) & 0xF));
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                long h = spread(hash, i);
+                int index = index(h);
+                int shift = shift(h);
+                if (((table[index] >>> shift) & 0xF) != 0xF) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions >>>= 1;
+            }
+        }
+
+        private int index(long h) {
+            return (int) (h >>> 32) & tableMask;
+        }
+
+        private static int shift(long h) {
+            return (int) (h & 15) << 2;
+        }
+
+        private static long spread(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[(i + 1) & 3];
+            return h ^ (h >>> 29);
+        }
+    }
+}
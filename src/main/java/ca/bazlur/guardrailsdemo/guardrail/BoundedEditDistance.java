@@ -0,0 +1,133 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import java.util.Arrays;
+
+// Levenshtein distance from one fixed pattern to many texts, using Myers' bit-parallel
+// algorithm in Hyyro's block form: each DP column is held as 64-row bit vectors of +1/-1
+// vertical deltas, so a text character costs ceil(pattern.length() / 64) word operations
+// instead of pattern.length() cell updates, and no matrix is ever allocated.
+//
+// The match-position bit masks are built once per pattern. distance() stops as soon as the
+// result is certain to exceed the caller's limit.
+final class BoundedEditDistance {
+  private final int patternLength;
+  private final int blocks;
+  private final long lastRowBit;
+  private final int[] slotKeys;
+  private final int[] slotIndexes;
+  private final int slotMask;
+  private final long[] matchMasks;
+
+  BoundedEditDistance(CharSequence pattern) {
+    this.patternLength = pattern.length();
+    this.blocks = Math.max(1, (patternLength + 63) >>> 6);
+    this.lastRowBit = patternLength == 0 ? 0 : 1L << ((patternLength - 1) & 63);
+
+    int tableSize = 16;
+    while (tableSize < patternLength * 2) {
+      tableSize <<= 1;
+    }
+    this.slotKeys = new int[tableSize];
+    this.slotIndexes = new int[tableSize];
+    this.slotMask = tableSize - 1;
+    Arrays.fill(slotKeys, -1);
+
+    int slots = 0;
+    for (int i = 0; i < patternLength; i++) {
+      char c = pattern.charAt(i);
+      if (slotOf(c) < 0) {
+        insert(c, slots++);
+      }
+    }
+    this.matchMasks = new long[slots * blocks];
+    for (int i = 0; i < patternLength; i++) {
+      matchMasks[slotOf(pattern.charAt(i)) * blocks + (i >>> 6)] |= 1L << (i & 63);
+    }
+  }
+
+  // Edit distance to text, or limit + 1 as soon as the distance is known to be larger than limit
+  int distance(CharSequence text, int limit) {
+    int textLength = text.length();
+    if (Math.abs(patternLength - textLength) > limit) {
+      return limit + 1;
+    }
+    if (patternLength == 0) {
+      return textLength;
+    }
+
+    long[] positive = new long[blocks];
+    long[] negative = new long[blocks];
+    Arrays.fill(positive, -1L);
+    int score = patternLength;
+
+    for (int j = 0; j < textLength; j++) {
+      int slot = slotOf(text.charAt(j));
+      // The first DP row is 0, 1, 2, ... so every column enters the top block with a +1
+      int carry = 1;
+      for (int b = 0; b < blocks; b++) {
+        long eq = slot < 0 ? 0L : matchMasks[slot * blocks + b];
+        long pv = positive[b];
+        long mv = negative[b];
+
+        long xv = eq | mv;
+        if (carry < 0) {
+          eq |= 1L;
+        }
+        long xh = (((eq & pv) + pv) ^ pv) | eq;
+        long ph = mv | ~(xh | pv);
+        long mh = pv & xh;
+
+        if (b == blocks - 1) {
+          if ((ph & lastRowBit) != 0) {
+            score++;
+          } else if ((mh & lastRowBit) != 0) {
+            score--;
+          }
+        }
+        int carryOut = ph < 0 ? 1 : mh < 0 ? -1 : 0;
+
+        ph <<= 1;
+        mh <<= 1;
+        if (carry < 0) {
+          mh |= 1L;
+        } else if (carry > 0) {
+          ph |= 1L;
+        }
+        positive[b] = mh | ~(xv | ph);
+        negative[b] = ph & xv;
+        carry = carryOut;
+      }
+
+      // The last row can only drop by one per remaining column
+      if (score - (textLength - j - 1) > limit) {
+        return limit + 1;
+      }
+    }
+    return score <= limit ? score : limit + 1;
+  }
+
+  // Dense index of c among the pattern's distinct characters, or -1 if it does not occur
+  private int slotOf(char c) {
+    int i = hash(c);
+    while (slotKeys[i] >= 0) {
+      if (slotKeys[i] == c) {
+        return slotIndexes[i];
+      }
+      i = (i + 1) & slotMask;
+    }
+    return -1;
+  }
+
+  private void insert(char c, int index) {
+    int i = hash(c);
+    while (slotKeys[i] >= 0) {
+      i = (i + 1) & slotMask;
+    }
+    slotKeys[i] = c;
+    slotIndexes[i] = index;
+  }
+
+  private int hash(char c) {
+    return (c * 0x9E3779B1 >>> 16) & slotMask;
+  }
+}
@@ -3,6 +3,8 @@ package ca.bazlur.guardrailsdemo.guardrail;
 import dev.langchain4j.data.message.UserMessage;
 import dev.langchain4j.guardrail.InputGuardrail;
 import dev.langchain4j.guardrail.InputGuardrailResult;
+import dev.langchain4j.model.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
@@ -28,20 +30,58 @@ public class ContentSafetyInputGuardrail implements InputGuardrail {
       Pattern.compile("[\\w\\s]*(?:how\\s+to|teach\\s+me|show\\s+me)\\s+(?:hack|exploit|bypass)", Pattern.CASE_INSENSITIVE)
   );
 
+  // Both rule sets are compiled into automata once, so scanning costs one pass per message
+  // regardless of how many words or leetspeak variants the lists hold. Prohibited words are
+  // matched against the lower-cased text exactly like String.contains; the character classes
+  // in the threat patterns are expanded into literal keywords by the scanner.
+  private static final KeywordAutomaton PROHIBITED_WORD_MATCHER = KeywordAutomaton.of(PROHIBITED_WORDS);
+  private static final MultiPatternScanner THREAT_SCANNER = MultiPatternScanner.compile(THREAT_PATTERNS);
+
   private final int maxLength;
+  private final int maxTokens;
+  private final TokenCountEstimator tokenCounter;
+  private final long rulesFingerprint;
+  private final VerdictCache verdictCache;
+
+  public ContentSafetyInputGuardrail(int maxLength) {
+    this(maxLength, VerdictCache.disabled());
+  }
+
+  // Limits characters only
+  public ContentSafetyInputGuardrail(int maxLength, VerdictCache verdictCache) {
+    this(maxLength, Integer.MAX_VALUE, null, verdictCache);
+  }
 
-  public ContentSafetyInputGuardrail(@Value("${app.guardrails.input.max-length}") int maxLength) {
+  // The character limit is a cheap bound checked first, so oversized input is never encoded;
+  // the token limit is the one the model's budget is actually measured in
+  @Autowired
+  public ContentSafetyInputGuardrail(@Value("${app.guardrails.input.max-length}") int maxLength,
+                                     @Value("${app.guardrails.input.max-tokens:250}") int maxTokens,
+                                     TokenCountEstimator tokenCounter,
+                                     VerdictCache verdictCache) {
     this.maxLength = maxLength;
+    this.maxTokens = maxTokens;
+    this.tokenCounter = tokenCounter;
+    this.rulesFingerprint = VerdictCache.fingerprint(PROHIBITED_WORDS, THREAT_PATTERNS, maxLength, maxTokens);
+    this.verdictCache = verdictCache;
   }
 
   @Override
   public InputGuardrailResult validate(UserMessage userMessage) {
-    String originalText = userMessage.singleText();
-    String text = originalText.toLowerCase();
+    return verdictCache.validate(this, rulesFingerprint, userMessage.singleText(), this::evaluate);
+  }
+
+  private InputGuardrailResult evaluate(String originalText) {
+    TextAnalysis analysis = TextAnalysis.of(originalText);
+    String text = analysis.lowerCase();
     
     if (originalText.length() > maxLength) {
       return failure("Your message is too long. Please keep it under " + maxLength + " characters.");
     }
+    if (tokenCounter != null && tokenCounter.estimateTokenCountInText(originalText) > maxTokens) {
+      // About three words to every four tokens in English
+      return failure("Your message is too long. Please keep it under about " + maxTokens * 3 / 4 + " words.");
+    }
     if (text.isBlank()) {
       return failure("Your message cannot be empty.");
     }
@@ -50,34 +90,28 @@ public class ContentSafetyInputGuardrail implements InputGuardrail {
     }
 
     // Check for prohibited words
-    for (String word : PROHIBITED_WORDS) {
-      if (text.contains(word)) {
-        return failure("Your message contains prohibited content related to security threats.");
-      }
+    if (PROHIBITED_WORD_MATCHER.containsAny(text)) {
+      return failure("Your message contains prohibited content related to security threats.");
     }
 
     // Check for obfuscated patterns
-    for (Pattern pattern : THREAT_PATTERNS) {
-      if (pattern.matcher(originalText).find()) {
-        return failure("Your message contains potentially harmful content patterns.");
-      }
+    if (THREAT_SCANNER.scan(originalText).anyMatch(0, THREAT_SCANNER.size())) {
+      return failure("Your message contains potentially harmful content patterns.");
     }
 
     // Check for suspicious character patterns
-    if (containsSuspiciousObfuscation(originalText)) {
+    if (containsSuspiciousObfuscation(analysis.chars())) {
       return failure("Your message contains suspicious character substitutions.");
     }
 
     return success();
   }
 
-  private boolean containsSuspiciousObfuscation(String text) {
-    // Detect excessive special character substitution
-    long specialChars = text.chars()
-        .filter(c -> "@#$%^&*()_+-=[]{}|;':\",./<>?".indexOf(c) != -1)
-        .count();
+  private boolean containsSuspiciousObfuscation(TextAnalysis.CharProfile chars) {
+    // Detect excessive special character substitution (@#$%^&*()_+-=[]{}|;':",./<>?)
+    long specialChars = chars.substitutionSymbols();
     
     // If more than 15% of characters are special symbols, it's suspicious
-    return (double) specialChars / text.length() > 0.15;
+    return (double) specialChars / chars.length() > 0.15;
   }
 }
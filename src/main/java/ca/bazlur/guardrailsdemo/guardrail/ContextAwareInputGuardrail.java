@@ -1,34 +1,47 @@
 package ca.bazlur.guardrailsdemo.guardrail;
 
 import dev.langchain4j.data.message.UserMessage;
-import dev.langchain4j.guardrail.InputGuardrail;
 import dev.langchain4j.guardrail.InputGuardrailResult;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
 @Slf4j
-public class ContextAwareInputGuardrail implements InputGuardrail {
+public class ContextAwareInputGuardrail implements StatefulInputGuardrail {
     
     private static final int MAX_REQUESTS_PER_MINUTE = 20;
     private static final int MAX_SIMILAR_QUESTIONS = 3;
+    private static final int MAX_RECENT_QUESTIONS = 10;
     private static final double SIMILARITY_THRESHOLD = 0.8;
+    private static final int DEFAULT_MAX_SESSIONS = 10_000;
+    private static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(30);
     
     // Simple in-memory store for demonstration - in production use Redis or database
-    private final ConcurrentHashMap<String, UserSession> userSessions = new ConcurrentHashMap<>();
+    private final BoundedCache<String, UserSession> userSessions;
+    
+    public ContextAwareInputGuardrail() {
+        this(DEFAULT_MAX_SESSIONS, DEFAULT_IDLE_TIMEOUT, ExpiryScheduler.defaultScheduler());
+    }
+    
+    @Autowired
+    public ContextAwareInputGuardrail(
+            @Value("${app.guardrails.input.sessions.max-entries:10000}") int maxSessions,
+            @Value("${app.guardrails.input.sessions.idle-timeout:30m}") Duration idleTimeout,
+            ExpiryScheduler expiryScheduler) {
+        this.userSessions = new BoundedCache<>(maxSessions, idleTimeout.toNanos(), expiryScheduler);
+    }
     
     @Override
     public InputGuardrailResult validate(UserMessage userMessage) {
-        String currentQuestion = userMessage.singleText();
+        QuestionSignature currentQuestion = QuestionSignature.of(TextAnalysis.of(userMessage.singleText()));
         String sessionId = extractSessionId(userMessage); // This would come from context in real app
         
-        UserSession session = userSessions.computeIfAbsent(sessionId, k -> new UserSession());
+        UserSession session = userSessions.getOrCreate(sessionId, UserSession::new, System.nanoTime());
         
         // Rate limiting check
         if (isRateLimited(session)) {
@@ -48,43 +61,31 @@ public class ContextAwareInputGuardrail implements InputGuardrail {
         return success();
     }
     
+    public BoundedCache.Stats sessionStats() {
+        return userSessions.stats();
+    }
+    
     private boolean isRateLimited(UserSession session) {
         long currentTime = System.currentTimeMillis();
         long oneMinuteAgo = currentTime - 60_000; // 1 minute ago
         
-        // Clean old requests
-        session.requestTimes.removeIf(time -> time < oneMinuteAgo);
-        
-        // Check if exceeded rate limit
-        if (session.requestTimes.size() >= MAX_REQUESTS_PER_MINUTE) {
-            return true;
+        synchronized (session) {
+            // Clean old requests
+            session.dropRequestsBefore(oneMinuteAgo);
+            
+            // Check if exceeded rate limit
+            if (session.requestCount >= MAX_REQUESTS_PER_MINUTE) {
+                return true;
+            }
+            
+            // Record current request
+            session.recordRequest(currentTime);
+            return false;
         }
-        
-        // Record current request
-        session.requestTimes.add(currentTime);
-        return false;
     }
     
-    private boolean isRepetitiveQuestion(UserSession session, String currentQuestion) {
-        long similarQuestions = session.recentQuestions.stream()
-            .filter(q -> calculateSimilarity(q, currentQuestion) > SIMILARITY_THRESHOLD)
-            .count();
-        
-        return similarQuestions >= MAX_SIMILAR_QUESTIONS;
-    }
-    
-    private double calculateSimilarity(String s1, String s2) {
-        // Simple Jaccard similarity - in production, use more sophisticated methods
-        Set<String> set1 = new HashSet<>(Arrays.asList(s1.toLowerCase().split("\\s+")));
-        Set<String> set2 = new HashSet<>(Arrays.asList(s2.toLowerCase().split("\\s+")));
-        
-        Set<String> intersection = new HashSet<>(set1);
-        intersection.retainAll(set2);
-        
-        Set<String> union = new HashSet<>(set1);
-        union.addAll(set2);
-        
-        return union.isEmpty() ? 0 : (double) intersection.size() / union.size();
+    private boolean isRepetitiveQuestion(UserSession session, QuestionSignature currentQuestion) {
+        return session.countSimilarQuestions(currentQuestion, SIMILARITY_THRESHOLD) >= MAX_SIMILAR_QUESTIONS;
     }
     
     private String extractSessionId(UserMessage userMessage) {
@@ -94,17 +95,59 @@ public class ContextAwareInputGuardrail implements InputGuardrail {
     }
     
     private static class UserSession {
-        private final Set<String> recentQuestions = ConcurrentHashMap.newKeySet();
-        private final Set<Long> requestTimes = ConcurrentHashMap.newKeySet();
-        private final AtomicInteger questionCount = new AtomicInteger(0);
+        private final QuestionSignature[] recentQuestions = new QuestionSignature[MAX_RECENT_QUESTIONS];
+        private int recentQuestionCount;
+        private int questionCount;
+        // Ring of the request times within the last minute, oldest first; it never needs
+        // more than MAX_REQUESTS_PER_MINUTE slots because rejected requests are not recorded
+        private final long[] requestTimes = new long[MAX_REQUESTS_PER_MINUTE];
+        private int requestCount;
+        private int nextRequestSlot;
+        
+        void dropRequestsBefore(long cutoff) {
+            while (requestCount > 0 && requestTimes[slot(nextRequestSlot - requestCount)] < cutoff) {
+                requestCount--;
+            }
+        }
+        
+        void recordRequest(long time) {
+            // Two requests in the same millisecond have always counted once
+            if (requestCount > 0 && requestTimes[slot(nextRequestSlot - 1)] == time) {
+                return;
+            }
+            requestTimes[nextRequestSlot] = time;
+            nextRequestSlot = slot(nextRequestSlot + 1);
+            requestCount++;
+        }
         
-        void addQuestion(String question) {
+        private static int slot(int index) {
+            return Math.floorMod(index, MAX_REQUESTS_PER_MINUTE);
+        }
+        
+        synchronized long countSimilarQuestions(QuestionSignature question, double threshold) {
+            long similar = 0;
+            for (int i = 0; i < recentQuestionCount; i++) {
+                if (recentQuestions[i].similarity(question) > threshold) {
+                    similar++;
+                }
+            }
+            return similar;
+        }
+        
+        synchronized void addQuestion(QuestionSignature question) {
             // Keep only the last 10 questions to prevent memory issues
-            if (questionCount.incrementAndGet() > 10) {
-                recentQuestions.clear();
-                questionCount.set(1);
+            if (++questionCount > MAX_RECENT_QUESTIONS) {
+                Arrays.fill(recentQuestions, null);
+                recentQuestionCount = 0;
+                questionCount = 1;
+            }
+            // Asking the exact same question again does not add a second entry
+            for (int i = 0; i < recentQuestionCount; i++) {
+                if (recentQuestions[i].sameText(question)) {
+                    return;
+                }
             }
-            recentQuestions.add(question);
+            recentQuestions[recentQuestionCount++] = question;
         }
     }
 }
\ No newline at end of file
@@ -9,30 +9,36 @@ import dev.langchain4j.guardrail.InputGuardrailResult;
 import dev.langchain4j.memory.ChatMemory;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+
 @Component
 public class ConversationContextGuardrail implements InputGuardrail {
   private static final int MAX_QUESTIONS_PER_TOPIC = 5;
+  private static final double SIMILARITY_THRESHOLD = 0.7;
 
   @Override
   public InputGuardrailResult validate(InputGuardrailRequest params) {
     ChatMemory memory = params.requestParams().chatMemory();
-
-    if (memory == null || memory.messages().isEmpty()) {
+    if (memory == null) {
       return success();
     }
 
-    String currentQuestion = params.userMessage().singleText();
-
-    for (ChatMessage message : memory.messages()) {
-      getMessage(message);
+    // messages() copies the window, so read it once
+    List<ChatMessage> messages = memory.messages();
+    if (messages.isEmpty()) {
+      return success();
     }
 
-    long similarQuestions = memory.messages().stream()
+    String currentQuestion = TextAnalysis.of(params.userMessage().singleText()).lowerCase();
+    // Bit masks for the current question are shared by every comparison in this request
+    BoundedEditDistance editDistance = new BoundedEditDistance(currentQuestion);
+
+    long similarQuestions = messages.stream()
         .filter(msg -> msg instanceof UserMessage)
         .map(msg -> getMessage(msg).toLowerCase())
-        .filter(msgText -> currentQuestion.toLowerCase().contains(msgText) || 
-                          msgText.contains(currentQuestion.toLowerCase()) ||
-                          calculateSimilarity(msgText, currentQuestion.toLowerCase()) > 0.7)
+        .filter(msgText -> currentQuestion.contains(msgText) || 
+                          msgText.contains(currentQuestion) ||
+                          isSimilar(msgText, currentQuestion, editDistance))
         .count();
     if (similarQuestions > MAX_QUESTIONS_PER_TOPIC) {
       return failure("You've asked similar questions multiple times. Please try a different topic.");
@@ -49,35 +55,28 @@ public class ConversationContextGuardrail implements InputGuardrail {
     };
   }
 
-  private double calculateSimilarity(String text1, String text2) {
-    if (text1 == null || text2 == null) return 0.0;
-    if (text1.equals(text2)) return 1.0;
-    
-    // Simple Levenshtein similarity
-    int maxLen = Math.max(text1.length(), text2.length());
-    if (maxLen == 0) return 1.0;
-    
-    return (maxLen - levenshteinDistance(text1, text2)) / (double) maxLen;
+  // Same verdict as (maxLen - levenshtein) / maxLen > 0.7, but the distance computation gives
+  // up as soon as it exceeds the largest distance that could still pass the threshold
+  private boolean isSimilar(String text, String currentQuestion, BoundedEditDistance editDistance) {
+    if (text.equals(currentQuestion)) return true;
+
+    int maxLen = Math.max(text.length(), currentQuestion.length());
+    if (maxLen == 0) return true;
+
+    int limit = maxAllowedDistance(maxLen);
+    return limit >= 0 && editDistance.distance(text, limit) <= limit;
   }
 
-  private int levenshteinDistance(String s1, String s2) {
-    int[][] dp = new int[s1.length() + 1][s2.length() + 1];
-    
-    for (int i = 0; i <= s1.length(); i++) {
-      for (int j = 0; j <= s2.length(); j++) {
-        if (i == 0) {
-          dp[i][j] = j;
-        } else if (j == 0) {
-          dp[i][j] = i;
-        } else {
-          dp[i][j] = Math.min(
-              dp[i - 1][j - 1] + (s1.charAt(i - 1) == s2.charAt(j - 1) ? 0 : 1),
-              Math.min(dp[i - 1][j] + 1, dp[i][j - 1] + 1)
-          );
-        }
-      }
+  // Largest distance d for which (maxLen - d) / maxLen is still above the threshold,
+  // evaluated with the same floating-point expression as the original similarity score
+  private static int maxAllowedDistance(int maxLen) {
+    int d = (int) (maxLen * (1 - SIMILARITY_THRESHOLD));
+    while (d >= 0 && (maxLen - d) / (double) maxLen <= SIMILARITY_THRESHOLD) {
+      d--;
+    }
+    while ((maxLen - (d + 1)) / (double) maxLen > SIMILARITY_THRESHOLD) {
+      d++;
     }
-    
-    return dp[s1.length()][s2.length()];
+    return d;
   }
 }
@@ -3,14 +3,33 @@ package ca.bazlur.guardrailsdemo.guardrail;
 import dev.langchain4j.data.message.UserMessage;
 import dev.langchain4j.guardrail.InputGuardrail;
 import dev.langchain4j.guardrail.InputGuardrailResult;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.regex.Pattern;
+
 @Component
 public class CustomerContextInputGuardrail implements InputGuardrail {
+  private static final Pattern TICKET_NUMBER = Pattern.compile(".*\\b[A-Z]{2,3}-\\d{4,6}\\b.*");
+  private static final long RULES_FINGERPRINT = VerdictCache.fingerprint("name", TICKET_NUMBER);
+
+  private final VerdictCache verdictCache;
+
+  public CustomerContextInputGuardrail() {
+    this(VerdictCache.disabled());
+  }
+
+  @Autowired
+  public CustomerContextInputGuardrail(VerdictCache verdictCache) {
+    this.verdictCache = verdictCache;
+  }
+
   @Override
   public InputGuardrailResult validate(UserMessage userMessage) {
-    String text = userMessage.singleText();
+    return verdictCache.validate(this, RULES_FINGERPRINT, userMessage.singleText(), this::evaluate);
+  }
 
+  private InputGuardrailResult evaluate(String text) {
     if (!containCustomerInfo(text)) {
       return failure("Please provide your name and ticket number to begin");
     }
@@ -19,7 +38,7 @@ public class CustomerContextInputGuardrail implements InputGuardrail {
   }
 
   private boolean containCustomerInfo(String text) {
-    return text.toLowerCase().contains("name") ||
-        text.matches(".*\\b[A-Z]{2,3}-\\d{4,6}\\b.*");
+    return TextAnalysis.of(text).lowerCase().contains("name") ||
+        TICKET_NUMBER.matcher(text).matches();
   }
 }
@@ -0,0 +1,157 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+// Shared expiry timer for per-user guardrail state, driven by a hierarchical timing wheel on
+// one dedicated daemon thread. Request threads only enqueue a task (a lock-free offer); the
+// wheel thread files it into a bucket and runs it when it is due, so no request ever pays for
+// a sweep over all users.
+//
+// A task returns the next time it wants to run, or DONE. Owners typically schedule one task
+// per key when the key is first seen and let it re-arm itself while the key is still active.
+@Component
+@Slf4j
+public class ExpiryScheduler implements AutoCloseable {
+
+  public static final long DONE = Long.MIN_VALUE;
+
+  private static final int SLOT_BITS = 6;
+  private static final int SLOTS = 1 << SLOT_BITS;
+  private static final int LEVELS = 4;
+
+  @FunctionalInterface
+  public interface Task {
+    // Returns the System.nanoTime() at which to run again, or DONE
+    long expire(long nowNanos);
+  }
+
+  private final long tickNanos;
+  private final long origin = System.nanoTime();
+  private final Queue<Entry> pending = new ConcurrentLinkedQueue<>();
+  @SuppressWarnings("unchecked")
+  private final ArrayDeque<Entry>[][] buckets = new ArrayDeque[LEVELS][SLOTS];
+  private final Thread worker;
+  private volatile boolean running = true;
+  private long currentTick;
+
+  public ExpiryScheduler(@Value("${app.guardrails.expiry.tick:1s}") Duration tick) {
+    this(tick, true);
+  }
+
+  ExpiryScheduler(Duration tick, boolean startWorker) {
+    this.tickNanos = tick.toNanos();
+    for (ArrayDeque<Entry>[] level : buckets) {
+      for (int slot = 0; slot < SLOTS; slot++) {
+        level[slot] = new ArrayDeque<>();
+      }
+    }
+    this.worker = startWorker
+        ? Thread.ofPlatform().name("guardrail-expiry").daemon().start(this::runLoop)
+        : null;
+  }
+
+  // Used by guardrails that are created outside the Spring context
+  static ExpiryScheduler defaultScheduler() {
+    return DefaultHolder.INSTANCE;
+  }
+
+  public void schedule(long deadlineNanos, Task task) {
+    pending.offer(new Entry(deadlineNanos, task));
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    if (worker != null) {
+      LockSupport.unpark(worker);
+    }
+  }
+
+  private void runLoop() {
+    while (running) {
+      try {
+        advanceTo(System.nanoTime());
+      } catch (RuntimeException e) {
+        log.error("Expiry task failed", e);
+      }
+      LockSupport.parkNanos(tickNanos);
+    }
+  }
+
+  // Files pending tasks and runs everything due up to now. Only called from one thread.
+  void advanceTo(long nowNanos) {
+    long targetTick = Math.floorDiv(nowNanos - origin, tickNanos);
+    drainPending(nowNanos);
+    while (currentTick < targetTick) {
+      currentTick++;
+      for (int level = LEVELS - 1; level > 0; level--) {
+        long span = 1L << (SLOT_BITS * level);
+        if ((currentTick & (span - 1)) == 0) {
+          cascade(buckets[level][(int) ((currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1))], nowNanos);
+        }
+      }
+      ArrayDeque<Entry> due = buckets[0][(int) (currentTick & (SLOTS - 1))];
+      List<Entry> ready = new ArrayList<>(due);
+      due.clear();
+      ready.forEach(entry -> run(entry, nowNanos));
+    }
+  }
+
+  private void drainPending(long nowNanos) {
+    Entry entry;
+    while ((entry = pending.poll()) != null) {
+      insert(entry, nowNanos);
+    }
+  }
+
+  private void cascade(ArrayDeque<Entry> bucket, long nowNanos) {
+    List<Entry> entries = new ArrayList<>(bucket);
+    bucket.clear();
+    entries.forEach(entry -> insert(entry, nowNanos));
+  }
+
+  private void insert(Entry entry, long nowNanos) {
+    long deadlineTick = Math.floorDiv(entry.deadlineNanos - origin + tickNanos - 1, tickNanos);
+    long delta = deadlineTick - currentTick;
+    if (delta <= 0) {
+      run(entry, nowNanos);
+      return;
+    }
+    int level = 0;
+    while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+      level++;
+    }
+    buckets[level][(int) ((deadlineTick >>> (SLOT_BITS * level)) & (SLOTS - 1))].add(entry);
+  }
+
+  private void run(Entry entry, long nowNanos) {
+    long next;
+    try {
+      next = entry.task.expire(nowNanos);
+    } catch (RuntimeException e) {
+      log.error("Expiry task failed and will not be rescheduled", e);
+      return;
+    }
+    if (next != DONE) {
+      // Never re-run within the same tick, even if the task asks for a time in the past
+      pending.offer(new Entry(Math.max(next, nowNanos + tickNanos), entry.task));
+    }
+  }
+
+  private record Entry(long deadlineNanos, Task task) {
+  }
+
+  private static final class DefaultHolder {
+    private static final ExpiryScheduler INSTANCE = new ExpiryScheduler(Duration.ofSeconds(1), true);
+  }
+}
@@ -0,0 +1,117 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Generic Cell Rate Algorithm: each limit is tracked by a single "theoretical arrival time"
+// (TAT). A limit of N requests per period allows a burst of N and then one request every
+// period / N. Checking and recording a request is O(1), and a user costs two longs no matter
+// how many requests they send.
+class GcraRateLimiter implements RateLimiter {
+
+    private static final long ONE_MINUTE = Duration.ofMinutes(1).toNanos();
+    private static final long ONE_HOUR = Duration.ofHours(1).toNanos();
+
+    private final long minuteInterval;
+    private final long minuteTolerance;
+    private final long hourInterval;
+    private final long hourTolerance;
+    private final ConcurrentHashMap<String, UserState> userStates = new ConcurrentHashMap<>();
+    private final ExpiryScheduler expiryScheduler;
+
+    GcraRateLimiter(int maxRequestsPerMinute, int maxRequestsPerHour, ExpiryScheduler expiryScheduler) {
+        if (maxRequestsPerMinute <= 0 || maxRequestsPerHour <= 0) {
+            throw new IllegalArgumentException("Rate limits must be positive");
+        }
+        this.minuteInterval = ONE_MINUTE / maxRequestsPerMinute;
+        this.minuteTolerance = ONE_MINUTE - minuteInterval;
+        this.hourInterval = ONE_HOUR / maxRequestsPerHour;
+        this.hourTolerance = ONE_HOUR - hourInterval;
+        this.expiryScheduler = expiryScheduler;
+    }
+
+    @Override
+    public Verdict tryAcquire(String userId, long nowNanos) {
+        while (true) {
+            UserState state = stateFor(userId, nowNanos);
+            synchronized (state) {
+                if (state.evicted) {
+                    continue; // lost a race with expiry; pick up the replacement
+                }
+                long minuteTat = Math.max(state.minuteTat, nowNanos);
+                if (minuteTat - nowNanos > minuteTolerance) {
+                    return Verdict.MINUTE_LIMIT_EXCEEDED;
+                }
+                long hourTat = Math.max(state.hourTat, nowNanos);
+                if (hourTat - nowNanos > hourTolerance) {
+                    return Verdict.HOUR_LIMIT_EXCEEDED;
+                }
+                state.minuteTat = minuteTat + minuteInterval;
+                state.hourTat = hourTat + hourInterval;
+                return Verdict.ALLOWED;
+            }
+        }
+    }
+
+    @Override
+    public Verdict check(String userId, long nowNanos) {
+        UserState state = userStates.get(userId);
+        if (state == null) {
+            return Verdict.ALLOWED;
+        }
+        synchronized (state) {
+            if (Math.max(state.minuteTat, nowNanos) - nowNanos > minuteTolerance) {
+                return Verdict.MINUTE_LIMIT_EXCEEDED;
+            }
+            if (Math.max(state.hourTat, nowNanos) - nowNanos > hourTolerance) {
+                return Verdict.HOUR_LIMIT_EXCEEDED;
+            }
+            return Verdict.ALLOWED;
+        }
+    }
+
+    private UserState stateFor(String userId, long nowNanos) {
+        UserState state = userStates.get(userId);
+        if (state != null) {
+            return state;
+        }
+        UserState created = new UserState(nowNanos);
+        state = userStates.putIfAbsent(userId, created);
+        if (state != null) {
+            return state;
+        }
+        // One expiry task per user, re-armed until both limits have recovered
+        expiryScheduler.schedule(nowNanos + Math.max(minuteInterval, hourInterval),
+            now -> expireIfIdle(userId, created, now));
+        return created;
+    }
+
+    private long expireIfIdle(String userId, UserState state, long nowNanos) {
+        synchronized (state) {
+            long idleAt = Math.max(state.minuteTat, state.hourTat);
+            if (idleAt - nowNanos > 0) {
+                return idleAt;
+            }
+            // Both limits fully recovered: a fresh state would behave identically
+            state.evicted = true;
+            userStates.remove(userId, state);
+            return ExpiryScheduler.DONE;
+        }
+    }
+
+    @Override
+    public int trackedUsers() {
+        return userStates.size();
+    }
+
+    private static final class UserState {
+        private long minuteTat;
+        private long hourTat;
+        private boolean evicted;
+
+        UserState(long now) {
+            this.minuteTat = now;
+            this.hourTat = now;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.guardrail.GuardrailResult;
+import dev.langchain4j.guardrail.InputGuardrail;
+import dev.langchain4j.guardrail.InputGuardrailRequest;
+import dev.langchain4j.guardrail.OutputGuardrail;
+import dev.langchain4j.guardrail.OutputGuardrailRequest;
+import dev.langchain4j.guardrail.OutputGuardrailResult;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.Modifier;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+import java.util.regex.Pattern;
+
+// Micrometer instrumentation for the guardrails, tagged by guardrail class.
+//
+// instrument() proxies a guardrail so that every validation records its latency in the
+// guardrail.validation timer, tagged with the verdict, and the length of the text it checked
+// in the guardrail.input.size summary. All meters are registered when the guardrail is
+// proxied, so a validation costs two clock reads and two recordings, with no registry
+// lookup. Both publish percentile histograms for Prometheus.
+//
+// The proxy subclasses the guardrail's own class rather than wrapping it: langchain4j names
+// a failing guardrail after the class of the instance it was given, and the parallel and
+// adaptive chains look for the RewritingInputGuardrail marker on it.
+//
+// For an IncrementalOutputGuardrail, the checks StreamingChatService makes as an answer
+// streams in are timed too. A violation counts as a reprompt, since that is what it leads to.
+//
+// The gauges report how much per-user state the stateful guardrails hold.
+@Component
+public class GuardrailMetrics {
+
+  enum Verdict {
+    SUCCESS("success"),
+    REWRITE("rewrite"),
+    FAILURE("failure"),
+    FATAL("fatal"),
+    REPROMPT("reprompt"),
+    ERROR("error");
+
+    private final String tag;
+
+    Verdict(String tag) {
+      this.tag = tag;
+    }
+  }
+
+  // Spring names a CGLIB proxy class <class>$$SpringCGLIB$$<n>
+  private static final Pattern PROXY_SUFFIX = Pattern.compile("\\$\\$SpringCGLIB\\$\\$\\d+");
+
+  private static final Set<String> VALIDATIONS = Set.of("validate", "checkPartial", "checkComplete");
+
+  private final MeterRegistry meterRegistry;
+
+  public GuardrailMetrics(MeterRegistry meterRegistry,
+                          RateLimitingGuardrail rateLimitingGuardrail,
+                          ContextAwareInputGuardrail contextAwareInputGuardrail,
+                          VerdictCache verdictCache) {
+    this.meterRegistry = meterRegistry;
+    stateSize("RateLimitingGuardrail", "users", rateLimitingGuardrail, RateLimitingGuardrail::trackedUsers);
+    stateSize("ContextAwareInputGuardrail", "sessions", contextAwareInputGuardrail,
+        guardrail -> guardrail.sessionStats().size());
+    stateSize("VerdictCache", "verdicts", verdictCache, cache -> cache.stats().size());
+  }
+
+  public <T extends InputGuardrail> T instrument(T guardrail) {
+    return proxy(guardrail, new Meters(guardrail, "input"));
+  }
+
+  public <T extends OutputGuardrail> T instrument(T guardrail) {
+    return proxy(guardrail, new Meters(guardrail, "output"));
+  }
+
+  // langchain4j names a failing guardrail in its exception messages by the class of the
+  // instance it was given, which for an instrumented guardrail is the proxy subclass. This
+  // drops the proxy suffix, so that clients are shown the guardrail's own class name.
+  public static String unproxied(String message) {
+    return message == null ? null : PROXY_SUFFIX.matcher(message).replaceAll("");
+  }
+
+  // The simple class name of the guardrail, seen through the instrumentation
+  static String nameOf(Object guardrail) {
+    return ClassUtils.getUserClass(guardrail).getSimpleName();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T proxy(T guardrail, Meters meters) {
+    Class<?> type = guardrail.getClass();
+    int modifiers = type.getModifiers();
+    if (Modifier.isFinal(modifiers) || Modifier.isPrivate(modifiers) || type.isAnonymousClass() || type.isSynthetic()) {
+      throw new IllegalArgumentException("Cannot instrument " + type.getName() + ", which cannot be subclassed");
+    }
+    ProxyFactory factory = new ProxyFactory(guardrail);
+    factory.setProxyTargetClass(true);
+    factory.addAdvice(meters);
+    return (T) factory.getProxy(type.getClassLoader());
+  }
+
+  private <T> void stateSize(String guardrail, String state, T owner, ToDoubleFunction<T> size) {
+    Gauge.builder("guardrail.state.size", owner, size)
+        .description("Entries of per-user state held by a guardrail")
+        .tag("guardrail", guardrail)
+        .tag("state", state)
+        .register(meterRegistry);
+  }
+
+  private static Verdict verdictOf(Object result) {
+    if (result instanceof IncrementalOutputGuardrail.Violation) {
+      return Verdict.REPROMPT;
+    }
+    if (result instanceof OutputGuardrailResult output && !output.isSuccess()
+        && output.failures().stream().anyMatch(failure -> failure.reprompt() != null)) {
+      return Verdict.REPROMPT;
+    }
+    if (!(result instanceof GuardrailResult<?> guardrailResult)) {
+      return Verdict.SUCCESS;
+    }
+    return switch (guardrailResult.result()) {
+      case SUCCESS -> Verdict.SUCCESS;
+      case SUCCESS_WITH_RESULT -> Verdict.REWRITE;
+      case FAILURE -> Verdict.FAILURE;
+      case FATAL -> Verdict.FATAL;
+    };
+  }
+
+  // Length of the text a validation is given, whichever method is called
+  private static int textLength(Object argument) {
+    return switch (argument) {
+      case String text -> text.length();
+      case UserMessage userMessage -> userMessage.hasSingleText() ? length(userMessage.singleText()) : 0;
+      case InputGuardrailRequest request -> textLength(request.userMessage());
+      case AiMessage aiMessage -> length(aiMessage.text());
+      case OutputGuardrailRequest request -> length(request.responseFromLLM().aiMessage().text());
+      case null, default -> 0;
+    };
+  }
+
+  private static int length(String text) {
+    return text == null ? 0 : text.length();
+  }
+
+  // One timer per verdict, registered up front. Times the validations made through the
+  // proxy; calls the guardrail makes on itself are not intercepted and not counted twice.
+  private final class Meters implements MethodInterceptor {
+    private final Map<Verdict, Timer> timers = new EnumMap<>(Verdict.class);
+    private final DistributionSummary inputSize;
+
+    Meters(Object guardrail, String type) {
+      String name = guardrail.getClass().getSimpleName();
+      for (Verdict verdict : Verdict.values()) {
+        timers.put(verdict, Timer.builder("guardrail.validation")
+            .description("Time spent in one guardrail validation")
+            .tag("guardrail", name)
+            .tag("type", type)
+            .tag("verdict", verdict.tag)
+            .publishPercentileHistogram()
+            .register(meterRegistry));
+      }
+      this.inputSize = DistributionSummary.builder("guardrail.input.size")
+          .description("Length of the text a guardrail validated")
+          .baseUnit("characters")
+          .tag("guardrail", name)
+          .tag("type", type)
+          .publishPercentileHistogram()
+          .register(meterRegistry);
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+      Object[] arguments = invocation.getArguments();
+      if (!VALIDATIONS.contains(invocation.getMethod().getName()) || arguments.length != 1) {
+        return invocation.proceed();
+      }
+      inputSize.record(textLength(arguments[0]));
+      long start = System.nanoTime();
+      Object result;
+      try {
+        result = invocation.proceed();
+      } catch (Throwable e) {
+        timers.get(Verdict.ERROR).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        throw e;
+      }
+      timers.get(verdictOf(result)).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      return result;
+    }
+  }
+}
@@ -14,7 +14,7 @@ import lombok.extern.slf4j.Slf4j;
 
 @Component
 @Slf4j
-public class HallucinationDetectionGuardrail implements OutputGuardrail {
+public class HallucinationDetectionGuardrail implements OutputGuardrail, IncrementalOutputGuardrail {
 
     private static final Set<String> UNCERTAINTY_MARKERS = Set.of(
             "might be", "could be", "possibly", "potentially", "may",
@@ -64,6 +64,18 @@ public class HallucinationDetectionGuardrail implements OutputGuardrail {
         return success();
     }
 
+    // A later hedge can still balance absolute claims, so nothing is decided mid-stream
+    @Override
+    public Violation checkPartial(String partialText) {
+        return null;
+    }
+
+    // Streamed answers carry no retrieved context, so only the context-free check applies
+    @Override
+    public Violation checkComplete(String text) {
+        return findUnsubstantiatedClaims(text);
+    }
+
     private Set<String> extractKeyFacts(String text) {
         // Extract sentences that contain factual claims
         Set<String> facts = new HashSet<>();
@@ -106,6 +118,11 @@ public class HallucinationDetectionGuardrail implements OutputGuardrail {
     }
 
     private OutputGuardrailResult checkForUnsubstantiatedClaims(String text) {
+        Violation violation = findUnsubstantiatedClaims(text);
+        return violation == null ? success() : reprompt(violation.message(), violation.reprompt());
+    }
+
+    private Violation findUnsubstantiatedClaims(String text) {
         String lowerText = text.toLowerCase();
 
         // Check for absolute statements without uncertainty markers
@@ -118,12 +135,12 @@ public class HallucinationDetectionGuardrail implements OutputGuardrail {
                 .anyMatch(lowerText::contains);
 
         if (absoluteStatements > 2 && !hasUncertaintyMarkers) {
-            return reprompt(
+            return new Violation(
                     "Response contains unsubstantiated absolute claims",
                     "Please avoid absolute statements unless you're certain. Use qualified language when appropriate."
             );
         }
 
-        return success();
+        return null;
     }
 }
\ No newline at end of file
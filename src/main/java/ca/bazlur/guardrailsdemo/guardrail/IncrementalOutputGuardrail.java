@@ -0,0 +1,24 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+// An output guardrail that can judge a streamed answer while it is still arriving, so a
+// stream can be cut off at the first token that makes the answer unacceptable instead of
+// after the whole completion.
+public interface IncrementalOutputGuardrail {
+
+  // What was wrong and the instruction to reprompt the model with
+  record Violation(String message, String reprompt) {
+  }
+
+  // Checks the text received so far and returns only violations that more text cannot
+  // undo, such as a forbidden phrase or a length limit; null otherwise
+  Violation checkPartial(String partialText);
+
+  // Checks the complete answer; null if it is acceptable
+  Violation checkComplete(String text);
+
+  // The answer rewritten so that this guardrail accepts it, or null if only the model can
+  // fix it. A stream whose violations can all be repaired ends without a reprompt.
+  default String repair(String text) {
+    return null;
+  }
+}
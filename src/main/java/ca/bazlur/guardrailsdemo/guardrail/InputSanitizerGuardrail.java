@@ -1,23 +1,45 @@
 package ca.bazlur.guardrailsdemo.guardrail;
 
 import dev.langchain4j.data.message.UserMessage;
-import dev.langchain4j.guardrail.InputGuardrail;
 import dev.langchain4j.guardrail.InputGuardrailResult;
+import dev.langchain4j.model.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.text.Normalizer;
-import java.util.regex.Pattern;
-
 @Component
-public class InputSanitizerGuardrail implements InputGuardrail {
-  
-  private static final Pattern DANGEROUS_CHARS = Pattern.compile("[<>{}\\[\\]|\\\\\"';()&%$#@!*+=~`]");
-  private static final Pattern SQL_INJECTION = Pattern.compile("(?i)(union|select|insert|update|delete|drop|exec|script)", Pattern.CASE_INSENSITIVE);
-  private static final Pattern XSS_PATTERNS = Pattern.compile("(?i)(<script|javascript:|vbscript:|onload=|onerror=)", Pattern.CASE_INSENSITIVE);
+public class InputSanitizerGuardrail implements RewritingInputGuardrail {
+
+  private final VerdictCache verdictCache;
+  private final TokenCountEstimator tokenCounter;
+  private final int maxTokens;
+  private final long rulesFingerprint;
+
+  public InputSanitizerGuardrail() {
+    this(VerdictCache.disabled());
+  }
+
+  // Truncates by characters only
+  public InputSanitizerGuardrail(VerdictCache verdictCache) {
+    this(null, Integer.MAX_VALUE, verdictCache);
+  }
+
+  @Autowired
+  public InputSanitizerGuardrail(TokenCountEstimator tokenCounter,
+                                 @Value("${app.guardrails.input.truncate-tokens:200}") int maxTokens,
+                                 VerdictCache verdictCache) {
+    this.verdictCache = verdictCache;
+    this.tokenCounter = tokenCounter;
+    this.maxTokens = maxTokens;
+    this.rulesFingerprint = VerdictCache.fingerprint(SinglePassSanitizer.RULES_FINGERPRINT, maxTokens);
+  }
 
   @Override
   public InputGuardrailResult validate(UserMessage userMessage) {
-    String originalText = userMessage.singleText();
+    return verdictCache.validate(this, rulesFingerprint, userMessage.singleText(), this::evaluate);
+  }
+
+  private InputGuardrailResult evaluate(String originalText) {
     String text = sanitizeInput(originalText);
 
     // Check if significant sanitization occurred
@@ -26,67 +48,50 @@ public class InputSanitizerGuardrail implements InputGuardrail {
     }
 
     // Return success with the sanitized message
-    return successWith(text);
+    return successWith(truncateToTokens(text));
   }
 
-  private String sanitizeInput(String input) {
-    if (input == null || input.trim().isEmpty()) {
-      return input;
+  // The sanitizer caps the text at SinglePassSanitizer.MAX_LENGTH characters; this caps it at
+  // maxTokens model tokens with the same cut points. The longest prefix that fits is found by
+  // binary search, which encodes the text about log2(length) times.
+  private String truncateToTokens(String text) {
+    if (tokenCounter == null || tokenCounter.estimateTokenCountInText(text) <= maxTokens) {
+      return text;
     }
-
-    String sanitized = input;
-
-    // Normalize Unicode characters to prevent encoding attacks
-    sanitized = Normalizer.normalize(sanitized, Normalizer.Form.NFKC);
-
-    // Remove null bytes and control characters (except newlines and tabs)
-    sanitized = sanitized.replaceAll("[\u0000-\u0008\u000B\u000C\u000E-\u001F\u007F]", "");
-
-    // Remove excessive whitespace but preserve single spaces and newlines
-    sanitized = sanitized.replaceAll("[ \\t]+", " ");
-    sanitized = sanitized.replaceAll("\\n{3,}", "\\n\\n");
-
-    // Remove potentially dangerous characters
-    sanitized = DANGEROUS_CHARS.matcher(sanitized).replaceAll("");
-
-    // Remove SQL injection patterns
-    sanitized = SQL_INJECTION.matcher(sanitized).replaceAll("");
-
-    // Remove XSS patterns
-    sanitized = XSS_PATTERNS.matcher(sanitized).replaceAll("");
-
-    // Smart truncation at sentence boundaries
-    if (sanitized.length() > 800) {
-      sanitized = truncateAtSentence(sanitized, 800);
+    // One token is kept for the ellipsis
+    int fits = 0;
+    int tooLong = text.length();
+    while (tooLong - fits > 1) {
+      int middle = (fits + tooLong) >>> 1;
+      if (tokenCounter.estimateTokenCountInText(text.substring(0, middle)) <= maxTokens - 1) {
+        fits = middle;
+      } else {
+        tooLong = middle;
+      }
     }
-
-    return sanitized.trim();
+    return truncateAtSentence(text, fits);
   }
 
-  private String truncateAtSentence(String text, int maxLength) {
-    if (text.length() <= maxLength) {
-      return text;
-    }
-
+  // Cuts after the last full stop, question or exclamation mark in the second half, else at a
+  // word; the result may exceed maxLength by the three characters of an ellipsis
+  static String truncateAtSentence(String text, int maxLength) {
     String truncated = text.substring(0, maxLength);
-    
-    // Find the last sentence boundary
-    int lastPeriod = truncated.lastIndexOf('.');
-    int lastQuestion = truncated.lastIndexOf('?');
-    int lastExclamation = truncated.lastIndexOf('!');
-    
-    int lastSentenceBoundary = Math.max(Math.max(lastPeriod, lastQuestion), lastExclamation);
-    
+    int lastSentenceBoundary = Math.max(truncated.lastIndexOf('.'),
+        Math.max(truncated.lastIndexOf('?'), truncated.lastIndexOf('!')));
     if (lastSentenceBoundary > maxLength / 2) {
       return truncated.substring(0, lastSentenceBoundary + 1);
     }
-    
-    // If no good sentence boundary, truncate at word boundary
     int lastSpace = truncated.lastIndexOf(' ');
     if (lastSpace > maxLength / 2) {
       return truncated.substring(0, lastSpace) + "...";
     }
-    
     return truncated + "...";
   }
+
+  private String sanitizeInput(String input) {
+    // Normalizes Unicode (skipped for ASCII or already-normalized text), strips control
+    // characters, collapses whitespace, removes dangerous characters and SQL/XSS keywords,
+    // then truncates at a sentence boundary - all in a single pass
+    return new SinglePassSanitizer().sanitize(input);
+  }
 }
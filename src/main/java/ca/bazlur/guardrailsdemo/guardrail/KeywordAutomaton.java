@@ -0,0 +1,133 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+// Aho-Corasick automaton over ASCII keywords. The goto/failure functions are folded into
+// a dense transition table, so matching is a single table lookup per input character.
+// Characters outside ASCII never take part in a keyword and reset the automaton to ROOT.
+final class KeywordAutomaton {
+  static final int ROOT = 0;
+  private static final int ALPHABET = 128;
+  private static final int[] NO_MATCHES = new int[0];
+
+  private final int[] transitions;
+  private final int[][] matches;
+  private final int[] keywordLengths;
+
+  private KeywordAutomaton(int[] transitions, int[][] matches, int[] keywordLengths) {
+    this.transitions = transitions;
+    this.matches = matches;
+    this.keywordLengths = keywordLengths;
+  }
+
+  static KeywordAutomaton of(List<String> keywords) {
+    List<int[]> trie = new ArrayList<>();
+    List<List<Integer>> outputs = new ArrayList<>();
+    trie.add(newState());
+    outputs.add(new ArrayList<>());
+
+    int[] keywordLengths = new int[keywords.size()];
+    for (int k = 0; k < keywords.size(); k++) {
+      String keyword = keywords.get(k);
+      if (keyword.isEmpty()) {
+        throw new IllegalArgumentException("Keywords must not be empty");
+      }
+      int state = ROOT;
+      for (int i = 0; i < keyword.length(); i++) {
+        char c = keyword.charAt(i);
+        if (c >= ALPHABET) {
+          throw new IllegalArgumentException("Keywords must be ASCII: " + keyword);
+        }
+        if (trie.get(state)[c] < 0) {
+          trie.get(state)[c] = trie.size();
+          trie.add(newState());
+          outputs.add(new ArrayList<>());
+        }
+        state = trie.get(state)[c];
+      }
+      outputs.get(state).add(k);
+      keywordLengths[k] = keyword.length();
+    }
+
+    // Breadth-first pass: resolve failure links into direct transitions and inherit outputs
+    int stateCount = trie.size();
+    int[] transitions = new int[stateCount * ALPHABET];
+    int[] failure = new int[stateCount];
+    Queue<Integer> queue = new ArrayDeque<>();
+    for (int c = 0; c < ALPHABET; c++) {
+      int next = trie.get(ROOT)[c];
+      if (next < 0) {
+        transitions[c] = ROOT;
+      } else {
+        transitions[c] = next;
+        failure[next] = ROOT;
+        queue.add(next);
+      }
+    }
+    while (!queue.isEmpty()) {
+      int state = queue.poll();
+      outputs.get(state).addAll(outputs.get(failure[state]));
+      for (int c = 0; c < ALPHABET; c++) {
+        int next = trie.get(state)[c];
+        int fallback = transitions[failure[state] * ALPHABET + c];
+        if (next < 0) {
+          transitions[state * ALPHABET + c] = fallback;
+        } else {
+          transitions[state * ALPHABET + c] = next;
+          failure[next] = fallback;
+          queue.add(next);
+        }
+      }
+    }
+
+    int[][] matches = new int[stateCount][];
+    for (int s = 0; s < stateCount; s++) {
+      List<Integer> out = outputs.get(s);
+      matches[s] = out.isEmpty() ? NO_MATCHES : out.stream().mapToInt(Integer::intValue).toArray();
+    }
+    return new KeywordAutomaton(transitions, matches, keywordLengths);
+  }
+
+  private static int[] newState() {
+    int[] state = new int[ALPHABET];
+    Arrays.fill(state, -1);
+    return state;
+  }
+
+  int step(int state, char c) {
+    return c < ALPHABET ? transitions[state * ALPHABET + c] : ROOT;
+  }
+
+  // Indices of every keyword ending at the character that led into this state
+  int[] matchesAt(int state) {
+    return matches[state];
+  }
+
+  boolean isMatch(int state) {
+    return matches[state].length > 0;
+  }
+
+  int keywordLength(int keyword) {
+    return keywordLengths[keyword];
+  }
+
+  int keywordCount() {
+    return keywordLengths.length;
+  }
+
+  // Convenience for callers that only need to know whether any keyword occurs
+  boolean containsAny(CharSequence text) {
+    int state = ROOT;
+    for (int i = 0; i < text.length(); i++) {
+      state = step(state, text.charAt(i));
+      if (matches[state].length > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,445 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+// Evaluates a fixed list of regular expressions with one linear pass over the text.
+//
+// Each pattern is analysed once at construction time for a "gate": a set of literal
+// factors (or a minimum-length run of a character class) that every match of the pattern
+// must contain. All gates are scanned together by a single Aho-Corasick automaton, and a
+// pattern's regex is only run - starting at its first gate hit when the gate is a prefix -
+// if its gate fired. Patterns whose syntax the analysis does not understand are never
+// gated, so the answer is always exactly Matcher.find() on the original pattern.
+final class MultiPatternScanner {
+  private static final int NO_HIT = Integer.MAX_VALUE;
+  private static final int MAX_FACTOR_VARIANTS = 64;
+  private static final int SUPPORTED_FLAGS = Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL;
+
+  private final List<Pattern> patterns;
+  private final KeywordAutomaton automaton;
+  private final int[][] keywordPatterns;
+  private final Run[] runs;
+  private final boolean[] ungated;
+  private final boolean[] prefixGated;
+
+  private MultiPatternScanner(List<Pattern> patterns, KeywordAutomaton automaton, int[][] keywordPatterns,
+                              Run[] runs, boolean[] ungated, boolean[] prefixGated) {
+    this.patterns = patterns;
+    this.automaton = automaton;
+    this.keywordPatterns = keywordPatterns;
+    this.runs = runs;
+    this.ungated = ungated;
+    this.prefixGated = prefixGated;
+  }
+
+  static MultiPatternScanner compile(List<Pattern> patterns) {
+    Map<String, List<Integer>> keywordIndex = new HashMap<>();
+    List<String> keywords = new ArrayList<>();
+    List<Run> runs = new ArrayList<>();
+    boolean[] ungated = new boolean[patterns.size()];
+    boolean[] prefixGated = new boolean[patterns.size()];
+
+    for (int p = 0; p < patterns.size(); p++) {
+      Gate gate = GateParser.analyze(patterns.get(p));
+      if (gate == null) {
+        ungated[p] = true;
+        continue;
+      }
+      prefixGated[p] = gate.atStart();
+      for (String keyword : gate.keywords()) {
+        keywordIndex.computeIfAbsent(keyword, k -> {
+          keywords.add(k);
+          return new ArrayList<>();
+        }).add(p);
+      }
+      for (Run run : gate.runs()) {
+        runs.add(new Run(run.chars(), run.length(), p));
+      }
+    }
+
+    int[][] keywordPatterns = new int[keywords.size()][];
+    for (int k = 0; k < keywords.size(); k++) {
+      keywordPatterns[k] = keywordIndex.get(keywords.get(k)).stream().mapToInt(Integer::intValue).toArray();
+    }
+    return new MultiPatternScanner(List.copyOf(patterns), KeywordAutomaton.of(keywords), keywordPatterns,
+        runs.toArray(new Run[0]), ungated, prefixGated);
+  }
+
+  int size() {
+    return patterns.size();
+  }
+
+  Scan scan(CharSequence text) {
+    int[] hitStart = new int[patterns.size()];
+    Arrays.fill(hitStart, NO_HIT);
+    for (int p = 0; p < ungated.length; p++) {
+      if (ungated[p]) {
+        hitStart[p] = 0;
+      }
+    }
+
+    int[] runLengths = new int[runs.length];
+    int state = KeywordAutomaton.ROOT;
+    for (int i = 0; i < text.length(); i++) {
+      char c = foldAscii(text.charAt(i));
+      state = automaton.step(state, c);
+      for (int keyword : automaton.matchesAt(state)) {
+        int start = i - automaton.keywordLength(keyword) + 1;
+        for (int p : keywordPatterns[keyword]) {
+          hitStart[p] = Math.min(hitStart[p], start);
+        }
+      }
+      for (int r = 0; r < runs.length; r++) {
+        Run run = runs[r];
+        if (c < 128 && run.chars()[c]) {
+          if (++runLengths[r] == run.length()) {
+            hitStart[run.pattern()] = Math.min(hitStart[run.pattern()], i - run.length() + 1);
+          }
+        } else {
+          runLengths[r] = 0;
+        }
+      }
+    }
+    return new Scan(text, hitStart);
+  }
+
+  private static char foldAscii(char c) {
+    return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+  }
+
+  final class Scan {
+    private final CharSequence text;
+    private final int[] hitStart;
+    // 0 = not yet confirmed, 1 = match, -1 = no match
+    private final byte[] verdicts;
+
+    private Scan(CharSequence text, int[] hitStart) {
+      this.text = text;
+      this.hitStart = hitStart;
+      this.verdicts = new byte[hitStart.length];
+    }
+
+    boolean matches(int pattern) {
+      if (hitStart[pattern] == NO_HIT) {
+        return false;
+      }
+      if (verdicts[pattern] == 0) {
+        int from = prefixGated[pattern] ? hitStart[pattern] : 0;
+        verdicts[pattern] = patterns.get(pattern).matcher(text).find(from) ? (byte) 1 : (byte) -1;
+      }
+      return verdicts[pattern] > 0;
+    }
+
+    boolean anyMatch(int fromPattern, int toPattern) {
+      for (int p = fromPattern; p < toPattern; p++) {
+        if (matches(p)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    int countMatches(int fromPattern, int toPattern) {
+      int count = 0;
+      for (int p = fromPattern; p < toPattern; p++) {
+        if (matches(p)) {
+          count++;
+        }
+      }
+      return count;
+    }
+  }
+
+  private record Run(boolean[] chars, int length, int pattern) {
+  }
+
+  // keywords/runs are alternatives: every match contains at least one of them
+  private record Gate(Set<String> keywords, List<Run> runs, int score, boolean atStart) {
+    static Gate union(List<Gate> alternatives, boolean atStart) {
+      Set<String> keywords = new LinkedHashSet<>();
+      List<Run> runs = new ArrayList<>();
+      int score = Integer.MAX_VALUE;
+      for (Gate gate : alternatives) {
+        keywords.addAll(gate.keywords());
+        runs.addAll(gate.runs());
+        score = Math.min(score, gate.score());
+      }
+      return keywords.size() > MAX_FACTOR_VARIANTS ? null : new Gate(keywords, runs, score, atStart);
+    }
+  }
+
+  // Recursive-descent reader for the subset of java.util.regex syntax our rule sets use.
+  // Anything it does not recognise raises Unsupported and leaves the pattern ungated.
+  private static final class GateParser {
+    private static final char[] NONE = new char[0];
+
+    private final String regex;
+    private int pos;
+
+    private GateParser(String regex) {
+      this.regex = regex;
+    }
+
+    static Gate analyze(Pattern pattern) {
+      if ((pattern.flags() & ~SUPPORTED_FLAGS) != 0) {
+        return null;
+      }
+      try {
+        GateParser parser = new GateParser(pattern.pattern());
+        Gate gate = parser.alternation();
+        return parser.pos == parser.regex.length() ? gate : null;
+      } catch (Unsupported e) {
+        return null;
+      }
+    }
+
+    private Gate alternation() {
+      List<Gate> alternatives = new ArrayList<>();
+      alternatives.add(sequence());
+      while (pos < regex.length() && regex.charAt(pos) == '|') {
+        pos++;
+        alternatives.add(sequence());
+      }
+      if (alternatives.size() == 1) {
+        return alternatives.get(0);
+      }
+      if (alternatives.contains(null)) {
+        return null;
+      }
+      return Gate.union(alternatives, alternatives.stream().allMatch(Gate::atStart));
+    }
+
+    private Gate sequence() {
+      Gate best = null;
+      Set<String> factor = null;
+      boolean factorAtStart = false;
+      int item = 0;
+
+      while (pos < regex.length() && regex.charAt(pos) != '|' && regex.charAt(pos) != ')') {
+        Atom atom = atom();
+        int[] bounds = quantifier();
+        int min = bounds[0];
+        int max = bounds[1];
+
+        if (atom.group() != null || atom.chars() == null) {
+          best = better(best, flush(factor, factorAtStart));
+          factor = null;
+          if (atom.group() != null && min > 0) {
+            Gate inner = atom.group();
+            best = better(best, new Gate(inner.keywords(), inner.runs(), inner.score(), false));
+          }
+        } else if (min == 0) {
+          best = better(best, flush(factor, factorAtStart));
+          factor = null;
+        } else {
+          if (min > 1) {
+            // A run of class characters is far less selective than a literal of the same
+            // length, so it only wins when no reasonable literal factor exists
+            boolean[] chars = new boolean[128];
+            for (char c : atom.chars()) {
+              chars[c] = true;
+            }
+            best = better(best, new Gate(Set.of(), List.of(new Run(chars, min, -1)), min / 2, factor == null && item == 0));
+          }
+          if (factor != null && factor.size() * atom.chars().length > MAX_FACTOR_VARIANTS) {
+            best = better(best, flush(factor, factorAtStart));
+            factor = null;
+          }
+          if (factor == null) {
+            factor = new LinkedHashSet<>(List.of(""));
+            factorAtStart = item == 0;
+          }
+          factor = extend(factor, atom.chars());
+          if (min != 1 || max != 1) {
+            best = better(best, flush(factor, factorAtStart));
+            factor = null;
+          }
+        }
+        item++;
+      }
+      return better(best, flush(factor, factorAtStart));
+    }
+
+    private static Set<String> extend(Set<String> factor, char[] chars) {
+      Set<String> extended = new LinkedHashSet<>();
+      for (String prefix : factor) {
+        for (char c : chars) {
+          extended.add(prefix + c);
+        }
+      }
+      return extended;
+    }
+
+    private static Gate flush(Set<String> factor, boolean atStart) {
+      if (factor == null || factor.isEmpty() || factor.size() > MAX_FACTOR_VARIANTS) {
+        return null;
+      }
+      int length = factor.iterator().next().length();
+      return new Gate(factor, List.of(), length, atStart);
+    }
+
+    private static Gate better(Gate current, Gate candidate) {
+      if (candidate == null) {
+        return current;
+      }
+      return current == null || candidate.score() > current.score() ? candidate : current;
+    }
+
+    // chars == null means "some single character we cannot gate on" or a zero-width assertion
+    private record Atom(char[] chars, Gate group) {
+    }
+
+    private Atom atom() {
+      char c = regex.charAt(pos++);
+      switch (c) {
+        case '(' -> {
+          if (regex.startsWith("?:", pos)) {
+            pos += 2;
+          } else if (pos < regex.length() && regex.charAt(pos) == '?') {
+            throw new Unsupported();
+          }
+          Gate inner = alternation();
+          if (pos >= regex.length() || regex.charAt(pos) != ')') {
+            throw new Unsupported();
+          }
+          pos++;
+          return inner == null ? new Atom(null, null) : new Atom(null, inner);
+        }
+        case '[' -> {
+          return new Atom(characterClass(), null);
+        }
+        case '\\' -> {
+          return escape();
+        }
+        case '.', '^', '$' -> {
+          return new Atom(null, null);
+        }
+        case '*', '+', '?', '{' -> throw new Unsupported();
+        default -> {
+          return new Atom(c < 128 ? new char[]{foldAscii(c)} : null, null);
+        }
+      }
+    }
+
+    private Atom escape() {
+      if (pos >= regex.length()) {
+        throw new Unsupported();
+      }
+      char c = regex.charAt(pos++);
+      if (!Character.isLetterOrDigit(c)) {
+        return new Atom(c < 128 ? new char[]{foldAscii(c)} : null, null);
+      }
+      if ("bBAGZzwWsSdDhHvVRXtnrfae".indexOf(c) >= 0) {
+        return new Atom(null, null);
+      }
+      throw new Unsupported();
+    }
+
+    private char[] characterClass() {
+      if (pos < regex.length() && (regex.charAt(pos) == '^' || regex.charAt(pos) == ']')) {
+        throw new Unsupported();
+      }
+      boolean[] members = new boolean[128];
+      boolean gateable = true;
+      while (true) {
+        if (pos >= regex.length()) {
+          throw new Unsupported();
+        }
+        char c = regex.charAt(pos++);
+        if (c == ']') {
+          break;
+        }
+        if (c == '[' || (c == '&' && pos < regex.length() && regex.charAt(pos) == '&')) {
+          throw new Unsupported();
+        }
+        char low = c;
+        if (c == '\\') {
+          char escaped = regex.charAt(pos++);
+          if ("wWsSdDhHvV".indexOf(escaped) >= 0) {
+            gateable = false;
+            continue;
+          }
+          if (Character.isLetterOrDigit(escaped)) {
+            throw new Unsupported();
+          }
+          low = escaped;
+        }
+        char high = low;
+        if (pos + 1 < regex.length() && regex.charAt(pos) == '-' && regex.charAt(pos + 1) != ']') {
+          pos++;
+          high = regex.charAt(pos++);
+          if (high == '\\' || high == '[') {
+            throw new Unsupported();
+          }
+        }
+        if (high >= 128 || low > high) {
+          gateable = false;
+          continue;
+        }
+        for (char m = low; m <= high; m++) {
+          members[foldAscii(m)] = true;
+        }
+      }
+      if (!gateable) {
+        return null;
+      }
+      StringBuilder chars = new StringBuilder();
+      for (char m = 0; m < 128; m++) {
+        if (members[m]) {
+          chars.append(m);
+        }
+      }
+      return chars.length() == 0 ? NONE : chars.toString().toCharArray();
+    }
+
+    private int[] quantifier() {
+      if (pos >= regex.length()) {
+        return new int[]{1, 1};
+      }
+      int[] bounds;
+      switch (regex.charAt(pos)) {
+        case '*' -> bounds = new int[]{0, Integer.MAX_VALUE};
+        case '+' -> bounds = new int[]{1, Integer.MAX_VALUE};
+        case '?' -> bounds = new int[]{0, 1};
+        case '{' -> {
+          int close = regex.indexOf('}', pos);
+          if (close < 0) {
+            throw new Unsupported();
+          }
+          String[] parts = regex.substring(pos + 1, close).split(",", -1);
+          try {
+            int min = Integer.parseInt(parts[0]);
+            int max = parts.length == 1 ? min
+                : parts[1].isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(parts[1]);
+            bounds = new int[]{min, max};
+          } catch (NumberFormatException e) {
+            throw new Unsupported();
+          }
+          pos = close;
+        }
+        default -> {
+          return new int[]{1, 1};
+        }
+      }
+      pos++;
+      // Lazy and possessive modifiers do not change which texts match
+      if (pos < regex.length() && (regex.charAt(pos) == '?' || regex.charAt(pos) == '+')) {
+        pos++;
+      }
+      return bounds;
+    }
+  }
+
+  private static final class Unsupported extends RuntimeException {
+    Unsupported() {
+      super(null, null, false, false);
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import dev.langchain4j.guardrail.InputGuardrail;
+import dev.langchain4j.guardrail.InputGuardrailRequest;
+import dev.langchain4j.guardrail.InputGuardrailResult;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Evaluates a chain of input guardrails concurrently, one virtual thread per guardrail, and
+// registers with AiServices as a single guardrail.
+//
+// Ordering is kept where it matters: a RewritingInputGuardrail runs on the calling thread
+// while the guardrails declared before it are still in flight, and every guardrail declared
+// after it starts only once it has finished, with the rewritten text. The first fatal result
+// cancels everything still running. Otherwise the first failure in declared order is
+// reported on its own, since AiServices rejects a result with more than one failure.
+//
+// Closing it interrupts the guardrails still running and fails later validations, unless the
+// executor was passed in, in which case it belongs to the caller.
+@Slf4j
+public class ParallelInputGuardrails implements InputGuardrail, AutoCloseable {
+
+  private final List<InputGuardrail> guardrails;
+  private final ExecutorService executor;
+  private final boolean ownsExecutor;
+
+  public ParallelInputGuardrails(List<? extends InputGuardrail> guardrails) {
+    this(guardrails, Executors.newVirtualThreadPerTaskExecutor(), true);
+  }
+
+  ParallelInputGuardrails(List<? extends InputGuardrail> guardrails, ExecutorService executor) {
+    this(guardrails, executor, false);
+  }
+
+  private ParallelInputGuardrails(List<? extends InputGuardrail> guardrails, ExecutorService executor, boolean ownsExecutor) {
+    this.guardrails = List.copyOf(guardrails);
+    this.executor = executor;
+    this.ownsExecutor = ownsExecutor;
+  }
+
+  @Override
+  public InputGuardrailResult validate(InputGuardrailRequest request) {
+    return TextAnalysis.shared(() -> validateShared(request));
+  }
+
+  private InputGuardrailResult validateShared(InputGuardrailRequest request) {
+    TextAnalysis.Scope scope = TextAnalysis.currentScope();
+    InputGuardrailResult[] results = new InputGuardrailResult[guardrails.size()];
+    CompletionService<Outcome> completions = new ExecutorCompletionService<>(executor);
+    List<Future<Outcome>> inFlight = new ArrayList<>(guardrails.size());
+    InputGuardrailRequest current = request;
+    boolean rewritten = false;
+    int received = 0;
+
+    try {
+      for (int i = 0; i < guardrails.size(); i++) {
+        InputGuardrail guardrail = guardrails.get(i);
+        if (!(guardrail instanceof RewritingInputGuardrail)) {
+          int index = i;
+          InputGuardrailRequest input = current;
+          inFlight.add(completions.submit(
+              () -> TextAnalysis.within(scope, () -> new Outcome(index, guardrail.validate(input)))));
+          continue;
+        }
+
+        InputGuardrailResult result = guardrail.validate(current).validatedBy(guardrail.getClass());
+        if (result.isFatal()) {
+          return result;
+        }
+        results[i] = result;
+        if (result.hasRewrittenResult()) {
+          current = current.withText(result.successfulText());
+          rewritten = true;
+        }
+        // Don't start the next segment if something has already come back fatal
+        for (Future<Outcome> done; (done = completions.poll()) != null; received++) {
+          InputGuardrailResult fatal = record(done, results);
+          if (fatal != null) {
+            return fatal;
+          }
+        }
+      }
+
+      for (; received < inFlight.size(); received++) {
+        InputGuardrailResult fatal = record(completions.take(), results);
+        if (fatal != null) {
+          return fatal;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for input guardrails", e);
+    } finally {
+      inFlight.forEach(future -> future.cancel(true));
+    }
+
+    return combine(results, rewritten ? current.userMessage().singleText() : null);
+  }
+
+  @Override
+  public void close() {
+    if (ownsExecutor) {
+      executor.shutdownNow();
+    }
+  }
+
+  // Stores the outcome and returns it if it is fatal
+  private InputGuardrailResult record(Future<Outcome> done, InputGuardrailResult[] results) {
+    Outcome outcome;
+    try {
+      outcome = done.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for input guardrails", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtime) {
+        throw runtime;
+      }
+      if (e.getCause() instanceof Error error) {
+        throw error;
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+    InputGuardrailResult result = outcome.result().validatedBy(guardrails.get(outcome.index()).getClass());
+    results[outcome.index()] = result;
+    if (result.isFatal()) {
+      log.debug("{} returned fatal, cancelling the remaining input guardrails",
+          guardrails.get(outcome.index()).getClass().getSimpleName());
+      return result;
+    }
+    return null;
+  }
+
+  private static InputGuardrailResult combine(InputGuardrailResult[] results, String rewrittenText) {
+    for (InputGuardrailResult result : results) {
+      if (!result.isSuccess()) {
+        return result;
+      }
+    }
+    return rewrittenText != null ? InputGuardrailResult.successWith(rewrittenText) : InputGuardrailResult.success();
+  }
+
+  private record Outcome(int index, InputGuardrailResult result) {
+  }
+}
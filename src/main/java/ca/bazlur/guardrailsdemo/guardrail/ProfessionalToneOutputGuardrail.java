@@ -2,13 +2,29 @@ package ca.bazlur.guardrailsdemo.guardrail;
 
 import dev.langchain4j.data.message.AiMessage;
 import dev.langchain4j.guardrail.OutputGuardrail;
+import dev.langchain4j.guardrail.OutputGuardrailRequest;
 import dev.langchain4j.guardrail.OutputGuardrailResult;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.FinishReason;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
+import java.util.regex.Pattern;
 
+// Answers that are too long, lack a courtesy phrase or are wrapped in code fences are
+// repaired here and returned with successWith(), which saves the model round trip of a
+// reprompt. Only an unprofessional phrase, or an answer with nothing left to repair, goes
+// back to the model.
 @Component
-public class ProfessionalToneOutputGuardrail implements OutputGuardrail {
+public class ProfessionalToneOutputGuardrail implements OutputGuardrail, IncrementalOutputGuardrail {
+  public static final int DEFAULT_MAX_LENGTH = 1000;
+
+  // No token is shorter than a character, so whatever the language a completion of this many
+  // tokens per character of maxLength is longer than maxLength before the model has to stop
+  private static final double TOKENS_PER_CHARACTER = 1;
+
   private static final List<String> UNPROFESSIONAL_PHRASES = List.of(
       "that's weird", "that's dumb", "whatever", "i don't know"
   );
@@ -19,33 +35,132 @@ public class ProfessionalToneOutputGuardrail implements OutputGuardrail {
       "happy to help"
   );
 
+  // Appended to an answer without any of the required elements
+  static final String COURTESY_CLOSING = "Thank you for contacting us.";
+
+  // An opening or closing fence line, with its language tag
+  private static final Pattern CODE_FENCE = Pattern.compile("^[ \\t]*```[^\\n]*(\\n|$)", Pattern.MULTILINE);
+
+  private final int maxLength;
+
+  public ProfessionalToneOutputGuardrail() {
+    this(DEFAULT_MAX_LENGTH);
+  }
+
+  @Autowired
+  public ProfessionalToneOutputGuardrail(@Value("${app.guardrails.output.max-length:1000}") int maxLength) {
+    this.maxLength = maxLength;
+  }
+
+  // The completion limit to ask the model for, given the longest answer this guardrail keeps
+  public static int maxCompletionTokens(int maxLength) {
+    return (int) Math.ceil(maxLength * TOKENS_PER_CHARACTER);
+  }
+
+  // An answer the model stopped at the completion limit ends mid-sentence, however short it
+  // is, so it is cut back to its last whole sentence before being checked
   @Override
-  public OutputGuardrailResult validate(AiMessage responseFromLLM) {
-    String text = responseFromLLM.text().toLowerCase();
+  public OutputGuardrailResult validate(OutputGuardrailRequest params) {
+    ChatResponse response = params.responseFromLLM();
+    if (response.finishReason() != FinishReason.LENGTH) {
+      return validate(response.aiMessage());
+    }
+    String text = response.aiMessage().text();
+    int lastSentenceEnd = Math.max(text.lastIndexOf('.'), Math.max(text.lastIndexOf('?'), text.lastIndexOf('!')));
+    String complete = lastSentenceEnd < 0 ? "" : text.substring(0, lastSentenceEnd + 1);
+    String repaired = repair(complete);
+    if (repaired != null) {
+      return successWith(repaired);
+    }
+    Violation violation = checkPhrases(complete);
+    return violation != null ? reprompt(violation.message(), violation.reprompt())
+        : reprompt("Response was cut off", "Please keep your response under " + maxLength + " characters.");
+  }
 
-    for (String unprofessionalPhrase : UNPROFESSIONAL_PHRASES) {
-      if (text.contains(unprofessionalPhrase)) {
-        return reprompt("Unprofessional tone detected",
-            "Please maintain a professional and helpful tone");
-      }
+  @Override
+  public OutputGuardrailResult validate(AiMessage responseFromLLM) {
+    String text = responseFromLLM.text();
+    String repaired = repair(text);
+    if (repaired == null) {
+      Violation violation = checkComplete(text);
+      return violation == null ? success() : reprompt(violation.message(), violation.reprompt());
     }
+    return repaired.equals(text) ? success() : successWith(repaired);
+  }
 
+  // Phrases and the length limit can only get worse as more text arrives
+  @Override
+  public Violation checkPartial(String partialText) {
+    Violation violation = checkPhrases(partialText);
+    if (violation != null) {
+      return violation;
+    }
 
-    if (text.length() > 1000) {
-      return reprompt("Response too long",
-          "Please keep your response under 1000 characters.");
+    if (partialText.length() > maxLength) {
+      return new Violation("Response too long",
+          "Please keep your response under " + maxLength + " characters.");
     }
 
-    boolean hasCourtesy = REQUIRED_ELEMENTS.stream()
-        .anyMatch(text::contains);
+    return null;
+  }
+
+  @Override
+  public Violation checkComplete(String responseText) {
+    Violation violation = checkPartial(responseText);
+    if (violation != null) {
+      return violation;
+    }
 
-    if (!hasCourtesy) {
-      return reprompt(
+    if (!hasCourtesy(responseText)) {
+      return new Violation(
           "Response lacks professional courtesy",
           "Please include polite and helpful language in your response."
       );
     }
 
-    return success();
+    return null;
+  }
+
+  // The answer with code fences removed, cut at a sentence boundary to fit maxLength and with
+  // a courtesy closing if it has none; null if it has an unprofessional phrase or is blank
+  @Override
+  public String repair(String text) {
+    if (checkPhrases(text) != null) {
+      return null;
+    }
+    String repaired = text.contains("```") ? CODE_FENCE.matcher(text).replaceAll("").strip() : text;
+    if (repaired.isBlank()) {
+      return null;
+    }
+
+    if (repaired.length() > maxLength) {
+      // Room for an ellipsis, and for the closing if the cut removed the courtesy phrase
+      String truncated = InputSanitizerGuardrail.truncateAtSentence(repaired, maxLength - 3);
+      if (!hasCourtesy(truncated)) {
+        truncated = InputSanitizerGuardrail.truncateAtSentence(repaired, maxLength - 3 - COURTESY_CLOSING.length() - 1);
+      }
+      repaired = truncated;
+    }
+    if (!hasCourtesy(repaired)) {
+      repaired = repaired + " " + COURTESY_CLOSING;
+    }
+    return repaired;
+  }
+
+  private static Violation checkPhrases(String text) {
+    String lowerCase = text.toLowerCase();
+    for (String unprofessionalPhrase : UNPROFESSIONAL_PHRASES) {
+      if (lowerCase.contains(unprofessionalPhrase)) {
+        return new Violation("Unprofessional tone detected",
+            "Please maintain a professional and helpful tone");
+      }
+    }
+    return null;
+  }
+
+  private static boolean hasCourtesy(String text) {
+    String lowerCase = text.toLowerCase();
+    return REQUIRED_ELEMENTS.stream()
+        .anyMatch(lowerCase::contains);
   }
 }
@@ -3,14 +3,16 @@ package ca.bazlur.guardrailsdemo.guardrail;
 import dev.langchain4j.data.message.UserMessage;
 import dev.langchain4j.guardrail.InputGuardrail;
 import dev.langchain4j.guardrail.InputGuardrailResult;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.regex.Pattern;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Component
 public class PromptInjectionGuardrail implements InputGuardrail {
-  private static final List<Pattern> INJECTION_PATTERNS = List.of(
+  static final List<Pattern> INJECTION_PATTERNS = List.of(
       // Basic injection patterns
       Pattern.compile("ignore\\s+previous\\s+instructions", Pattern.CASE_INSENSITIVE),
       Pattern.compile("disregard\\s+all\\s+rules", Pattern.CASE_INSENSITIVE),
@@ -55,7 +57,7 @@ public class PromptInjectionGuardrail implements InputGuardrail {
       Pattern.compile("escape\\s+(?:your|the)\\s+(?:programming|constraints)", Pattern.CASE_INSENSITIVE)
   );
 
-  private static final List<Pattern> SUSPICIOUS_PATTERNS = List.of(
+  static final List<Pattern> SUSPICIOUS_PATTERNS = List.of(
       // Character encoding attempts
       Pattern.compile("\\\\u[0-9a-fA-F]{4}", Pattern.CASE_INSENSITIVE),
       Pattern.compile("&#\\d+;", Pattern.CASE_INSENSITIVE),
@@ -68,54 +70,68 @@ public class PromptInjectionGuardrail implements InputGuardrail {
       Pattern.compile("([-=_*#]{3,}|[.]{4,})")
   );
 
+  // Injection patterns occupy [0, INJECTION_PATTERNS.size()), suspicious ones follow
+  private static final MultiPatternScanner SCANNER = MultiPatternScanner.compile(
+      Stream.concat(INJECTION_PATTERNS.stream(), SUSPICIOUS_PATTERNS.stream()).toList());
+
+  private static final long RULES_FINGERPRINT = VerdictCache.fingerprint(INJECTION_PATTERNS, SUSPICIOUS_PATTERNS);
+
+  private final VerdictCache verdictCache;
+
+  public PromptInjectionGuardrail() {
+    this(VerdictCache.disabled());
+  }
+
+  @Autowired
+  public PromptInjectionGuardrail(VerdictCache verdictCache) {
+    this.verdictCache = verdictCache;
+  }
+
   @Override
   public InputGuardrailResult validate(UserMessage userMessage) {
-    String text = userMessage.singleText();
+    return verdictCache.validate(this, RULES_FINGERPRINT, userMessage.singleText(), this::evaluate);
+  }
+
+  private InputGuardrailResult evaluate(String text) {
+    MultiPatternScanner.Scan scan = SCANNER.scan(text);
     
     // Check for direct injection attempts
-    for (Pattern pattern : INJECTION_PATTERNS) {
-      if (pattern.matcher(text).find()) {
-        return fatal("Potential prompt injection detected. Please ask a genuine customer support question.");
-      }
+    if (scan.anyMatch(0, INJECTION_PATTERNS.size())) {
+      return fatal("Potential prompt injection detected. Please ask a genuine customer support question.");
     }
     
     // Check for suspicious patterns (warnings, not blocks)
-    int suspiciousCount = 0;
-    for (Pattern pattern : SUSPICIOUS_PATTERNS) {
-      if (pattern.matcher(text).find()) {
-        suspiciousCount++;
-      }
-    }
+    int suspiciousCount = scan.countMatches(INJECTION_PATTERNS.size(), SCANNER.size());
     
     if (suspiciousCount >= 2) {
       return failure("Your message contains suspicious formatting. Please use plain text.");
     }
     
     // Additional heuristics
-    if (containsExcessiveSpecialChars(text)) {
+    TextAnalysis.CharProfile chars = TextAnalysis.of(text).chars();
+    if (containsExcessiveSpecialChars(chars)) {
       return failure("Your message contains excessive special characters. Please simplify your question.");
     }
     
-    if (containsMultipleLanguages(text)) {
+    if (containsMultipleLanguages(chars)) {
       return failure("Please submit your question in a single language.");
     }
 
     return success();
   }
 
-  private boolean containsExcessiveSpecialChars(String text) {
-    long specialChars = text.chars()
-        .filter(c -> !Character.isLetterOrDigit(c) && !Character.isWhitespace(c))
-        .count();
+  private boolean containsExcessiveSpecialChars(TextAnalysis.CharProfile chars) {
+    // Neither letter, digit nor whitespace
+    long specialChars = chars.symbols();
     
-    return (double) specialChars / text.length() > 0.3;
+    return (double) specialChars / chars.length() > 0.3;
   }
 
-  private boolean containsMultipleLanguages(String text) {
+  private boolean containsMultipleLanguages(TextAnalysis.CharProfile chars) {
     // Simple heuristic: check for mixed scripts
-    boolean hasLatin = text.chars().anyMatch(c -> c >= 'A' && c <= 'z');
-    boolean hasNonLatin = text.chars().anyMatch(c -> c > 127 && Character.isLetter(c));
+    boolean hasLatin = chars.asciiLetterRange() > 0;
+    boolean hasNonLatin = chars.nonAsciiLetters() > 0;
     
-    return hasLatin && hasNonLatin && text.length() > 20;
+    return hasLatin && hasNonLatin && chars.length() > 20;
   }
 }
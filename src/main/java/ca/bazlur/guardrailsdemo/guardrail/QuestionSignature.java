@@ -0,0 +1,102 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import java.util.Arrays;
+
+// Bottom-k MinHash sketch of a question's word set: the K smallest distinct 32-bit word
+// hashes, sorted. The words are the same ones the Jaccard similarity has always used,
+// lowercase(text).split("\\s+"), so a sketch can stand in for the question itself.
+//
+// Error bound: when both questions have at most K distinct words the sketches hold every
+// word hash, and similarity() is the exact Jaccard index except for 32-bit hash collisions
+// (about n^2 / 2^33 for n distinct words). Longer questions are sampled through the K
+// smallest hashes of their union, which gives a standard error of sqrt(J * (1 - J) / K),
+// at most 0.0625.
+final class QuestionSignature {
+  static final int K = 64;
+
+  private final int[] hashes;
+  private final boolean complete;
+  private final int textHash;
+  private final int textLength;
+
+  private QuestionSignature(int[] hashes, boolean complete, int textHash, int textLength) {
+    this.hashes = hashes;
+    this.complete = complete;
+    this.textHash = textHash;
+    this.textLength = textLength;
+  }
+
+  static QuestionSignature of(String question) {
+    return of(TextAnalysis.of(question));
+  }
+
+  static QuestionSignature of(TextAnalysis analysis) {
+    String text = analysis.lowerCase();
+    int[] tokens = analysis.tokenOffsets();
+    int[] words = new int[tokens.length / 2 + 1];
+    int count = 0;
+    for (int t = 0; t < tokens.length; t += 2) {
+      int hash = 0;
+      for (int i = tokens[t]; i < tokens[t + 1]; i++) {
+        hash = 31 * hash + text.charAt(i);
+      }
+      words[count++] = mix(hash);
+    }
+    // split() keeps a leading empty string when the text starts with whitespace, and
+    // returns the whole text when there is no whitespace at all
+    if (text.isEmpty() || (tokens.length > 0 && tokens[0] > 0)) {
+      words[count++] = mix("".hashCode());
+    }
+
+    Arrays.sort(words, 0, count);
+    int distinct = 0;
+    for (int w = 0; w < count; w++) {
+      if (distinct == 0 || words[w] != words[distinct - 1]) {
+        words[distinct++] = words[w];
+      }
+    }
+    String question = analysis.text();
+    return new QuestionSignature(Arrays.copyOf(words, Math.min(distinct, K)), distinct <= K,
+        question.hashCode(), question.length());
+  }
+
+  // Jaccard similarity of the two word sets, estimated from the K smallest hashes of their
+  // union unless both sketches hold their whole word set
+  double similarity(QuestionSignature other) {
+    int[] a = hashes;
+    int[] b = other.hashes;
+    int limit = complete && other.complete ? a.length + b.length : K;
+    int i = 0;
+    int j = 0;
+    int union = 0;
+    int common = 0;
+    while (union < limit && (i < a.length || j < b.length)) {
+      if (j == b.length || (i < a.length && a[i] < b[j])) {
+        i++;
+      } else if (i == a.length || b[j] < a[i]) {
+        j++;
+      } else {
+        i++;
+        j++;
+        common++;
+      }
+      union++;
+    }
+    return union == 0 ? 0 : (double) common / union;
+  }
+
+  // Stands in for String.equals on the original question
+  boolean sameText(QuestionSignature other) {
+    return textHash == other.textHash && textLength == other.textLength && Arrays.equals(hashes, other.hashes);
+  }
+
+  // MurmurHash3 finalizer; a bijection, so distinct words only collide if String.hashCode does
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+}
@@ -0,0 +1,29 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+// Per-user request accounting behind RateLimitingGuardrail. Times are System.nanoTime() values.
+interface RateLimiter {
+
+    enum Verdict {
+        ALLOWED,
+        MINUTE_LIMIT_EXCEEDED,
+        HOUR_LIMIT_EXCEEDED
+    }
+
+    // Records the request if it is allowed; rejected requests are not counted
+    Verdict tryAcquire(String userId, long nowNanos);
+
+    // What tryAcquire would return now, without recording the request or tracking the user
+    Verdict check(String userId, long nowNanos);
+
+    int trackedUsers();
+
+    // Users whose limits have fully recovered are dropped by the expiry scheduler, off the request path
+    static RateLimiter create(String engine, int maxRequestsPerMinute, int maxRequestsPerHour,
+                              ExpiryScheduler expiryScheduler) {
+        return switch (engine.trim().toLowerCase()) {
+            case "gcra" -> new GcraRateLimiter(maxRequestsPerMinute, maxRequestsPerHour, expiryScheduler);
+            case "sliding-log" -> new SlidingLogRateLimiter(maxRequestsPerMinute, maxRequestsPerHour, expiryScheduler);
+            default -> throw new IllegalArgumentException("Unknown rate limit engine: " + engine);
+        };
+    }
+}
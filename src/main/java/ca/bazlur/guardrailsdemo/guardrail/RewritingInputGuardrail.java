@@ -0,0 +1,9 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import dev.langchain4j.guardrail.InputGuardrail;
+
+// Marks an input guardrail that may rewrite the user message with successWith(). Guardrails
+// declared after it must see the rewritten text, so composite chains never reorder or
+// overlap across it.
+public interface RewritingInputGuardrail extends InputGuardrail {
+}
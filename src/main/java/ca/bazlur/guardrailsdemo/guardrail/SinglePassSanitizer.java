@@ -0,0 +1,259 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+
+// Streaming equivalent of the sanitizer pipeline
+//
+//   NFKC -> strip control chars -> collapse [ \t]+ -> cap \n{3,} -> drop dangerous chars
+//        -> remove SQL keywords -> remove XSS keywords -> truncate at sentence -> trim
+//
+// Every stage is a small state machine that hands its output straight to the next one, so
+// the whole chain runs in one pass over the input and writes into a single buffer sized to
+// the input. The output is identical to running the replaceAll() calls one after the other.
+// Instances are not thread-safe; InputSanitizerGuardrail creates one per call.
+final class SinglePassSanitizer {
+  static final int MAX_LENGTH = 800;
+
+  private static final String DANGEROUS_CHARACTERS = "<>{}[]|\\\"';()&%$#@!*+=~`";
+  private static final String[] XSS_KEYWORDS = {"<script", "javascript:", "vbscript:", "onload=", "onerror="};
+  private static final String[] SQL_KEYWORDS = {"union", "select", "insert", "update", "delete", "drop", "exec", "script"};
+
+  // Identifies the rules above for VerdictCache
+  static final long RULES_FINGERPRINT = VerdictCache.fingerprint(MAX_LENGTH, DANGEROUS_CHARACTERS, XSS_KEYWORDS, SQL_KEYWORDS);
+
+  private static final boolean[] DANGEROUS_CHARS = new boolean[128];
+
+  static {
+    for (char c : DANGEROUS_CHARACTERS.toCharArray()) {
+      DANGEROUS_CHARS[c] = true;
+    }
+  }
+
+  private final KeywordEraser xss = new KeywordEraser(XSS_KEYWORDS, this::write);
+  private final KeywordEraser sql = new KeywordEraser(SQL_KEYWORDS, xss::accept);
+
+  private char[] out;
+  private int length;
+  private boolean inBlankRun;
+  private int newlineRun;
+
+  String sanitize(String input) {
+    if (input == null || isTrimmedEmpty(input)) {
+      return input;
+    }
+
+    // The stages only drop characters, so this is enough unless NFKC expands the text or
+    // truncation appends its "..."
+    out = new char[input.length() + 3];
+    if (!run(input, true)) {
+      // Only reached when the text contains non-ASCII characters that NFKC would change
+      run(Normalizer.normalize(input, Normalizer.Form.NFKC), false);
+    }
+
+    int end = length;
+    if (end > MAX_LENGTH) {
+      end = truncateAtSentence(MAX_LENGTH);
+    }
+    int start = 0;
+    while (start < end && out[start] <= ' ') {
+      start++;
+    }
+    while (end > start && out[end - 1] <= ' ') {
+      end--;
+    }
+    return new String(out, start, end - start);
+  }
+
+  // Returns false, leaving the result undefined, if the text turns out not to be NFKC-normalized
+  private boolean run(String text, boolean checkNormalization) {
+    length = 0;
+    inBlankRun = false;
+    newlineRun = 0;
+    sql.reset();
+    xss.reset();
+
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c >= 128 && checkNormalization) {
+        if (!Normalizer.isNormalized(text, Normalizer.Form.NFKC)) {
+          return false;
+        }
+        checkNormalization = false;
+      }
+      stripControlChars(c);
+    }
+    endNewlineRun();
+    sql.flush();
+    xss.flush();
+    return true;
+  }
+
+  private void stripControlChars(char c) {
+    if (c <= '\u0008' || c == '\u000B' || c == '\u000C' || (c >= '\u000E' && c <= '\u001F') || c == '\u007F') {
+      return;
+    }
+    collapseBlanks(c);
+  }
+
+  private void collapseBlanks(char c) {
+    if (c == ' ' || c == '\t') {
+      if (!inBlankRun) {
+        inBlankRun = true;
+        capNewlines(' ');
+      }
+      return;
+    }
+    inBlankRun = false;
+    capNewlines(c);
+  }
+
+  // The original replaceAll("\\n{3,}", "\\n\\n") passes "\n\n" as a replacement string,
+  // where a backslash escapes the next character, so runs of three or more newlines have
+  // always come out as the two letters "nn". Reproduced as-is to keep the output unchanged.
+  private void capNewlines(char c) {
+    if (c == '\n') {
+      newlineRun++;
+      return;
+    }
+    endNewlineRun();
+    dropDangerousChars(c);
+  }
+
+  private void endNewlineRun() {
+    char replacement = newlineRun > 2 ? 'n' : '\n';
+    for (int i = Math.min(newlineRun, 2); i > 0; i--) {
+      dropDangerousChars(replacement);
+    }
+    newlineRun = 0;
+  }
+
+  private void dropDangerousChars(char c) {
+    if (c < 128 && DANGEROUS_CHARS[c]) {
+      return;
+    }
+    sql.accept(c);
+  }
+
+  private void write(char c) {
+    if (length == out.length) {
+      out = Arrays.copyOf(out, out.length * 2);
+    }
+    out[length++] = c;
+  }
+
+  // Same cut points as the original String-based truncateAtSentence, applied in place
+  private int truncateAtSentence(int maxLength) {
+    int lastSentenceBoundary = -1;
+    int lastSpace = -1;
+    for (int i = maxLength - 1; i >= 0 && (lastSentenceBoundary < 0 || lastSpace < 0); i--) {
+      char c = out[i];
+      if (lastSentenceBoundary < 0 && (c == '.' || c == '?' || c == '!')) {
+        lastSentenceBoundary = i;
+      }
+      if (lastSpace < 0 && c == ' ') {
+        lastSpace = i;
+      }
+    }
+
+    if (lastSentenceBoundary > maxLength / 2) {
+      return lastSentenceBoundary + 1;
+    }
+    int cut = lastSpace > maxLength / 2 ? lastSpace : maxLength;
+    length = cut;
+    write('.');
+    write('.');
+    write('.');
+    return length;
+  }
+
+  private static boolean isTrimmedEmpty(String input) {
+    for (int i = 0; i < input.length(); i++) {
+      if (input.charAt(i) > ' ') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @FunctionalInterface
+  private interface CharSink {
+    void accept(char c);
+  }
+
+  // Streaming form of Pattern.compile("(?i)(k1|k2|...)").matcher(s).replaceAll(""): at each
+  // position the first alternative that matches is removed and scanning resumes after it.
+  // Characters are held back only while they may still be the start of a keyword.
+  private static final class KeywordEraser {
+    private final char[][] keywords;
+    private final CharSink next;
+    private final char[] window;
+    private int size;
+
+    KeywordEraser(String[] keywords, CharSink next) {
+      this.keywords = new char[keywords.length][];
+      int longest = 0;
+      for (int k = 0; k < keywords.length; k++) {
+        this.keywords[k] = keywords[k].toCharArray();
+        longest = Math.max(longest, keywords[k].length());
+      }
+      this.next = next;
+      this.window = new char[longest];
+    }
+
+    void reset() {
+      size = 0;
+    }
+
+    void accept(char c) {
+      window[size++] = c;
+      drain(false);
+    }
+
+    void flush() {
+      drain(true);
+    }
+
+    private void drain(boolean endOfInput) {
+      while (size > 0) {
+        int matched = matchAtStart();
+        if (matched > 0) {
+          consume(matched, false);
+        } else if (matched == 0 && !endOfInput) {
+          return;
+        } else {
+          consume(1, true);
+        }
+      }
+    }
+
+    // > 0: length of the keyword at the window start, 0: window may still become a keyword, -1: no keyword
+    private int matchAtStart() {
+      for (char[] keyword : keywords) {
+        int n = Math.min(size, keyword.length);
+        int i = 0;
+        while (i < n && foldAscii(window[i]) == keyword[i]) {
+          i++;
+        }
+        if (i == n) {
+          return size >= keyword.length ? keyword.length : 0;
+        }
+      }
+      return -1;
+    }
+
+    private void consume(int count, boolean emit) {
+      if (emit) {
+        for (int i = 0; i < count; i++) {
+          next.accept(window[i]);
+        }
+      }
+      System.arraycopy(window, count, window, 0, size - count);
+      size -= count;
+    }
+
+    private static char foldAscii(char c) {
+      return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Exact sliding window: keeps the timestamp of every request from the last hour.
+// Memory and time per call grow with the number of recent requests; see GcraRateLimiter.
+class SlidingLogRateLimiter implements RateLimiter {
+
+    private static final long ONE_MINUTE = Duration.ofMinutes(1).toNanos();
+    private static final long ONE_HOUR = Duration.ofHours(1).toNanos();
+
+    private final int maxRequestsPerMinute;
+    private final int maxRequestsPerHour;
+    private final ConcurrentHashMap<String, UserRateLimit> userLimits = new ConcurrentHashMap<>();
+    private final ExpiryScheduler expiryScheduler;
+
+    SlidingLogRateLimiter(int maxRequestsPerMinute, int maxRequestsPerHour, ExpiryScheduler expiryScheduler) {
+        this.maxRequestsPerMinute = maxRequestsPerMinute;
+        this.maxRequestsPerHour = maxRequestsPerHour;
+        this.expiryScheduler = expiryScheduler;
+    }
+
+    @Override
+    public Verdict tryAcquire(String userId, long nowNanos) {
+        while (true) {
+            UserRateLimit userLimit = limitFor(userId, nowNanos);
+            synchronized (userLimit) {
+                if (userLimit.evicted) {
+                    continue; // lost a race with expiry; pick up the replacement
+                }
+                Verdict verdict = verdict(userLimit, nowNanos);
+                if (verdict == Verdict.ALLOWED) {
+                    userLimit.addRequest(nowNanos);
+                }
+                return verdict;
+            }
+        }
+    }
+
+    @Override
+    public Verdict check(String userId, long nowNanos) {
+        UserRateLimit userLimit = userLimits.get(userId);
+        if (userLimit == null) {
+            return Verdict.ALLOWED;
+        }
+        synchronized (userLimit) {
+            return verdict(userLimit, nowNanos);
+        }
+    }
+
+    // Called with the user's lock held
+    private Verdict verdict(UserRateLimit userLimit, long nowNanos) {
+        // Clean old requests from this user
+        userLimit.cleanOldRequests(nowNanos);
+
+        if (userLimit.getRequestsInLastMinute(nowNanos) >= maxRequestsPerMinute) {
+            return Verdict.MINUTE_LIMIT_EXCEEDED;
+        }
+        if (userLimit.getRequestsInLastHour() >= maxRequestsPerHour) {
+            return Verdict.HOUR_LIMIT_EXCEEDED;
+        }
+        return Verdict.ALLOWED;
+    }
+
+    private UserRateLimit limitFor(String userId, long nowNanos) {
+        UserRateLimit userLimit = userLimits.get(userId);
+        if (userLimit != null) {
+            return userLimit;
+        }
+        UserRateLimit created = new UserRateLimit();
+        userLimit = userLimits.putIfAbsent(userId, created);
+        if (userLimit != null) {
+            return userLimit;
+        }
+        expiryScheduler.schedule(nowNanos + ONE_HOUR, now -> expireIfIdle(userId, created, now));
+        return created;
+    }
+
+    private long expireIfIdle(String userId, UserRateLimit limit, long nowNanos) {
+        synchronized (limit) {
+            limit.cleanOldRequests(nowNanos);
+            Long oldest = limit.oldestRequest();
+            if (oldest != null) {
+                return oldest + ONE_HOUR + 1;
+            }
+            // Remove users with no recent activity (last hour)
+            limit.evicted = true;
+            userLimits.remove(userId, limit);
+            return ExpiryScheduler.DONE;
+        }
+    }
+
+    @Override
+    public int trackedUsers() {
+        return userLimits.size();
+    }
+
+    // Guarded by its own monitor
+    private static class UserRateLimit {
+        private final ArrayDeque<Long> requests = new ArrayDeque<>();
+        private boolean evicted;
+
+        void addRequest(long timestamp) {
+            requests.offer(timestamp);
+        }
+
+        void cleanOldRequests(long now) {
+            requests.removeIf(timestamp -> now - timestamp > ONE_HOUR);
+        }
+
+        int getRequestsInLastMinute(long now) {
+            return (int) requests.stream()
+                .filter(timestamp -> now - timestamp < ONE_MINUTE)
+                .count();
+        }
+
+        int getRequestsInLastHour() {
+            return requests.size(); // Already cleaned to last hour
+        }
+
+        Long oldestRequest() {
+            return requests.peek();
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import dev.langchain4j.guardrail.InputGuardrail;
+
+// Marks an input guardrail that records every message it validates, such as request counts
+// or session history. Composite chains that keep running after a rejection to gather
+// statistics never run it on a message another guardrail has already rejected.
+public interface StatefulInputGuardrail extends InputGuardrail {
+}
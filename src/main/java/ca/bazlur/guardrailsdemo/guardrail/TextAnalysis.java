@@ -0,0 +1,190 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// Derived views of one message that several guardrails need: the lower-cased text, a
+// character class histogram, whitespace token offsets and a content hash. Each view is
+// computed on first use and at most once per message.
+//
+// Every guardrail in a chain receives the same String instance for the message (until a
+// rewriter replaces it), so within one chain invocation of() finds the analysis by identity.
+// The invocation is marked with shared(), which the assistants and the composite chains
+// open around their guardrails; the parallel chain carries it over to its worker threads.
+// The analyses are dropped when the invocation returns, and outside one of() shares nothing.
+// Racing threads may compute a view twice; the views are immutable, so either copy is correct.
+public final class TextAnalysis {
+  private static final ThreadLocal<Scope> SCOPE = new ThreadLocal<>();
+
+  // The characters ContentSafetyInputGuardrail treats as substitution symbols
+  private static final boolean[] SUBSTITUTION_SYMBOLS = new boolean[128];
+
+  static {
+    for (char c : "@#$%^&*()_+-=[]{}|;':\",./<>?".toCharArray()) {
+      SUBSTITUTION_SYMBOLS[c] = true;
+    }
+  }
+
+  // Counts over UTF-16 chars, using the same Character predicates the guardrails always have
+  record CharProfile(int length, int lettersOrDigits, int whitespace, int symbols,
+                     int substitutionSymbols, int asciiLetterRange, int nonAsciiLetters) {
+  }
+
+  private final String text;
+  private volatile String lowerCase;
+  private volatile CharProfile charProfile;
+  private volatile int[] tokenOffsets;
+  private volatile boolean hashed;
+  private volatile long contentHash;
+
+  private TextAnalysis(String text) {
+    this.text = text;
+  }
+
+  // The analyses of the messages seen by one chain invocation
+  static final class Scope {
+    private final Map<String, TextAnalysis> analyses = new IdentityHashMap<>();
+
+    private synchronized TextAnalysis analysis(String text) {
+      return analyses.computeIfAbsent(text, TextAnalysis::new);
+    }
+  }
+
+  // Runs one chain invocation, sharing the analyses of its messages between its guardrails.
+  // A nested call joins the enclosing invocation.
+  public static <T> T shared(Supplier<T> invocation) {
+    return SCOPE.get() != null ? invocation.get() : within(new Scope(), invocation);
+  }
+
+  // The invocation the current thread is running in, or null
+  static Scope currentScope() {
+    return SCOPE.get();
+  }
+
+  // Runs part of an invocation, such as a guardrail on another thread, in its scope
+  static <T> T within(Scope scope, Supplier<T> call) {
+    Scope previous = SCOPE.get();
+    SCOPE.set(scope);
+    try {
+      return call.get();
+    } finally {
+      if (previous == null) {
+        SCOPE.remove();
+      } else {
+        SCOPE.set(previous);
+      }
+    }
+  }
+
+  static TextAnalysis of(String text) {
+    Scope scope = SCOPE.get();
+    return scope == null ? new TextAnalysis(text) : scope.analysis(text);
+  }
+
+  String text() {
+    return text;
+  }
+
+  String lowerCase() {
+    String result = lowerCase;
+    if (result == null) {
+      result = text.toLowerCase();
+      lowerCase = result;
+    }
+    return result;
+  }
+
+  CharProfile chars() {
+    CharProfile result = charProfile;
+    if (result == null) {
+      result = profile(text);
+      charProfile = result;
+    }
+    return result;
+  }
+
+  // Start and end offsets into lowerCase() of each maximal run of non-\s characters,
+  // flattened as [start0, end0, start1, end1, ...]
+  int[] tokenOffsets() {
+    int[] result = tokenOffsets;
+    if (result == null) {
+      result = tokenize(lowerCase());
+      tokenOffsets = result;
+    }
+    return result;
+  }
+
+  // 64-bit FNV-1a over the UTF-16 chars of the text
+  long contentHash() {
+    if (!hashed) {
+      long hash = 0xcbf29ce484222325L;
+      for (int i = 0; i < text.length(); i++) {
+        hash ^= text.charAt(i);
+        hash *= 0x100000001b3L;
+      }
+      contentHash = hash;
+      hashed = true;
+    }
+    return contentHash;
+  }
+
+  // The \s class: [ \t\n\x0B\f\r]
+  static boolean isRegexWhitespace(char c) {
+    return c == ' ' || (c >= '\t' && c <= '\r');
+  }
+
+  private static CharProfile profile(String text) {
+    int lettersOrDigits = 0;
+    int whitespace = 0;
+    int symbols = 0;
+    int substitutionSymbols = 0;
+    int asciiLetterRange = 0;
+    int nonAsciiLetters = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (Character.isLetterOrDigit(c)) {
+        lettersOrDigits++;
+      } else if (Character.isWhitespace(c)) {
+        whitespace++;
+      } else {
+        symbols++;
+      }
+      if (c < 128) {
+        if (SUBSTITUTION_SYMBOLS[c]) {
+          substitutionSymbols++;
+        }
+        if (c >= 'A' && c <= 'z') {
+          asciiLetterRange++;
+        }
+      } else if (Character.isLetter(c)) {
+        nonAsciiLetters++;
+      }
+    }
+    return new CharProfile(text.length(), lettersOrDigits, whitespace, symbols,
+        substitutionSymbols, asciiLetterRange, nonAsciiLetters);
+  }
+
+  private static int[] tokenize(String text) {
+    int[] offsets = new int[16];
+    int count = 0;
+    int i = 0;
+    while (i < text.length()) {
+      if (isRegexWhitespace(text.charAt(i))) {
+        i++;
+        continue;
+      }
+      int start = i;
+      while (i < text.length() && !isRegexWhitespace(text.charAt(i))) {
+        i++;
+      }
+      if (count + 2 > offsets.length) {
+        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+      }
+      offsets[count++] = start;
+      offsets[count++] = i;
+    }
+    return Arrays.copyOf(offsets, count);
+  }
+}
@@ -0,0 +1,147 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import dev.langchain4j.guardrail.InputGuardrail;
+import dev.langchain4j.guardrail.InputGuardrailResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+// Remembers the verdicts of the stateless input guardrails, so a message that has been seen
+// before skips the pattern scans entirely. Only guardrails whose verdict depends on nothing
+// but the text and their own rules may use it.
+//
+// Entries are keyed by guardrail, rules fingerprint and the message's content hash, and hold
+// the full text so that a hash collision can never hand one message another message's
+// verdict. The fingerprint covers every rule and setting that can change a verdict; when the
+// rules change, the old entries simply stop matching and age out of the cache. Rewrites are
+// cached too, so a repeated message also skips the sanitizer.
+//
+// Evaluation happens outside the cache lock. Two threads missing on the same text both
+// evaluate it; the verdicts are identical, so the second put is a no-op.
+@Component
+public class VerdictCache {
+
+  // Longer messages are evaluated every time rather than pinning large strings in the cache
+  static final int MAX_CACHED_LENGTH = 4096;
+
+  private static final VerdictCache DISABLED = new VerdictCache();
+
+  private final BoundedCache<Key, Verdict> verdicts;
+
+  @Autowired
+  public VerdictCache(@Value("${app.guardrails.input.verdict-cache.max-entries:10000}") int maxEntries,
+                      @Value("${app.guardrails.input.verdict-cache.idle-timeout:1h}") Duration idleTimeout,
+                      ExpiryScheduler expiryScheduler) {
+    this.verdicts = new BoundedCache<>(maxEntries, idleTimeout.toNanos(), expiryScheduler);
+  }
+
+  private VerdictCache() {
+    this.verdicts = null;
+  }
+
+  // Evaluates every time; used by guardrails that are created outside the Spring context
+  static VerdictCache disabled() {
+    return DISABLED;
+  }
+
+  // Returns the cached verdict of guardrail for text, or evaluates and caches it
+  InputGuardrailResult validate(InputGuardrail guardrail, long rulesFingerprint, String text,
+                                Function<String, InputGuardrailResult> evaluation) {
+    if (verdicts == null || text == null || text.length() > MAX_CACHED_LENGTH) {
+      return evaluation.apply(text);
+    }
+    Key key = new Key(guardrail.getClass(), rulesFingerprint, TextAnalysis.of(text).contentHash(), text);
+    Verdict cached = verdicts.getIfPresent(key, System.nanoTime());
+    if (cached != null) {
+      return cached.toResult(guardrail);
+    }
+    InputGuardrailResult result = evaluation.apply(text);
+    Verdict verdict = Verdict.of(result);
+    if (verdict != null) {
+      verdicts.put(key, verdict, System.nanoTime());
+    }
+    return result;
+  }
+
+  public BoundedCache.Stats stats() {
+    return verdicts == null ? new BoundedCache.Stats(0, 0, 0, 0, 0) : verdicts.stats();
+  }
+
+  // Combines rules into one value that changes whenever any of them does. Patterns count by
+  // source and flags, collections and arrays element by element, anything else by equals().
+  static long fingerprint(Object... rules) {
+    long hash = 0xcbf29ce484222325L;
+    for (Object rule : rules) {
+      hash = (hash ^ ruleHash(rule)) * 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  private static long ruleHash(Object rule) {
+    if (rule instanceof Pattern pattern) {
+      return 31L * pattern.pattern().hashCode() + pattern.flags();
+    }
+    if (rule instanceof Collection<?> collection) {
+      return fingerprint(collection.toArray());
+    }
+    if (rule instanceof Object[] array) {
+      return fingerprint(array);
+    }
+    if (rule instanceof char[] chars) {
+      return Arrays.hashCode(chars);
+    }
+    return rule == null ? 0 : rule.hashCode();
+  }
+
+  private record Key(Class<?> guardrail, long rulesFingerprint, long contentHash, String text) {
+
+    @Override
+    public int hashCode() {
+      long hash = contentHash * 31 + rulesFingerprint;
+      return (int) (hash ^ (hash >>> 32)) * 31 + guardrail.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Key key
+          && contentHash == key.contentHash
+          && rulesFingerprint == key.rulesFingerprint
+          && guardrail == key.guardrail
+          && text.equals(key.text);
+    }
+  }
+
+  // The part of a result that the guardrails produce; rebuilt into a fresh result on every hit
+  private record Verdict(Kind kind, String text) {
+
+    enum Kind { SUCCESS, REWRITE, FAILURE, FATAL }
+
+    // Null for results that cannot be rebuilt from a single message
+    static Verdict of(InputGuardrailResult result) {
+      if (result.isSuccess()) {
+        return result.hasRewrittenResult()
+            ? new Verdict(Kind.REWRITE, result.successfulText())
+            : new Verdict(Kind.SUCCESS, null);
+      }
+      if (result.failures().size() != 1 || result.failures().get(0).cause() != null) {
+        return null;
+      }
+      return new Verdict(result.isFatal() ? Kind.FATAL : Kind.FAILURE, result.failures().get(0).message());
+    }
+
+    InputGuardrailResult toResult(InputGuardrail guardrail) {
+      return switch (kind) {
+        case SUCCESS -> guardrail.success();
+        case REWRITE -> guardrail.successWith(text);
+        case FAILURE -> guardrail.failure(text);
+        case FATAL -> guardrail.fatal(text);
+      };
+    }
+  }
+}
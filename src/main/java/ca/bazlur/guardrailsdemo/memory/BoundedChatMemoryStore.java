@@ -0,0 +1,56 @@
+package ca.bazlur.guardrailsdemo.memory;
+
+import ca.bazlur.guardrailsdemo.guardrail.BoundedCache;
+import ca.bazlur.guardrailsdemo.guardrail.ExpiryScheduler;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+
+// Chat history by session, on the heap. At most maxSessions conversations are kept; once
+// full, the least valuable session is evicted as in BoundedCache, and a session idle for
+// the timeout is dropped by the shared ExpiryScheduler. An evicted session starts again
+// with an empty history, so memory use stays proportional to maxSessions times the
+// window size, however many customers come and go. This is the default store; see
+// MappedChatMemoryStore for one that survives restarts.
+@Component
+@ConditionalOnProperty(name = "app.chat-memory.store", havingValue = "memory", matchIfMissing = true)
+public class BoundedChatMemoryStore implements ChatMemoryStore {
+
+  // Replaced as a whole on every update, so readers never see a half-written window
+  private static final class Session {
+    private volatile List<ChatMessage> messages = List.of();
+  }
+
+  private final BoundedCache<Object, Session> sessions;
+
+  public BoundedChatMemoryStore(@Value("${app.chat-memory.max-sessions:100000}") int maxSessions,
+                                @Value("${app.chat-memory.idle-timeout:30m}") Duration idleTimeout,
+                                ExpiryScheduler expiryScheduler) {
+    this.sessions = new BoundedCache<>(maxSessions, idleTimeout.toNanos(), expiryScheduler);
+  }
+
+  @Override
+  public List<ChatMessage> getMessages(Object memoryId) {
+    Session session = sessions.getIfPresent(memoryId, System.nanoTime());
+    return session == null ? List.of() : session.messages;
+  }
+
+  @Override
+  public void updateMessages(Object memoryId, List<ChatMessage> messages) {
+    sessions.getOrCreate(memoryId, Session::new, System.nanoTime()).messages = List.copyOf(messages);
+  }
+
+  @Override
+  public void deleteMessages(Object memoryId) {
+    sessions.invalidate(memoryId);
+  }
+
+  public BoundedCache.Stats stats() {
+    return sessions.stats();
+  }
+}
@@ -0,0 +1,461 @@
+package ca.bazlur.guardrailsdemo.memory;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageDeserializer;
+import dev.langchain4j.data.message.ChatMessageSerializer;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Chat history by session in append-only segment files that are memory-mapped, so
+// conversations survive restarts and only the index lives on the heap.
+//
+// Every update appends the session's whole window as one record: a header, the session ID
+// and the deflated JSON of the messages. The index maps each session to the location of
+// its latest record. A delete appends a tombstone. When a record is superseded, its bytes
+// are counted as dead in its segment. When the active segment is full, a new one is started.
+//
+// A background thread compacts the log oldest segment first. It runs while at least half of
+// the bytes are dead, or while the oldest segment only holds sessions older than the
+// retention. Live records are copied unchanged to the active segment, and the old file is
+// deleted. Nothing is older than the oldest segment, so its tombstones and sessions past
+// the retention can simply be dropped.
+//
+// Recovery maps every segment and walks the record headers in order, checking each record's
+// CRC to find where a torn write ends the log. Payloads are neither inflated nor parsed
+// until a session is read. Writes reach the page cache at once and the disk within one
+// compaction interval, or on close.
+@Component
+@ConditionalOnProperty(name = "app.chat-memory.store", havingValue = "mapped")
+@Slf4j
+public class MappedChatMemoryStore implements ChatMemoryStore, AutoCloseable {
+
+  public record Stats(int sessions, int segments, long bytes, long deadBytes) {
+  }
+
+  // length, crc, type, writtenAt, rawLength, idLength
+  private static final int HEADER = 4 + 4 + 1 + 8 + 4 + 2;
+  private static final byte MESSAGES = 1;
+  private static final byte TOMBSTONE = 2;
+  private static final String SUFFIX = ".segment";
+
+  private final Path directory;
+  private final int segmentSize;
+  private final long retentionMillis;
+  private final Clock clock;
+  private final ReentrantLock writeLock = new ReentrantLock();
+  private final Map<String, Long> index = new ConcurrentHashMap<>();
+  private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+  private final ScheduledExecutorService compactor;
+  // Replaced under the write lock, read by the compaction thread
+  private volatile Segment active;
+
+  @Autowired
+  public MappedChatMemoryStore(@Value("${app.chat-memory.mapped.directory:data/chat-memory}") String directory,
+                               @Value("${app.chat-memory.mapped.segment-size:64MB}") DataSize segmentSize,
+                               @Value("${app.chat-memory.mapped.retention:7d}") Duration retention,
+                               @Value("${app.chat-memory.mapped.compaction-interval:1m}") Duration compactionInterval)
+      throws IOException {
+    this(Path.of(directory), Math.toIntExact(segmentSize.toBytes()), retention, Clock.systemUTC());
+    compactor.scheduleWithFixedDelay(this::maintain, compactionInterval.toMillis(),
+        compactionInterval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  MappedChatMemoryStore(Path directory, int segmentSize, Duration retention, Clock clock) throws IOException {
+    if (segmentSize <= HEADER) {
+      throw new IllegalArgumentException("Segment size must be larger than a record header");
+    }
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.retentionMillis = retention.toMillis();
+    this.clock = clock;
+    this.compactor = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name("chat-memory-compaction").daemon().factory());
+    Files.createDirectories(directory);
+    recover();
+  }
+
+  @Override
+  public List<ChatMessage> getMessages(Object memoryId) {
+    String id = memoryId.toString();
+    while (true) {
+      Long location = index.get(id);
+      if (location == null) {
+        return List.of();
+      }
+      Segment segment = segments.get(segmentOf(location));
+      // Compaction moves the record before it drops the segment, so the index has moved on
+      if (segment != null) {
+        int offset = offsetOf(location);
+        // Past the retention but not compacted yet
+        if (segment.buffer.getLong(offset + 9) < clock.millis() - retentionMillis) {
+          return List.of();
+        }
+        return readMessages(segment.buffer, offset);
+      }
+    }
+  }
+
+  @Override
+  public void updateMessages(Object memoryId, List<ChatMessage> messages) {
+    String id = memoryId.toString();
+    byte[] raw = ChatMessageSerializer.messagesToJson(messages).getBytes(StandardCharsets.UTF_8);
+    byte[] payload = deflate(raw);
+    writeLock.lock();
+    try {
+      long location = append(MESSAGES, id, clock.millis(), raw.length, payload);
+      markDead(index.put(id, location));
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public void deleteMessages(Object memoryId) {
+    String id = memoryId.toString();
+    writeLock.lock();
+    try {
+      Long previous = index.remove(id);
+      if (previous == null) {
+        return;
+      }
+      markDead(previous);
+      // A tombstone holds no data, so it is dead from the start
+      markDead(append(TOMBSTONE, id, clock.millis(), 0, new byte[0]));
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  public Stats stats() {
+    long bytes = 0;
+    long deadBytes = 0;
+    for (Segment segment : segments.values()) {
+      bytes += segment.size;
+      deadBytes += segment.deadBytes.get();
+    }
+    return new Stats(index.size(), segments.size(), bytes, deadBytes);
+  }
+
+  @Override
+  public void close() {
+    compactor.shutdownNow();
+    writeLock.lock();
+    try {
+      active.buffer.force();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void maintain() {
+    try {
+      compact();
+      writeLock.lock();
+      try {
+        active.buffer.force();
+      } finally {
+        writeLock.unlock();
+      }
+    } catch (RuntimeException e) {
+      log.error("Chat memory compaction failed", e);
+    }
+  }
+
+  // Rewrites the oldest segments while they are worth rewriting. Called on the compaction thread.
+  void compact() {
+    long cutoff = clock.millis() - retentionMillis;
+    int sealed = segments.headMap(active.number).size();
+    for (int i = 0; i < sealed; i++) {
+      Segment oldest = segments.firstEntry().getValue();
+      Stats stats = stats();
+      if (oldest == active || (stats.deadBytes() * 2 < stats.bytes() && oldest.lastWrittenAt >= cutoff)) {
+        return;
+      }
+      compact(oldest, cutoff);
+    }
+  }
+
+  private void compact(Segment segment, long cutoff) {
+    ByteBuffer buffer = segment.buffer;
+    int copied = 0;
+    for (int offset = 0; offset < segment.size; offset += buffer.getInt(offset)) {
+      if (buffer.get(offset + 8) != MESSAGES) {
+        continue;
+      }
+      String id = readId(buffer, offset);
+      long location = location(segment.number, offset);
+      writeLock.lock();
+      try {
+        if (!Long.valueOf(location).equals(index.get(id))) {
+          continue;
+        }
+        if (buffer.getLong(offset + 9) < cutoff) {
+          index.remove(id);
+        } else {
+          index.put(id, appendCopy(buffer, offset));
+          copied++;
+        }
+      } finally {
+        writeLock.unlock();
+      }
+    }
+    // The copies have to be on disk before the segment holding the originals is deleted
+    writeLock.lock();
+    try {
+      active.buffer.force();
+    } finally {
+      writeLock.unlock();
+    }
+    segments.remove(segment.number);
+    try {
+      Files.deleteIfExists(segment.path);
+    } catch (IOException e) {
+      log.warn("Could not delete compacted chat memory segment {}", segment.path, e);
+    }
+    log.debug("Compacted chat memory segment {}, {} sessions moved", segment.number, copied);
+  }
+
+  // Caller holds the write lock
+  private long append(byte type, String id, long writtenAt, int rawLength, byte[] payload) {
+    byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+    if (idBytes.length > Short.MAX_VALUE) {
+      throw new IllegalArgumentException("Memory ID is too long");
+    }
+    int length = HEADER + idBytes.length + payload.length;
+    Segment segment = segmentWithRoom(length);
+    ByteBuffer buffer = segment.buffer;
+    int offset = segment.size;
+    buffer.put(offset + 8, type);
+    buffer.putLong(offset + 9, writtenAt);
+    buffer.putInt(offset + 17, rawLength);
+    buffer.putShort(offset + 21, (short) idBytes.length);
+    buffer.put(offset + HEADER, idBytes);
+    buffer.put(offset + HEADER + idBytes.length, payload);
+    buffer.putInt(offset + 4, crc(buffer, offset, length));
+    // Written last, so a record torn by a crash is never mistaken for a complete one
+    buffer.putInt(offset, length);
+    return commit(segment, length, writtenAt);
+  }
+
+  // Caller holds the write lock. The bytes after the length do not depend on where the
+  // record lives, so its CRC stays valid.
+  private long appendCopy(ByteBuffer source, int sourceOffset) {
+    int length = source.getInt(sourceOffset);
+    Segment segment = segmentWithRoom(length);
+    int offset = segment.size;
+    segment.buffer.put(offset + 4, source, sourceOffset + 4, length - 4);
+    segment.buffer.putInt(offset, length);
+    return commit(segment, length, source.getLong(sourceOffset + 9));
+  }
+
+  private long commit(Segment segment, int length, long writtenAt) {
+    long location = location(segment.number, segment.size);
+    segment.size += length;
+    segment.lastWrittenAt = Math.max(segment.lastWrittenAt, writtenAt);
+    return location;
+  }
+
+  private Segment segmentWithRoom(int length) {
+    if (length > segmentSize) {
+      throw new IllegalArgumentException("Chat memory record of " + length + " bytes does not fit in a segment");
+    }
+    if (active.size + length > segmentSize) {
+      active.buffer.force();
+      active = createSegment(active.number + 1);
+    }
+    return active;
+  }
+
+  private void markDead(Long location) {
+    if (location == null) {
+      return;
+    }
+    Segment segment = segments.get(segmentOf(location));
+    if (segment != null) {
+      segment.deadBytes.addAndGet(segment.buffer.getInt(offsetOf(location)));
+    }
+  }
+
+  private void recover() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      stream.forEach(files::add);
+    }
+    files.sort(null);
+    long cutoff = clock.millis() - retentionMillis;
+    for (Path file : files) {
+      String name = file.getFileName().toString();
+      Segment segment = mapSegment(Integer.parseInt(name.substring(0, name.length() - SUFFIX.length())), file);
+      segments.put(segment.number, segment);
+      recover(segment, cutoff);
+    }
+    active = segments.isEmpty() ? createSegment(1) : segments.lastEntry().getValue();
+    log.info("Recovered {} chat memory sessions from {} segments", index.size(), segments.size());
+  }
+
+  // Replays one segment's records into the index, up to the first incomplete one
+  private void recover(Segment segment, long cutoff) {
+    ByteBuffer buffer = segment.buffer;
+    int offset = 0;
+    while (offset + HEADER <= buffer.capacity()) {
+      int length = buffer.getInt(offset);
+      if (length < HEADER || length > buffer.capacity() - offset
+          || buffer.getInt(offset + 4) != crc(buffer, offset, length)) {
+        break;
+      }
+      String id = readId(buffer, offset);
+      long location = location(segment.number, offset);
+      long writtenAt = buffer.getLong(offset + 9);
+      segment.size = offset + length;
+      segment.lastWrittenAt = Math.max(segment.lastWrittenAt, writtenAt);
+      if (buffer.get(offset + 8) == MESSAGES) {
+        markDead(index.put(id, location));
+        // Past the retention counts as deleted; compaction drops it from the file
+        if (writtenAt < cutoff) {
+          markDead(index.remove(id));
+        }
+      } else {
+        markDead(index.remove(id));
+        markDead(location);
+      }
+      offset += length;
+    }
+  }
+
+  private Segment createSegment(int number) {
+    try {
+      Segment segment = mapSegment(number, directory.resolve(String.format("%010d%s", number, SUFFIX)));
+      segments.put(number, segment);
+      return segment;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not create chat memory segment " + number, e);
+    }
+  }
+
+  private Segment mapSegment(int number, Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      long size = Math.max(channel.size(), segmentSize);
+      // The mapping stays valid after the channel is closed
+      return new Segment(number, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+  }
+
+  private static List<ChatMessage> readMessages(ByteBuffer buffer, int offset) {
+    int length = buffer.getInt(offset);
+    int rawLength = buffer.getInt(offset + 17);
+    int payloadStart = HEADER + buffer.getShort(offset + 21);
+    byte[] raw = inflate(buffer.slice(offset + payloadStart, length - payloadStart), rawLength);
+    return ChatMessageDeserializer.messagesFromJson(new String(raw, StandardCharsets.UTF_8));
+  }
+
+  private static String readId(ByteBuffer buffer, int offset) {
+    byte[] id = new byte[buffer.getShort(offset + 21)];
+    buffer.get(offset + HEADER, id);
+    return new String(id, StandardCharsets.UTF_8);
+  }
+
+  // Covers everything after the length and CRC fields
+  private static int crc(ByteBuffer buffer, int offset, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(buffer.slice(offset + 8, length - 8));
+    return (int) crc.getValue();
+  }
+
+  private static byte[] deflate(byte[] raw) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(raw);
+      deflater.finish();
+      byte[] out = new byte[raw.length + 64];
+      int length = 0;
+      while (!deflater.finished()) {
+        if (length == out.length) {
+          out = Arrays.copyOf(out, out.length * 2);
+        }
+        length += deflater.deflate(out, length, out.length - length);
+      }
+      return Arrays.copyOf(out, length);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] inflate(ByteBuffer payload, int rawLength) {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(payload);
+      byte[] raw = new byte[rawLength];
+      int length = 0;
+      while (length < rawLength && !inflater.finished()) {
+        length += inflater.inflate(raw, length, rawLength - length);
+      }
+      return raw;
+    } catch (DataFormatException e) {
+      throw new IllegalStateException("Corrupt chat memory record", e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  private static long location(int segment, int offset) {
+    return ((long) segment << 32) | (offset & 0xffffffffL);
+  }
+
+  private static int segmentOf(long location) {
+    return (int) (location >>> 32);
+  }
+
+  private static int offsetOf(long location) {
+    return (int) location;
+  }
+
+  private static final class Segment {
+    private final int number;
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final AtomicLong deadBytes = new AtomicLong();
+    // Written under the write lock or during recovery
+    private volatile int size;
+    private volatile long lastWrittenAt;
+
+    Segment(int number, Path path, MappedByteBuffer buffer) {
+      this.number = number;
+      this.path = path;
+      this.buffer = buffer;
+    }
+  }
+}
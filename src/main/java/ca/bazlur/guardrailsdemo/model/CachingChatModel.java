@@ -0,0 +1,161 @@
+package ca.bazlur.guardrailsdemo.model;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+// Answers from a ResponseCache where it can and from the wrapped model otherwise.
+//
+// The cache only applies inside turn(), which wraps one assistant call. The first model
+// request of a turn carries the user's question; any later request in the same turn is an
+// output guardrail retry or reprompt, so it always goes to the model. The output
+// guardrails run on cached answers exactly as on fresh ones: a cached answer they reject
+// is dropped from the cache, and the answer that finally passes is stored under the
+// original question when the turn completes. Requests with tools are never cached, and
+// neither are follow-up questions: an answer only depends on the question alone when the
+// session has no earlier messages.
+//
+// A turn that misses the cache while another turn is asking the model the same question
+// shares that request. The shared answer still goes through this turn's own output
+// guardrails, but only the turn that made the request stores it.
+@Slf4j
+public class CachingChatModel implements ChatModel {
+
+  private static final ThreadLocal<Turn> CURRENT_TURN = new ThreadLocal<>();
+
+  private final ChatModel delegate;
+  private final ResponseCache cache;
+
+  public CachingChatModel(ChatModel delegate, ResponseCache cache) {
+    this.delegate = delegate;
+    this.cache = cache;
+  }
+
+  // Runs one assistant call with the cache enabled for its model requests
+  public <T> T turn(Supplier<T> call) {
+    if (CURRENT_TURN.get() != null) {
+      return call.get();
+    }
+    Turn turn = new Turn();
+    CURRENT_TURN.set(turn);
+    boolean completed = false;
+    try {
+      T result = call.get();
+      completed = true;
+      return result;
+    } finally {
+      CURRENT_TURN.remove();
+      finish(turn, completed);
+    }
+  }
+
+  // Whether the request would be answered from the cache if it were sent now
+  public boolean isCached(ChatRequest request) {
+    String question = cacheableQuestion(request);
+    return question != null && cache.contains(context(request), question);
+  }
+
+  @Override
+  public ChatResponse doChat(ChatRequest request) {
+    Turn turn = CURRENT_TURN.get();
+    if (turn == null) {
+      return delegate.chat(request);
+    }
+
+    if (turn.modelRequests++ == 0) {
+      String question = cacheableQuestion(request);
+      if (question != null) {
+        turn.context = context(request);
+        turn.question = question;
+        turn.served = cache.lookup(turn.context, question);
+        if (turn.served != null) {
+          return turn.served.response();
+        }
+        return cache.coalesce(turn.context, question, () -> ask(turn, request));
+      }
+    } else if (turn.served != null) {
+      log.debug("Cached answer rejected by the output guardrails, asking the model");
+      cache.reject(turn.served);
+      turn.served = null;
+    }
+    return ask(turn, request);
+  }
+
+  @Override
+  public ChatRequestParameters defaultRequestParameters() {
+    return delegate.defaultRequestParameters();
+  }
+
+  @Override
+  public Set<Capability> supportedCapabilities() {
+    return delegate.supportedCapabilities();
+  }
+
+  private ChatResponse ask(Turn turn, ChatRequest request) {
+    long start = System.nanoTime();
+    ChatResponse response = delegate.chat(request);
+    turn.modelNanos += System.nanoTime() - start;
+    turn.answer = response;
+    return response;
+  }
+
+  private void finish(Turn turn, boolean completed) {
+    if (!completed) {
+      if (turn.served != null) {
+        cache.reject(turn.served);
+      }
+      return;
+    }
+    if (turn.question != null && turn.answer != null && turn.answer.aiMessage().text() != null
+        && !turn.answer.aiMessage().hasToolExecutionRequests()) {
+      cache.store(turn.context, turn.question, turn.answer, turn.modelNanos);
+    }
+  }
+
+  // The text of the final user message, if the request is a plain question that opens a conversation
+  private static String cacheableQuestion(ChatRequest request) {
+    List<ChatMessage> messages = request.messages();
+    if (messages.isEmpty() || !(messages.get(messages.size() - 1) instanceof UserMessage question)
+        || !question.hasSingleText()) {
+      return null;
+    }
+    for (ChatMessage message : messages.subList(0, messages.size() - 1)) {
+      if (!(message instanceof SystemMessage)) {
+        return null;
+      }
+    }
+    ChatRequestParameters parameters = request.parameters();
+    if (parameters != null && parameters.toolSpecifications() != null && !parameters.toolSpecifications().isEmpty()) {
+      return null;
+    }
+    return question.singleText();
+  }
+
+  // Answers are only shared between requests with the same system instructions
+  private static String context(ChatRequest request) {
+    return request.messages().stream()
+        .filter(SystemMessage.class::isInstance)
+        .map(message -> ((SystemMessage) message).text())
+        .collect(Collectors.joining("\n"));
+  }
+
+  private static final class Turn {
+    private int modelRequests;
+    private String context;
+    private String question;
+    private ResponseCache.Entry served;
+    private ChatResponse answer;
+    private long modelNanos;
+  }
+}
@@ -0,0 +1,177 @@
+package ca.bazlur.guardrailsdemo.model;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageDeserializer;
+import dev.langchain4j.data.message.ChatMessageSerializer;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.FinishReason;
+import dev.langchain4j.model.output.TokenUsage;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// A file of recorded model calls, written by RecordingChatModel and served back by
+// ReplayChatModel.
+//
+// Each record holds two request keys, the response and the time the provider took to give
+// it. The request key is a 128-bit SHA-256 prefix of the request's messages as JSON. The
+// question key is the same hash of the last user message alone. Keys take the place of the
+// prompts, so a recording holds the answers but not the conversation that led to them. The
+// response is kept as the JSON of its AiMessage, with the finish reason and token usage.
+//
+// Records are appended to a gzip stream. Every run that records adds a gzip member, and
+// reading decompresses them in sequence. Writes are buffered until the writer is closed. A
+// record cut off by a crash ends the file.
+@Slf4j
+public final class ChatRecording {
+
+  record Key(long high, long low) {
+  }
+
+  record Entry(Key request, Key question, ChatResponse response, long latencyNanos) {
+  }
+
+  private ChatRecording() {
+  }
+
+  static Key requestKey(ChatRequest request) {
+    return key(ChatMessageSerializer.messagesToJson(request.messages()));
+  }
+
+  // Null when the request has no user message
+  static Key questionKey(ChatRequest request) {
+    List<ChatMessage> messages = request.messages();
+    for (int i = messages.size() - 1; i >= 0; i--) {
+      if (messages.get(i) instanceof UserMessage userMessage) {
+        return key(ChatMessageSerializer.messageToJson(userMessage));
+      }
+    }
+    return null;
+  }
+
+  private static Key key(String text) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+      ByteBuffer buffer = ByteBuffer.wrap(digest);
+      return new Key(buffer.getLong(), buffer.getLong());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  static List<Entry> read(Path file) throws IOException {
+    List<Entry> entries = new ArrayList<>();
+    if (Files.size(file) == 0) {
+      return entries;
+    }
+    try (InputStream raw = Files.newInputStream(file);
+         DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(raw)))) {
+      while (true) {
+        long requestHigh;
+        try {
+          requestHigh = in.readLong();
+        } catch (EOFException e) {
+          break;
+        }
+        try {
+          entries.add(readEntry(requestHigh, in));
+        } catch (EOFException e) {
+          log.warn("Recording {} ends in a partial record after {} records", file, entries.size());
+          break;
+        }
+      }
+    }
+    return entries;
+  }
+
+  private static Entry readEntry(long requestHigh, DataInputStream in) throws IOException {
+    Key request = new Key(requestHigh, in.readLong());
+    Key question = in.readBoolean() ? new Key(in.readLong(), in.readLong()) : null;
+    long latencyNanos = in.readLong();
+    int inputTokens = in.readInt();
+    int outputTokens = in.readInt();
+    String finishReason = in.readUTF();
+    byte[] json = new byte[in.readInt()];
+    in.readFully(json);
+
+    AiMessage aiMessage = (AiMessage) ChatMessageDeserializer.messageFromJson(new String(json, StandardCharsets.UTF_8));
+    ChatResponse response = ChatResponse.builder()
+        .aiMessage(aiMessage)
+        .tokenUsage(inputTokens < 0 && outputTokens < 0 ? null
+            : new TokenUsage(inputTokens < 0 ? null : inputTokens, outputTokens < 0 ? null : outputTokens))
+        .finishReason(finishReason.isEmpty() ? null : FinishReason.valueOf(finishReason))
+        .build();
+    return new Entry(request, question, response, latencyNanos);
+  }
+
+  // Appends to a recording; shared by every caller of the recorded model
+  public static class Writer implements AutoCloseable {
+    private final Path file;
+    private final DataOutputStream out;
+    private int records;
+
+    public Writer(Path file) throws IOException {
+      if (file.getParent() != null) {
+        Files.createDirectories(file.getParent());
+      }
+      this.file = file;
+      this.out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(
+          Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND))));
+    }
+
+    synchronized void append(Entry entry) {
+      ChatResponse response = entry.response();
+      TokenUsage tokenUsage = response.tokenUsage();
+      byte[] json = ChatMessageSerializer.messageToJson(response.aiMessage()).getBytes(StandardCharsets.UTF_8);
+      try {
+        out.writeLong(entry.request().high());
+        out.writeLong(entry.request().low());
+        out.writeBoolean(entry.question() != null);
+        if (entry.question() != null) {
+          out.writeLong(entry.question().high());
+          out.writeLong(entry.question().low());
+        }
+        out.writeLong(entry.latencyNanos());
+        out.writeInt(tokenCount(tokenUsage == null ? null : tokenUsage.inputTokenCount()));
+        out.writeInt(tokenCount(tokenUsage == null ? null : tokenUsage.outputTokenCount()));
+        out.writeUTF(response.finishReason() == null ? "" : response.finishReason().name());
+        out.writeInt(json.length);
+        out.write(json);
+        records++;
+      } catch (IOException e) {
+        throw new UncheckedIOException("Could not write to recording " + file, e);
+      }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      out.close();
+      log.info("Recorded {} model calls to {}", records, file);
+    }
+
+    private static int tokenCount(Integer count) {
+      return count == null ? -1 : count;
+    }
+  }
+}
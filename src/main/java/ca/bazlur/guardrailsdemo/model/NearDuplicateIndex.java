@@ -0,0 +1,130 @@
+package ca.bazlur.guardrailsdemo.model;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Locality-sensitive index over normalized questions. A question is reduced to the set of
+// its character trigrams; 64 MinHash values of that set are split into 8 bands of 8 rows,
+// and two questions become candidates when any band matches exactly. The chance of that is
+// 1 - (1 - J^8)^8 for trigram Jaccard similarity J: about 0.99 at J = 0.9, 0.6 at J = 0.8
+// and 0.03 at J = 0.5. Candidates are confirmed against the exact Jaccard similarity, so
+// the bands only decide which entries get compared, never whether two questions match.
+final class NearDuplicateIndex<T> {
+  static final int HASHES = 64;
+  static final int BANDS = 8;
+  static final int ROWS = HASHES / BANDS;
+
+  private static final int[] SEEDS = new int[HASHES];
+
+  static {
+    int seed = 0x2545f491;
+    for (int i = 0; i < HASHES; i++) {
+      seed = mix(seed + 0x9e3779b9);
+      SEEDS[i] = seed;
+    }
+  }
+
+  // Sorted distinct trigram hashes and their MinHash values
+  record Signature(int[] shingles, int[] minHashes) {
+
+    double similarity(Signature other) {
+      int[] a = shingles;
+      int[] b = other.shingles;
+      int i = 0;
+      int j = 0;
+      int common = 0;
+      while (i < a.length && j < b.length) {
+        if (a[i] < b[j]) {
+          i++;
+        } else if (a[i] > b[j]) {
+          j++;
+        } else {
+          common++;
+          i++;
+          j++;
+        }
+      }
+      int union = a.length + b.length - common;
+      return union == 0 ? 1 : (double) common / union;
+    }
+  }
+
+  private final Map<Long, Set<T>> buckets = new ConcurrentHashMap<>();
+
+  static Signature signature(String normalized) {
+    String padded = " " + normalized + " ";
+    int[] shingles = new int[Math.max(1, padded.length() - 2)];
+    for (int i = 0; i < shingles.length; i++) {
+      int hash = 0;
+      for (int c = i; c < Math.min(i + 3, padded.length()); c++) {
+        hash = 31 * hash + padded.charAt(c);
+      }
+      shingles[i] = mix(hash);
+    }
+    Arrays.sort(shingles);
+    int distinct = 0;
+    for (int i = 0; i < shingles.length; i++) {
+      if (distinct == 0 || shingles[i] != shingles[distinct - 1]) {
+        shingles[distinct++] = shingles[i];
+      }
+    }
+    shingles = Arrays.copyOf(shingles, distinct);
+
+    int[] minHashes = new int[HASHES];
+    Arrays.fill(minHashes, Integer.MAX_VALUE);
+    for (int shingle : shingles) {
+      for (int h = 0; h < HASHES; h++) {
+        minHashes[h] = Math.min(minHashes[h], mix(shingle ^ SEEDS[h]));
+      }
+    }
+    return new Signature(shingles, minHashes);
+  }
+
+  void add(Signature signature, T value) {
+    for (int band = 0; band < BANDS; band++) {
+      buckets.computeIfAbsent(bandKey(signature, band), key -> ConcurrentHashMap.newKeySet()).add(value);
+    }
+  }
+
+  void remove(Signature signature, T value) {
+    for (int band = 0; band < BANDS; band++) {
+      buckets.computeIfPresent(bandKey(signature, band), (key, values) -> {
+        values.remove(value);
+        return values.isEmpty() ? null : values;
+      });
+    }
+  }
+
+  // Everything sharing at least one band with the signature
+  Set<T> candidates(Signature signature) {
+    Set<T> candidates = new HashSet<>();
+    for (int band = 0; band < BANDS; band++) {
+      Set<T> values = buckets.get(bandKey(signature, band));
+      if (values != null) {
+        candidates.addAll(values);
+      }
+    }
+    return candidates;
+  }
+
+  private static long bandKey(Signature signature, int band) {
+    int hash = 1;
+    for (int row = band * ROWS; row < (band + 1) * ROWS; row++) {
+      hash = 31 * hash + signature.minHashes()[row];
+    }
+    return ((long) band << 32) | (hash & 0xffffffffL);
+  }
+
+  // MurmurHash3 finalizer
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+}
@@ -0,0 +1,101 @@
+package ca.bazlur.guardrailsdemo.model;
+
+import dev.langchain4j.model.TokenCountEstimator;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Set;
+
+// Checks the size of every model request before it is sent. The prompt and the tokens
+// reserved for the completion must fit in the model's context window; a request that does
+// not is rejected locally instead of being billed and then truncated or refused by the
+// provider. The completion reserve is the request's max output tokens when it sets them,
+// and the configured completion limit otherwise.
+//
+// The token window memory and the input token limit keep ordinary prompts well inside the
+// budget, so this only trips on a misconfiguration or an unusually long system prompt.
+@Slf4j
+public class PromptBudget {
+
+  public static class PromptTooLargeException extends RuntimeException {
+    public PromptTooLargeException(String message) {
+      super(message);
+    }
+  }
+
+  private final TokenCountEstimator tokenCounter;
+  private final int contextWindow;
+  private final int completionTokens;
+
+  public PromptBudget(TokenCountEstimator tokenCounter, int contextWindow, int completionTokens) {
+    if (completionTokens >= contextWindow) {
+      throw new IllegalArgumentException("Completion tokens must leave room for a prompt in the context window");
+    }
+    this.tokenCounter = tokenCounter;
+    this.contextWindow = contextWindow;
+    this.completionTokens = completionTokens;
+  }
+
+  // Throws PromptTooLargeException when the request would overflow the context window
+  public void check(ChatRequest request) {
+    Integer maxOutputTokens = request.parameters().maxOutputTokens();
+    int reserved = maxOutputTokens != null ? maxOutputTokens : completionTokens;
+    int promptTokens = tokenCounter.estimateTokenCountInMessages(request.messages());
+    if (promptTokens + reserved > contextWindow) {
+      log.warn("Model request of {} prompt tokens rejected, {} of {} are left after the completion",
+          promptTokens, contextWindow - reserved, contextWindow);
+      throw new PromptTooLargeException("The conversation is too long for the model. Please start a new chat.");
+    }
+  }
+
+  public ChatModel guard(ChatModel delegate) {
+    return new ChatModel() {
+      @Override
+      public ChatResponse doChat(ChatRequest request) {
+        check(request);
+        return delegate.chat(request);
+      }
+
+      @Override
+      public ChatRequestParameters defaultRequestParameters() {
+        return delegate.defaultRequestParameters();
+      }
+
+      @Override
+      public Set<Capability> supportedCapabilities() {
+        return delegate.supportedCapabilities();
+      }
+    };
+  }
+
+  public StreamingChatModel guard(StreamingChatModel delegate) {
+    return new StreamingChatModel() {
+      @Override
+      public void doChat(ChatRequest request, StreamingChatResponseHandler handler) {
+        try {
+          check(request);
+        } catch (PromptTooLargeException e) {
+          handler.onError(e);
+          return;
+        }
+        delegate.chat(request, handler);
+      }
+
+      @Override
+      public ChatRequestParameters defaultRequestParameters() {
+        return delegate.defaultRequestParameters();
+      }
+
+      @Override
+      public Set<Capability> supportedCapabilities() {
+        return delegate.supportedCapabilities();
+      }
+    };
+  }
+}
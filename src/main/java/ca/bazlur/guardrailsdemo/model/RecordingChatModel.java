@@ -0,0 +1,42 @@
+package ca.bazlur.guardrailsdemo.model;
+
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+
+import java.util.Set;
+
+// Passes every request to the wrapped model and records it with its response and latency,
+// so that ReplayChatModel can serve the same answers later. Failed calls are not recorded.
+public class RecordingChatModel implements ChatModel {
+
+  private final ChatModel delegate;
+  private final ChatRecording.Writer recording;
+
+  public RecordingChatModel(ChatModel delegate, ChatRecording.Writer recording) {
+    this.delegate = delegate;
+    this.recording = recording;
+  }
+
+  @Override
+  public ChatResponse doChat(ChatRequest request) {
+    long start = System.nanoTime();
+    ChatResponse response = delegate.chat(request);
+    long latencyNanos = System.nanoTime() - start;
+    recording.append(new ChatRecording.Entry(ChatRecording.requestKey(request), ChatRecording.questionKey(request),
+        response, latencyNanos));
+    return response;
+  }
+
+  @Override
+  public ChatRequestParameters defaultRequestParameters() {
+    return delegate.defaultRequestParameters();
+  }
+
+  @Override
+  public Set<Capability> supportedCapabilities() {
+    return delegate.supportedCapabilities();
+  }
+}
@@ -0,0 +1,136 @@
+package ca.bazlur.guardrailsdemo.model;
+
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Answers from a recording made by RecordingChatModel, after the latency observed when it
+// was recorded, so that a build can be run through the same model answers as another.
+//
+// A request is matched by its messages first. If none match, because a prompt changed in
+// between, it is matched by its last user message, which a reprompt makes distinct from the
+// question it follows. When the same request was recorded more than once, the responses are
+// served in recorded order and the last one is repeated. A request that matches nothing
+// fails with ReplayMissException.
+//
+// Latencies are multiplied by latencyScale, so 0 answers at once. The calling thread sleeps
+// for the latency, and an interrupt aborts the call.
+@Slf4j
+public class ReplayChatModel implements ChatModel {
+
+  public static class ReplayMissException extends RuntimeException {
+    public ReplayMissException(String message) {
+      super(message);
+    }
+  }
+
+  private final Map<ChatRecording.Key, Responses> byRequest = new HashMap<>();
+  private final Map<ChatRecording.Key, Responses> byQuestion = new HashMap<>();
+  private final double latencyScale;
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong questionMatches = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public ReplayChatModel(Path recording, double latencyScale) throws IOException {
+    if (latencyScale < 0) {
+      throw new IllegalArgumentException("Latency scale must not be negative");
+    }
+    this.latencyScale = latencyScale;
+    List<ChatRecording.Entry> entries = ChatRecording.read(recording);
+    for (ChatRecording.Entry entry : entries) {
+      byRequest.computeIfAbsent(entry.request(), key -> new Responses()).entries.add(entry);
+      if (entry.question() != null) {
+        byQuestion.computeIfAbsent(entry.question(), key -> new Responses()).entries.add(entry);
+      }
+    }
+    log.info("Replaying {} model calls from {}", entries.size(), recording);
+  }
+
+  @Override
+  public ChatResponse doChat(ChatRequest request) {
+    ChatRecording.Entry entry = find(request);
+    sleep((long) (entry.latencyNanos() * latencyScale));
+    return entry.response();
+  }
+
+  // The recorded answer as a single partial response, after the recorded latency
+  public StreamingChatModel streaming() {
+    return new StreamingChatModel() {
+      @Override
+      public void doChat(ChatRequest request, StreamingChatResponseHandler handler) {
+        Thread.ofVirtual().name("replay-model-stream").start(() -> {
+          try {
+            ChatResponse response = ReplayChatModel.this.doChat(request);
+            handler.onPartialResponse(response.aiMessage().text());
+            handler.onCompleteResponse(response);
+          } catch (RuntimeException e) {
+            handler.onError(e);
+          }
+        });
+      }
+    };
+  }
+
+  public long calls() {
+    return calls.get();
+  }
+
+  // Requests matched by their last user message only
+  public long questionMatches() {
+    return questionMatches.get();
+  }
+
+  public long misses() {
+    return misses.get();
+  }
+
+  private ChatRecording.Entry find(ChatRequest request) {
+    calls.incrementAndGet();
+    Responses responses = byRequest.get(ChatRecording.requestKey(request));
+    if (responses == null) {
+      ChatRecording.Key question = ChatRecording.questionKey(request);
+      responses = question == null ? null : byQuestion.get(question);
+      if (responses == null) {
+        misses.incrementAndGet();
+        throw new ReplayMissException("No recorded response for this request");
+      }
+      questionMatches.incrementAndGet();
+    }
+    return responses.next();
+  }
+
+  private static void sleep(long nanos) {
+    if (nanos <= 0) {
+      return;
+    }
+    try {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while replaying a model response", e);
+    }
+  }
+
+  private static final class Responses {
+    private final List<ChatRecording.Entry> entries = new ArrayList<>();
+    private final AtomicInteger served = new AtomicInteger();
+
+    ChatRecording.Entry next() {
+      int index = served.getAndUpdate(count -> Math.min(count + 1, entries.size()));
+      return entries.get(Math.min(index, entries.size() - 1));
+    }
+  }
+}
@@ -0,0 +1,275 @@
+package ca.bazlur.guardrailsdemo.model;
+
+import ca.bazlur.guardrailsdemo.guardrail.BoundedCache;
+import ca.bazlur.guardrailsdemo.guardrail.ExpiryScheduler;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+// Model answers by question, so that frequently asked questions are only sent to the model
+// once per TTL. A question matches an entry when its normalized text is identical (lower
+// case, punctuation dropped, whitespace collapsed) or, failing that, when its character
+// trigrams overlap the entry's by at least the similarity threshold, as found through
+// NearDuplicateIndex. A threshold of 1 turns near-duplicate matching off.
+//
+// Words with a digit or an @, such as order numbers and e-mail addresses, must match
+// exactly for a near-duplicate hit: questions that differ only in an order number are
+// nearly identical trigram for trigram, but the answer to one may quote the other
+// customer's order.
+//
+// Entries are evicted by BoundedCache when the cache is full or unused for the TTL, and are
+// never served once they are older than the TTL. Only answers that passed the output
+// guardrails are stored; see CachingChatModel.
+//
+// Questions that miss the cache while the same question is already with the model wait for
+// that answer instead of asking again, so a burst of identical questions costs one call.
+@Component
+public class ResponseCache {
+
+  record Key(String context, String question) {
+  }
+
+  // Compared by identity, so the index can tell a replaced entry from its successor
+  static final class Entry {
+    private final Key key;
+    private final NearDuplicateIndex.Signature signature;
+    private final String identifiers;
+    private final ChatResponse response;
+    private final long modelNanos;
+    private final long storedAt;
+
+    Entry(Key key, NearDuplicateIndex.Signature signature, String identifiers, ChatResponse response,
+          long modelNanos, long storedAt) {
+      this.key = key;
+      this.signature = signature;
+      this.identifiers = identifiers;
+      this.response = response;
+      this.modelNanos = modelNanos;
+      this.storedAt = storedAt;
+    }
+
+    Key key() {
+      return key;
+    }
+
+    NearDuplicateIndex.Signature signature() {
+      return signature;
+    }
+
+    String identifiers() {
+      return identifiers;
+    }
+
+    ChatResponse response() {
+      return response;
+    }
+
+    long modelNanos() {
+      return modelNanos;
+    }
+
+    long storedAt() {
+      return storedAt;
+    }
+  }
+
+  private final BoundedCache<Key, Entry> entries;
+  private final NearDuplicateIndex<Entry> nearDuplicates = new NearDuplicateIndex<>();
+  private final SingleFlight<Key, ChatResponse> inFlight = new SingleFlight<>();
+  private final long ttlNanos;
+  private final double similarityThreshold;
+
+  private final Counter exactHits;
+  private final Counter nearHits;
+  private final Counter misses;
+  private final Counter rejected;
+  private final Counter coalesced;
+  private final Counter latencySaved;
+
+  public ResponseCache(@Value("${app.response-cache.max-entries:1000}") int maxEntries,
+                       @Value("${app.response-cache.ttl:1h}") Duration ttl,
+                       @Value("${app.response-cache.similarity-threshold:0.9}") double similarityThreshold,
+                       ExpiryScheduler expiryScheduler,
+                       MeterRegistry meterRegistry) {
+    if (similarityThreshold <= 0 || similarityThreshold > 1) {
+      throw new IllegalArgumentException("Similarity threshold must be in (0, 1]");
+    }
+    this.ttlNanos = ttl.toNanos();
+    this.similarityThreshold = similarityThreshold;
+    this.entries = new BoundedCache<>(maxEntries, ttlNanos, expiryScheduler,
+        (key, entry) -> nearDuplicates.remove(entry.signature(), entry));
+
+    this.exactHits = lookups(meterRegistry, "hit");
+    this.nearHits = lookups(meterRegistry, "near-hit");
+    this.misses = lookups(meterRegistry, "miss");
+    this.rejected = Counter.builder("chat.response.cache.rejected")
+        .description("Cached answers that failed the output guardrails and were dropped")
+        .register(meterRegistry);
+    this.coalesced = Counter.builder("chat.response.cache.coalesced")
+        .description("Questions answered by an identical model request that was already in flight")
+        .register(meterRegistry);
+    this.latencySaved = Counter.builder("chat.response.cache.latency.saved")
+        .description("Model latency avoided by answering from the cache")
+        .baseUnit("seconds")
+        .register(meterRegistry);
+    Gauge.builder("chat.response.cache.hit.ratio", this, ResponseCache::hitRatio)
+        .description("Share of cacheable questions answered from the cache")
+        .register(meterRegistry);
+    Gauge.builder("chat.response.cache.size", entries, cache -> cache.stats().size())
+        .register(meterRegistry);
+    Gauge.builder("chat.response.cache.in.flight", inFlight, SingleFlight::inFlight)
+        .description("Distinct questions currently with the model")
+        .register(meterRegistry);
+  }
+
+  // Returns a live entry for the question, or null
+  Entry lookup(String context, String question) {
+    String normalized = normalize(question);
+    if (normalized.isEmpty()) {
+      return null;
+    }
+    long now = System.nanoTime();
+    Entry entry = entries.getIfPresent(new Key(context, normalized), now);
+    if (isFresh(entry, now)) {
+      return hit(exactHits, entry);
+    }
+
+    Entry best = nearest(context, normalized, identifiers(question), now);
+    // Counts as a use of the entry, unless it has just been evicted
+    if (best != null && entries.getIfPresent(best.key(), now) == best) {
+      return hit(nearHits, best);
+    }
+
+    misses.increment();
+    return null;
+  }
+
+  // Whether lookup would answer the question now. Neither the metrics nor the eviction
+  // order are touched, since the question has not actually been asked yet.
+  boolean contains(String context, String question) {
+    String normalized = normalize(question);
+    if (normalized.isEmpty()) {
+      return false;
+    }
+    long now = System.nanoTime();
+    return isFresh(entries.peek(new Key(context, normalized)), now) || nearest(context, normalized, identifiers(question), now) != null;
+  }
+
+  // Runs modelCall, or waits for the identical question that is already being asked
+  ChatResponse coalesce(String context, String question, Supplier<ChatResponse> modelCall) {
+    String normalized = normalize(question);
+    if (normalized.isEmpty()) {
+      return modelCall.get();
+    }
+    return inFlight.execute(new Key(context, normalized), modelCall, coalesced::increment);
+  }
+
+  synchronized void store(String context, String question, ChatResponse response, long modelNanos) {
+    String normalized = normalize(question);
+    if (normalized.isEmpty()) {
+      return;
+    }
+    Key key = new Key(context, normalized);
+    Entry entry = new Entry(key, NearDuplicateIndex.signature(normalized), identifiers(question), response, modelNanos,
+        System.nanoTime());
+    // Indexed first: if the cache turns the entry away, its removal listener unindexes it
+    nearDuplicates.add(entry.signature(), entry);
+    entries.invalidate(key);
+    entries.put(key, entry, entry.storedAt());
+  }
+
+  // The entry's answer was served and then rejected by the output guardrails
+  void reject(Entry entry) {
+    entries.invalidate(entry.key());
+    rejected.increment();
+  }
+
+  public BoundedCache.Stats stats() {
+    return entries.stats();
+  }
+
+  // Lower case letters and digits, one space between words
+  static String normalize(String text) {
+    StringBuilder normalized = new StringBuilder(text.length());
+    boolean pendingSpace = false;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (Character.isLetterOrDigit(c)) {
+        if (pendingSpace && !normalized.isEmpty()) {
+          normalized.append(' ');
+        }
+        normalized.append(Character.toLowerCase(c));
+        pendingSpace = false;
+      } else if (Character.isWhitespace(c)) {
+        pendingSpace = true;
+      }
+    }
+    return normalized.toString();
+  }
+
+  // The normalized words of the text that contain a digit or an @, in order
+  static String identifiers(String text) {
+    StringBuilder identifiers = new StringBuilder();
+    for (String word : text.split("\\s+")) {
+      if (word.indexOf('@') >= 0 || word.chars().anyMatch(Character::isDigit)) {
+        if (!identifiers.isEmpty()) {
+          identifiers.append(' ');
+        }
+        identifiers.append(normalize(word));
+      }
+    }
+    return identifiers.toString();
+  }
+
+  // The live entry most similar to the question, if any reaches the threshold and has the
+  // same identifiers
+  private Entry nearest(String context, String normalized, String identifiers, long now) {
+    if (similarityThreshold >= 1) {
+      return null;
+    }
+    NearDuplicateIndex.Signature signature = NearDuplicateIndex.signature(normalized);
+    Entry best = null;
+    double bestSimilarity = similarityThreshold;
+    for (Entry candidate : nearDuplicates.candidates(signature)) {
+      if (!candidate.key().context().equals(context) || !candidate.identifiers().equals(identifiers)
+          || !isFresh(candidate, now)) {
+        continue;
+      }
+      double similarity = candidate.signature().similarity(signature);
+      if (similarity >= bestSimilarity) {
+        best = candidate;
+        bestSimilarity = similarity;
+      }
+    }
+    return best;
+  }
+
+  private boolean isFresh(Entry entry, long now) {
+    return entry != null && now - entry.storedAt() < ttlNanos;
+  }
+
+  private Entry hit(Counter counter, Entry entry) {
+    counter.increment();
+    latencySaved.increment(entry.modelNanos() / 1e9);
+    return entry;
+  }
+
+  private double hitRatio() {
+    double hits = exactHits.count() + nearHits.count();
+    double total = hits + misses.count();
+    return total == 0 ? 0 : hits / total;
+  }
+
+  private static Counter lookups(MeterRegistry meterRegistry, String result) {
+    return Counter.builder("chat.response.cache.lookups")
+        .description("Response cache lookups by outcome")
+        .tag("result", result)
+        .register(meterRegistry);
+  }
+}
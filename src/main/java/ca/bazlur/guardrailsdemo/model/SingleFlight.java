@@ -0,0 +1,97 @@
+package ca.bazlur.guardrailsdemo.model;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+// Collapses concurrent calls for the same key into one. The first caller runs the call;
+// callers that arrive while it is in flight wait for it and get the same result, or the
+// same exception. The key is released as soon as the call finishes, so nothing is cached.
+//
+// The call runs on the first caller's thread. If that caller is interrupted, because its
+// client went away or timed out, the callers waiting on it are not failed with it: one of
+// them runs the call again and the rest wait for that one.
+final class SingleFlight<K, V> {
+
+  // Completes the flight of an interrupted leader, so that its waiters ask again
+  private static final class LeaderInterruptedException extends RuntimeException {
+    LeaderInterruptedException() {
+      super(null, null, false, false);
+    }
+  }
+
+  private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+  // Returns the result of call, or of the identical call already in flight. onShared runs
+  // on callers that did not run call themselves, before they start waiting.
+  V execute(K key, Supplier<V> call, Runnable onShared) {
+    boolean shared = false;
+    while (true) {
+      CompletableFuture<V> flight = new CompletableFuture<>();
+      CompletableFuture<V> leader = inFlight.putIfAbsent(key, flight);
+      if (leader == null) {
+        return lead(key, flight, call);
+      }
+      if (!shared) {
+        onShared.run();
+        shared = true;
+      }
+      try {
+        return await(leader);
+      } catch (LeaderInterruptedException e) {
+        // The leader's caller went away; ask again
+      }
+    }
+  }
+
+  int inFlight() {
+    return inFlight.size();
+  }
+
+  // Released before the flight completes, so that a waiter asking again starts a new one
+  private V lead(K key, CompletableFuture<V> flight, Supplier<V> call) {
+    V result;
+    try {
+      result = call.get();
+    } catch (RuntimeException | Error e) {
+      inFlight.remove(key, flight);
+      flight.completeExceptionally(interrupted(e) ? new LeaderInterruptedException() : e);
+      throw e;
+    }
+    inFlight.remove(key, flight);
+    flight.complete(result);
+    return result;
+  }
+
+  private static boolean interrupted(Throwable failure) {
+    if (Thread.currentThread().isInterrupted()) {
+      return true;
+    }
+    for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+      if (cause instanceof InterruptedException || cause instanceof InterruptedIOException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static <V> V await(CompletableFuture<V> leader) {
+    try {
+      return leader.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for an identical model request", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtime) {
+        throw runtime;
+      }
+      if (e.getCause() instanceof Error error) {
+        throw error;
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+}
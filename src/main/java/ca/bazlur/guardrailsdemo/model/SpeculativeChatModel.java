@@ -0,0 +1,216 @@
+package ca.bazlur.guardrailsdemo.model;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.TokenUsage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+// Sends the model request for a question while the input guardrails are still checking it.
+//
+// speculate() is given the request the assistant is expected to make and dispatches it at
+// once. The assistant's first model request is then compared with that prediction. If the
+// messages and parameters are identical it gets the speculative response. Otherwise an
+// input guardrail rewrote the question, or the chat memory changed in the meantime, so the
+// speculative request is discarded and the real one is sent. If the call ends without a
+// model request because an input guardrail failed, the speculative request is cancelled by
+// interrupting its thread, which abandons the HTTP exchange.
+//
+// Questions the rate limiter is about to reject are not speculated on at all: skip() runs
+// the call as usual and counts it under the throttled outcome.
+//
+// Discarded requests are counted in chat.speculative.wasted.tokens. A response that had
+// already arrived counts the usage the provider reported; a cancelled request counts an
+// estimate of its prompt at four characters per token.
+@Slf4j
+public class SpeculativeChatModel implements ChatModel {
+
+  private static final ThreadLocal<Speculation> CURRENT = new ThreadLocal<>();
+  private static final int CHARACTERS_PER_TOKEN = 4;
+
+  private final ChatModel delegate;
+  private final ExecutorService executor;
+
+  private final Counter used;
+  private final Counter redispatched;
+  private final Counter cancelled;
+  private final Counter throttled;
+  private final Counter reportedWaste;
+  private final Counter estimatedWaste;
+  private final Counter latencySaved;
+
+  public SpeculativeChatModel(ChatModel delegate, MeterRegistry meterRegistry) {
+    this(delegate, meterRegistry, Executors.newVirtualThreadPerTaskExecutor());
+  }
+
+  SpeculativeChatModel(ChatModel delegate, MeterRegistry meterRegistry, ExecutorService executor) {
+    this.delegate = delegate;
+    this.executor = executor;
+    this.used = requests(meterRegistry, "used");
+    this.redispatched = requests(meterRegistry, "redispatched");
+    this.cancelled = requests(meterRegistry, "cancelled");
+    this.throttled = requests(meterRegistry, "throttled");
+    this.reportedWaste = wastedTokens(meterRegistry, "reported");
+    this.estimatedWaste = wastedTokens(meterRegistry, "estimated");
+    this.latencySaved = Counter.builder("chat.speculative.latency.saved")
+        .description("Model latency overlapped with input guardrail evaluation")
+        .baseUnit("seconds")
+        .register(meterRegistry);
+  }
+
+  // Runs one assistant call with the predicted request already on its way to the model.
+  // Without a prediction the call runs as usual.
+  public <T> T speculate(ChatRequest predicted, Supplier<T> call) {
+    if (predicted == null || CURRENT.get() != null) {
+      return call.get();
+    }
+    Speculation speculation = new Speculation(predicted,
+        delegate.defaultRequestParameters().overrideWith(predicted.parameters()));
+    speculation.response = executor.submit(() -> {
+      ChatResponse response = delegate.chat(predicted);
+      speculation.completedAt = System.nanoTime();
+      return response;
+    });
+    CURRENT.set(speculation);
+    try {
+      return call.get();
+    } finally {
+      CURRENT.remove();
+      if (!speculation.claimed) {
+        cancelled.increment();
+        discard(speculation);
+      }
+    }
+  }
+
+  // Runs one assistant call that the rate limiter will reject, without a speculative request
+  public <T> T skip(Supplier<T> call) {
+    throttled.increment();
+    return call.get();
+  }
+
+  @Override
+  public ChatResponse doChat(ChatRequest request) {
+    Speculation speculation = CURRENT.get();
+    if (speculation == null || speculation.claimed) {
+      return delegate.chat(request);
+    }
+    speculation.claimed = true;
+
+    if (request.messages().equals(speculation.request.messages())
+        && request.parameters().equals(speculation.parameters)) {
+      used.increment();
+      long completedAt = speculation.completedAt;
+      long overlapEnd = completedAt != 0 ? completedAt : System.nanoTime();
+      latencySaved.increment((overlapEnd - speculation.startedAt) / 1e9);
+      return await(speculation.response);
+    }
+
+    log.debug("Model request differs from the speculative one, sending it again");
+    redispatched.increment();
+    discard(speculation);
+    return delegate.chat(request);
+  }
+
+  @Override
+  public ChatRequestParameters defaultRequestParameters() {
+    return delegate.defaultRequestParameters();
+  }
+
+  @Override
+  public Set<Capability> supportedCapabilities() {
+    return delegate.supportedCapabilities();
+  }
+
+  private void discard(Speculation speculation) {
+    if (speculation.response.cancel(true)) {
+      estimatedWaste.increment(estimatePromptTokens(speculation.request));
+      return;
+    }
+    // Finished before it could be cancelled, so the whole exchange was billed
+    if (speculation.response.state() == Future.State.SUCCESS) {
+      TokenUsage usage = speculation.response.resultNow().tokenUsage();
+      if (usage != null && usage.totalTokenCount() != null) {
+        reportedWaste.increment(usage.totalTokenCount());
+      }
+    }
+  }
+
+  private static long estimatePromptTokens(ChatRequest request) {
+    long characters = 0;
+    for (ChatMessage message : request.messages()) {
+      String text = switch (message) {
+        case SystemMessage system -> system.text();
+        case UserMessage user when user.hasSingleText() -> user.singleText();
+        case AiMessage ai -> ai.text();
+        default -> null;
+      };
+      if (text != null) {
+        characters += text.length();
+      }
+    }
+    return (characters + CHARACTERS_PER_TOKEN - 1) / CHARACTERS_PER_TOKEN;
+  }
+
+  private static ChatResponse await(Future<ChatResponse> response) {
+    try {
+      return response.get();
+    } catch (InterruptedException e) {
+      response.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the speculative model request", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtime) {
+        throw runtime;
+      }
+      if (e.getCause() instanceof Error error) {
+        throw error;
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private static Counter requests(MeterRegistry meterRegistry, String outcome) {
+    return Counter.builder("chat.speculative.requests")
+        .description("Speculative model requests by outcome")
+        .tag("outcome", outcome)
+        .register(meterRegistry);
+  }
+
+  private static Counter wastedTokens(MeterRegistry meterRegistry, String source) {
+    return Counter.builder("chat.speculative.wasted.tokens")
+        .description("Tokens spent on speculative model requests that were thrown away")
+        .baseUnit("tokens")
+        .tag("source", source)
+        .register(meterRegistry);
+  }
+
+  private static final class Speculation {
+    private final ChatRequest request;
+    private final ChatRequestParameters parameters;
+    private final long startedAt = System.nanoTime();
+    private Future<ChatResponse> response;
+    private volatile long completedAt;
+    private boolean claimed;
+
+    Speculation(ChatRequest request, ChatRequestParameters parameters) {
+      this.request = request;
+      this.parameters = parameters;
+    }
+  }
+}
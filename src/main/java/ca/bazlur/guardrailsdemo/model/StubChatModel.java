@@ -0,0 +1,179 @@
+package ca.bazlur.guardrailsdemo.model;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.TokenCountEstimator;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import dev.langchain4j.model.output.FinishReason;
+import dev.langchain4j.model.output.TokenUsage;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A local stand-in for the provider, for load tests that should cost nothing and not be
+// throttled. Each answer is one of the templates, picked at random, with {question}
+// replaced by the user's last message, so some templates can be made to trip the output
+// guardrails and exercise reprompts.
+//
+// An answer takes a first-token latency drawn from the configured distribution, whose
+// median is firstTokenLatency, plus its length in tokens at tokensPerSecond. The calling
+// thread sleeps through both, as it would block on the provider's HTTP response, and an
+// interrupt aborts the call. A fraction errorRate of the calls fails with
+// InjectedFailureException once the first-token latency has passed.
+public class StubChatModel implements ChatModel {
+
+  public enum LatencyDistribution {
+    FIXED,
+    // Spread evenly over firstTokenLatency * (1 +- spread)
+    UNIFORM,
+    EXPONENTIAL,
+    // Log-normal with sigma spread: a long right tail, as provider latencies have
+    LOGNORMAL
+  }
+
+  public static class InjectedFailureException extends RuntimeException {
+    public InjectedFailureException(String message) {
+      super(message);
+    }
+  }
+
+  private final long firstTokenNanos;
+  private final LatencyDistribution distribution;
+  private final double spread;
+  private final double tokensPerSecond;
+  private final double errorRate;
+  private final List<String> templates;
+  private final TokenCountEstimator tokenCounter;
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+
+  public StubChatModel(Duration firstTokenLatency, LatencyDistribution distribution, double spread,
+                       double tokensPerSecond, double errorRate, List<String> templates,
+                       TokenCountEstimator tokenCounter) {
+    if (tokensPerSecond <= 0) {
+      throw new IllegalArgumentException("Tokens per second must be positive");
+    }
+    if (errorRate < 0 || errorRate > 1) {
+      throw new IllegalArgumentException("Error rate must be between 0 and 1");
+    }
+    if (templates.isEmpty()) {
+      throw new IllegalArgumentException("At least one response template is required");
+    }
+    this.firstTokenNanos = firstTokenLatency.toNanos();
+    this.distribution = distribution;
+    this.spread = spread;
+    this.tokensPerSecond = tokensPerSecond;
+    this.errorRate = errorRate;
+    this.templates = List.copyOf(templates);
+    this.tokenCounter = tokenCounter;
+  }
+
+  @Override
+  public ChatResponse doChat(ChatRequest request) {
+    Answer answer = answer(request);
+    sleep(answer.firstTokenNanos());
+    if (answer.fails()) {
+      throw failure();
+    }
+    sleep(answer.generationNanos());
+    return answer.response();
+  }
+
+  // The same answers, delivered a word at a time on a virtual thread
+  public StreamingChatModel streaming() {
+    return new StreamingChatModel() {
+      @Override
+      public void doChat(ChatRequest request, StreamingChatResponseHandler handler) {
+        Answer answer = answer(request);
+        Thread.ofVirtual().name("stub-model-stream").start(() -> {
+          try {
+            sleep(answer.firstTokenNanos());
+            if (answer.fails()) {
+              throw failure();
+            }
+            String[] words = answer.response().aiMessage().text().split("(?<= )");
+            long perWord = answer.generationNanos() / words.length;
+            for (String word : words) {
+              handler.onPartialResponse(word);
+              sleep(perWord);
+            }
+            handler.onCompleteResponse(answer.response());
+          } catch (RuntimeException e) {
+            handler.onError(e);
+          }
+        });
+      }
+    };
+  }
+
+  public long calls() {
+    return calls.get();
+  }
+
+  public long failures() {
+    return failures.get();
+  }
+
+  private Answer answer(ChatRequest request) {
+    calls.incrementAndGet();
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    String text = templates.get(random.nextInt(templates.size())).replace("{question}", lastQuestion(request));
+    int inputTokens = tokenCounter.estimateTokenCountInMessages(request.messages());
+    int outputTokens = tokenCounter.estimateTokenCountInText(text);
+    ChatResponse response = ChatResponse.builder()
+        .aiMessage(AiMessage.from(text))
+        .tokenUsage(new TokenUsage(inputTokens, outputTokens))
+        .finishReason(FinishReason.STOP)
+        .build();
+    return new Answer(response, firstTokenNanos(random), (long) (outputTokens / tokensPerSecond * 1e9),
+        random.nextDouble() < errorRate);
+  }
+
+  private long firstTokenNanos(ThreadLocalRandom random) {
+    double latency = switch (distribution) {
+      case FIXED -> firstTokenNanos;
+      case UNIFORM -> firstTokenNanos * (1 + spread * (2 * random.nextDouble() - 1));
+      case EXPONENTIAL -> -firstTokenNanos * Math.log(1 - random.nextDouble()) / Math.log(2);
+      case LOGNORMAL -> firstTokenNanos * Math.exp(spread * random.nextGaussian());
+    };
+    return Math.max(0, (long) latency);
+  }
+
+  private InjectedFailureException failure() {
+    failures.incrementAndGet();
+    return new InjectedFailureException("Injected model failure");
+  }
+
+  private static String lastQuestion(ChatRequest request) {
+    List<ChatMessage> messages = request.messages();
+    for (int i = messages.size() - 1; i >= 0; i--) {
+      if (messages.get(i) instanceof UserMessage userMessage && userMessage.hasSingleText()) {
+        return userMessage.singleText();
+      }
+    }
+    return "";
+  }
+
+  private static void sleep(long nanos) {
+    if (nanos <= 0) {
+      return;
+    }
+    try {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the stub model", e);
+    }
+  }
+
+  private record Answer(ChatResponse response, long firstTokenNanos, long generationNanos, boolean fails) {
+  }
+}
@@ -0,0 +1,75 @@
+package ca.bazlur.guardrailsdemo.model;
+
+import ca.bazlur.guardrailsdemo.guardrail.BoundedCache;
+import ca.bazlur.guardrailsdemo.guardrail.ExpiryScheduler;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.TokenCountEstimator;
+import dev.langchain4j.model.openai.OpenAiTokenCountEstimator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+
+// Counts model tokens in process with the model's own BPE encoding, so limits are measured in
+// what the provider bills and truncates by rather than in characters.
+//
+// A token window re-counts every message it holds each time it is read or extended, and
+// the same history is read on every turn of a conversation. Message counts are therefore
+// cached by message content: a turn only encodes the messages it adds, and the cached
+// counts are the same the encoder would return. Free text, such as a new question, is
+// encoded each time.
+@Component
+public class TokenCounter implements TokenCountEstimator {
+
+  private static final int MAX_CACHED_MESSAGES = 10_000;
+  private static final Duration CACHE_IDLE_TIMEOUT = Duration.ofMinutes(30);
+
+  private final TokenCountEstimator encoder;
+  private final BoundedCache<ChatMessage, Integer> messageCounts;
+  // What the encoder adds to a list of messages on top of the messages themselves
+  private final int replyPriming;
+
+  @Autowired
+  public TokenCounter(@Value("${langchain4j.open-ai.chat-model.model-name}") String modelName,
+                      ExpiryScheduler expiryScheduler) {
+    this(new OpenAiTokenCountEstimator(modelName), expiryScheduler);
+  }
+
+  public TokenCounter(TokenCountEstimator encoder, ExpiryScheduler expiryScheduler) {
+    this.encoder = encoder;
+    this.messageCounts = new BoundedCache<>(MAX_CACHED_MESSAGES, CACHE_IDLE_TIMEOUT.toNanos(), expiryScheduler);
+    this.replyPriming = encoder.estimateTokenCountInMessages(List.of());
+  }
+
+  @Override
+  public int estimateTokenCountInText(String text) {
+    return encoder.estimateTokenCountInText(text);
+  }
+
+  @Override
+  public int estimateTokenCountInMessage(ChatMessage message) {
+    long now = System.nanoTime();
+    Integer count = messageCounts.getIfPresent(message, now);
+    if (count == null) {
+      // Encoded outside the cache lock; a concurrent miss just encodes the message twice
+      count = encoder.estimateTokenCountInMessage(message);
+      messageCounts.put(message, count, now);
+    }
+    return count;
+  }
+
+  @Override
+  public int estimateTokenCountInMessages(Iterable<ChatMessage> messages) {
+    int count = replyPriming;
+    for (ChatMessage message : messages) {
+      count += estimateTokenCountInMessage(message);
+    }
+    return count;
+  }
+
+  public BoundedCache.Stats stats() {
+    return messageCounts.stats();
+  }
+}
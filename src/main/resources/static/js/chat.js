@@ -2,6 +2,7 @@ class ChatApp {
     constructor() {
         this.messageCount = 0;
         this.guardrailCount = 0;
+        this.sessionId = this.loadSessionId();
         this.init();
     }
 
@@ -10,6 +11,34 @@ class ChatApp {
         this.updateStats();
     }
 
+    // One conversation per browser tab; the server keeps its chat memory under this ID.
+    // IDs are issued by the server on the first message; without one the server falls back
+    // to the cookie session.
+    loadSessionId() {
+        return sessionStorage.getItem('chatSessionId');
+    }
+
+    async ensureSessionId() {
+        if (this.sessionId) {
+            return;
+        }
+        try {
+            const response = await fetch('/api/support/sessions', { method: 'POST' });
+            if (response.ok) {
+                this.sessionId = (await response.json()).sessionId;
+                sessionStorage.setItem('chatSessionId', this.sessionId);
+            }
+        } catch (e) {
+            // Keep using the cookie session
+        }
+    }
+
+    // The server no longer accepts the ID, e.g. after a restart; the next message gets a new one
+    forgetSessionId() {
+        this.sessionId = null;
+        sessionStorage.removeItem('chatSessionId');
+    }
+
     bindEvents() {
         const sendBtn = document.getElementById('sendBtn');
         const messageInput = document.getElementById('messageInput');
@@ -82,22 +111,65 @@ class ChatApp {
         this.updateStats();
 
         try {
-            const response = await fetch('/api/support/chat', {
+            await this.ensureSessionId();
+            const response = await fetch('/api/support/chat/stream', {
                 method: 'POST',
                 headers: {
                     'Content-Type': 'application/json',
+                    'Accept': 'text/event-stream',
                 },
-                body: JSON.stringify({ message: message })
+                body: JSON.stringify({ message: message, sessionId: this.sessionId })
             });
 
-            const data = await response.json();
-            this.showTyping(false);
+            if (!response.ok) {
+                if (response.status === 400 && this.sessionId) {
+                    this.forgetSessionId();
+                }
+                throw new Error(`Chat request failed with status ${response.status}`);
+            }
 
-            if (data.success) {
-                this.addBotMessage(data.response);
-            } else {
-                this.addBotMessage(data.error || 'Sorry, I encountered an error processing your request.', true);
-                this.showError(data.error);
+            let content = null;
+            let text = '';
+            let finished = false;
+
+            await this.readEvents(response, (event, data) => {
+                if (event === 'token') {
+                    if (content === null) {
+                        this.showTyping(false);
+                        content = this.startBotMessage();
+                    }
+                    text += data.text;
+                    content.innerHTML = this.escapeHtml(text).replace(/\n/g, '<br>');
+                    this.scrollToBottom();
+                } else if (event === 'retract') {
+                    // The guardrails withdrew the answer; a revised one follows
+                    text = '';
+                    if (content !== null) {
+                        content.innerHTML = '<em class="text-muted"><i class="fas fa-sync-alt"></i> Revising answer...</em>';
+                    } else {
+                        this.showTyping(true);
+                    }
+                } else if (event === 'done') {
+                    finished = true;
+                    this.showTyping(false);
+                    if (content === null) {
+                        this.addBotMessage(data.text);
+                    } else {
+                        content.innerHTML = this.parseMarkdown(data.text);
+                    }
+                } else if (event === 'error') {
+                    finished = true;
+                    this.showTyping(false);
+                    if (content !== null) {
+                        content.closest('.message').remove();
+                    }
+                    this.addBotMessage(data.text || 'Sorry, I encountered an error processing your request.', true);
+                    this.showError(data.text);
+                }
+            });
+
+            if (!finished) {
+                throw new Error('Stream ended without an answer');
             }
         } catch (error) {
             this.showTyping(false);
@@ -106,6 +178,54 @@ class ChatApp {
         }
     }
 
+    // Calls onEvent(name, data) for each server-sent event as it arrives
+    async readEvents(response, onEvent) {
+        const reader = response.body.getReader();
+        const decoder = new TextDecoder();
+        let buffer = '';
+
+        while (true) {
+            const { value, done } = await reader.read();
+            if (done) {
+                break;
+            }
+            buffer += decoder.decode(value, { stream: true });
+
+            let boundary;
+            while ((boundary = buffer.search(/\r?\n\r?\n/)) >= 0) {
+                const frame = buffer.slice(0, boundary);
+                buffer = buffer.slice(boundary).replace(/^\r?\n\r?\n/, '');
+
+                let event = 'message';
+                const data = [];
+                for (const line of frame.split(/\r?\n/)) {
+                    if (line.startsWith('event:')) {
+                        event = line.slice(6).trim();
+                    } else if (line.startsWith('data:')) {
+                        data.push(line.slice(5));
+                    }
+                }
+                if (data.length > 0) {
+                    onEvent(event, JSON.parse(data.join('\n')));
+                }
+            }
+        }
+    }
+
+    // Adds an empty bot message and returns its content element for streaming into
+    startBotMessage() {
+        const chatContainer = document.getElementById('chatContainer');
+        const messageDiv = document.createElement('div');
+        messageDiv.className = 'message bot';
+        messageDiv.innerHTML = `
+            <div class="message-avatar">
+                <i class="fas fa-robot"></i>
+            </div>
+            <div class="message-content"></div>
+        `;
+        chatContainer.appendChild(messageDiv);
+        return messageDiv.querySelector('.message-content');
+    }
 
     addUserMessage(message) {
         const chatContainer = document.getElementById('chatContainer');
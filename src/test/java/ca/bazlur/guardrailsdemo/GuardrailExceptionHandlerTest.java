@@ -76,6 +76,25 @@ class GuardrailExceptionHandlerTest {
             assertThat(response.getBody().metadata()).containsEntry("guardrail", "ContentSafetyInputGuardrail");
         }
 
+        @Test
+        @DisplayName("Should name instrumented guardrail by its own class")
+        void shouldNameInstrumentedGuardrailByItsOwnClass() {
+            // Given
+            InputGuardrailException exception = new InputGuardrailException("The guardrail "
+                    + "ca.bazlur.guardrailsdemo.guardrail.ContentSafetyInputGuardrail$$SpringCGLIB$$0"
+                    + " failed with this message: Your message contains prohibited content");
+
+            // When
+            ResponseEntity<GuardrailExceptionHandler.ErrorResponse> response =
+                exceptionHandler.handleInputGuardrailException(exception, mockWebRequest);
+
+            // Then
+            assertThat(response.getBody()).isNotNull();
+            assertThat(response.getBody().details()).containsExactly("The guardrail "
+                    + "ca.bazlur.guardrailsdemo.guardrail.ContentSafetyInputGuardrail"
+                    + " failed with this message: Your message contains prohibited content");
+        }
+
         @Test
         @DisplayName("Should handle null error message gracefully")
         void shouldHandleNullErrorMessageGracefully() {
@@ -0,0 +1,152 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.guardrail.InputGuardrail;
+import dev.langchain4j.guardrail.InputGuardrailRequest;
+import dev.langchain4j.guardrail.InputGuardrailResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static dev.langchain4j.test.guardrail.GuardrailAssertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AdaptiveInputGuardrailsTest {
+
+    @Test
+    void shouldMoveCheapFrequentRejecterToTheFront() {
+        // Given
+        SlowCheck slow = new SlowCheck();
+        BlocklistCheck blocklist = new BlocklistCheck();
+        AdaptiveInputGuardrails guardrails = new AdaptiveInputGuardrails(List.of(slow, blocklist), Map.of(), 64);
+
+        // When
+        for (int i = 0; i < 128; i++) {
+            guardrails.validate(request(i % 2 == 0 ? "spam offer" : "where is my order"));
+        }
+
+        // Then
+        assertThat(guardrails.currentOrder()).containsExactly("BlocklistCheck", "SlowCheck");
+        assertThat(guardrails.validate(request("spam offer")))
+            .hasResult(InputGuardrailResult.Result.FAILURE)
+            .hasSingleFailureWithMessage("Blocked");
+    }
+
+    @Test
+    void shouldRespectDeclaredDependencies() {
+        // Given
+        SlowCheck slow = new SlowCheck();
+        BlocklistCheck blocklist = new BlocklistCheck();
+        AdaptiveInputGuardrails guardrails = new AdaptiveInputGuardrails(
+            List.of(slow, blocklist), Map.of(blocklist, List.of(slow)), 64);
+
+        // When
+        for (int i = 0; i < 128; i++) {
+            guardrails.validate(request("spam offer"));
+        }
+
+        // Then
+        assertThat(guardrails.currentOrder()).containsExactly("SlowCheck", "BlocklistCheck");
+    }
+
+    @Test
+    void shouldNotReorderAcrossRewriters() {
+        // Given
+        SlowCheck slow = new SlowCheck();
+        AdaptiveInputGuardrails guardrails = new AdaptiveInputGuardrails(
+            List.of(slow, new UppercaseRewriter(), new BlocklistCheck()), Map.of(), 64);
+
+        // When
+        InputGuardrailResult result = null;
+        for (int i = 0; i < 128; i++) {
+            result = guardrails.validate(request("where is my order"));
+        }
+
+        // Then
+        assertThat(guardrails.currentOrder()).containsExactly("SlowCheck", "UppercaseRewriter", "BlocklistCheck");
+        assertThat(result.successfulText()).isEqualTo("WHERE IS MY ORDER");
+    }
+
+    @Test
+    void shouldNotRunDependentOrStatefulGuardrailsPastRejectionWhenSampling() {
+        // Given
+        BlocklistCheck blocklist = new BlocklistCheck();
+        CountingCheck dependent = new CountingCheck();
+        StatefulCheck stateful = new StatefulCheck();
+        CountingCheck independent = new CountingCheck();
+        AdaptiveInputGuardrails guardrails = new AdaptiveInputGuardrails(
+            List.of(blocklist, dependent, stateful, independent), Map.of(dependent, List.of(blocklist)), 1000);
+
+        // When
+        for (int i = 0; i < 64; i++) {
+            assertThat(guardrails.validate(request("spam offer")))
+                .hasResult(InputGuardrailResult.Result.FAILURE)
+                .hasSingleFailureWithMessage("Blocked");
+        }
+
+        // Then
+        assertThat(dependent.calls).isZero();
+        assertThat(stateful.calls).isZero();
+        assertThat(independent.calls).isEqualTo(2);
+    }
+
+    @Test
+    void shouldRejectDependencyCycles() {
+        SlowCheck slow = new SlowCheck();
+        BlocklistCheck blocklist = new BlocklistCheck();
+
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveInputGuardrails(
+            List.of(slow, blocklist), Map.of(blocklist, List.of(slow), slow, List.of(blocklist)), 64));
+    }
+
+    private static InputGuardrailRequest request(String text) {
+        InputGuardrailRequest request = mock(InputGuardrailRequest.class);
+        when(request.userMessage()).thenReturn(UserMessage.from(text));
+        when(request.withText(anyString())).thenAnswer(invocation -> request(invocation.getArgument(0)));
+        return request;
+    }
+
+    private static class SlowCheck implements InputGuardrail {
+        @Override
+        public InputGuardrailResult validate(UserMessage userMessage) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return success();
+        }
+    }
+
+    private static class BlocklistCheck implements InputGuardrail {
+        @Override
+        public InputGuardrailResult validate(UserMessage userMessage) {
+            return userMessage.singleText().toLowerCase().contains("spam") ? failure("Blocked") : success();
+        }
+    }
+
+    private static class CountingCheck implements InputGuardrail {
+        int calls;
+
+        @Override
+        public InputGuardrailResult validate(UserMessage userMessage) {
+            calls++;
+            return success();
+        }
+    }
+
+    private static class StatefulCheck extends CountingCheck implements StatefulInputGuardrail {
+    }
+
+    private static class UppercaseRewriter implements RewritingInputGuardrail {
+        @Override
+        public InputGuardrailResult validate(UserMessage userMessage) {
+            return successWith(userMessage.singleText().toUpperCase());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BoundedCacheTest {
+
+    private static final long IDLE_TIMEOUT = Duration.ofMinutes(30).toNanos();
+
+    private final ExpiryScheduler scheduler = new ExpiryScheduler(Duration.ofSeconds(1), false);
+
+    @Test
+    void shouldCountHitsAndMisses() {
+        // Given
+        BoundedCache<String, AtomicInteger> cache = new BoundedCache<>(10, IDLE_TIMEOUT, scheduler);
+
+        // When
+        cache.getOrCreate("alice", AtomicInteger::new, 0).incrementAndGet();
+        cache.getOrCreate("alice", AtomicInteger::new, 0).incrementAndGet();
+        AtomicInteger bob = cache.getOrCreate("bob", AtomicInteger::new, 0);
+
+        // Then
+        assertThat(cache.getOrCreate("alice", AtomicInteger::new, 0).get()).isEqualTo(2);
+        assertThat(bob.get()).isZero();
+        assertThat(cache.stats()).isEqualTo(new BoundedCache.Stats(2, 2, 0, 0, 2));
+    }
+
+    @Test
+    void shouldKeepFrequentUsersThroughScanOfOneOffUsers() {
+        // Given
+        BoundedCache<String, AtomicInteger> cache = new BoundedCache<>(100, IDLE_TIMEOUT, scheduler);
+        for (int round = 0; round < 5; round++) {
+            for (int user = 0; user < 50; user++) {
+                cache.getOrCreate("regular-" + user, AtomicInteger::new, 0).incrementAndGet();
+            }
+        }
+
+        // When - the regulars keep coming back while one-off users stream through
+        for (int i = 1; i <= 10_000; i++) {
+            cache.getOrCreate("one-off-" + i, AtomicInteger::new, 0);
+            if (i % 200 == 0) {
+                for (int user = 0; user < 50; user++) {
+                    cache.getOrCreate("regular-" + user, AtomicInteger::new, 0).incrementAndGet();
+                }
+            }
+        }
+
+        // Then
+        assertThat(cache.size()).isEqualTo(100);
+        assertThat(cache.stats().evictions()).isEqualTo(50 + 10_000 - 100);
+        for (int user = 0; user < 50; user++) {
+            assertThat(cache.getOrCreate("regular-" + user, AtomicInteger::new, 0).get())
+                .as("regular-%d", user)
+                .isEqualTo(55);
+        }
+    }
+
+    @Test
+    void shouldExpireIdleEntriesButKeepActiveOnes() {
+        // Given
+        BoundedCache<String, AtomicInteger> cache = new BoundedCache<>(10, IDLE_TIMEOUT, scheduler);
+        long start = System.nanoTime();
+        cache.getOrCreate("idle", AtomicInteger::new, start);
+        cache.getOrCreate("active", AtomicInteger::new, start);
+
+        // When
+        cache.getOrCreate("active", AtomicInteger::new, start + IDLE_TIMEOUT / 2);
+        scheduler.advanceTo(start + IDLE_TIMEOUT + Duration.ofSeconds(2).toNanos());
+
+        // Then
+        assertThat(cache.stats().expirations()).isEqualTo(1);
+        assertThat(cache.getOrCreate("active", AtomicInteger::new, start).get()).isZero();
+        assertThat(cache.stats().misses()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,83 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BoundedEditDistanceTest {
+
+    @Test
+    void shouldComputeExactDistanceWithinLimit() {
+        assertThat(new BoundedEditDistance("kitten").distance("sitting", 10)).isEqualTo(3);
+        assertThat(new BoundedEditDistance("").distance("abc", 10)).isEqualTo(3);
+        assertThat(new BoundedEditDistance("abc").distance("", 10)).isEqualTo(3);
+        assertThat(new BoundedEditDistance("same text").distance("same text", 0)).isZero();
+    }
+
+    @Test
+    void shouldStopAtLimitPlusOne() {
+        assertThat(new BoundedEditDistance("kitten").distance("sitting", 2)).isEqualTo(3);
+        assertThat(new BoundedEditDistance("a".repeat(10)).distance("b".repeat(500), 5)).isEqualTo(6);
+    }
+
+    @Test
+    void shouldAgreeWithFullMatrixAcrossBlockBoundaries() {
+        // Given
+        Random random = new Random(11);
+
+        // When & Then
+        for (int i = 0; i < 2_000; i++) {
+            String pattern = randomText(random, random.nextInt(200));
+            String text = mutate(random, pattern);
+            int expected = levenshtein(pattern, text);
+            int limit = random.nextInt(Math.max(pattern.length(), text.length()) + 2);
+
+            assertThat(new BoundedEditDistance(pattern).distance(text, Integer.MAX_VALUE - 1))
+                .as("'%s' vs '%s'", pattern, text)
+                .isEqualTo(expected);
+            assertThat(new BoundedEditDistance(pattern).distance(text, limit))
+                .as("'%s' vs '%s' limited to %d", pattern, text, limit)
+                .isEqualTo(Math.min(expected, limit + 1));
+        }
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + random.nextInt(6)));
+        }
+        return text.toString();
+    }
+
+    private static String mutate(Random random, String text) {
+        StringBuilder mutated = new StringBuilder(text);
+        for (int edits = random.nextInt(30); edits > 0 && !mutated.isEmpty(); edits--) {
+            int at = random.nextInt(mutated.length());
+            switch (random.nextInt(3)) {
+                case 0 -> mutated.deleteCharAt(at);
+                case 1 -> mutated.insert(at, 'é');
+                default -> mutated.setCharAt(at, 'z');
+            }
+        }
+        return mutated.toString();
+    }
+
+    private static int levenshtein(String s1, String s2) {
+        int[][] dp = new int[s1.length() + 1][s2.length() + 1];
+        for (int i = 0; i <= s1.length(); i++) {
+            for (int j = 0; j <= s2.length(); j++) {
+                if (i == 0) {
+                    dp[i][j] = j;
+                } else if (j == 0) {
+                    dp[i][j] = i;
+                } else {
+                    dp[i][j] = Math.min(dp[i - 1][j - 1] + (s1.charAt(i - 1) == s2.charAt(j - 1) ? 0 : 1),
+                        Math.min(dp[i - 1][j] + 1, dp[i][j - 1] + 1));
+                }
+            }
+        }
+        return dp[s1.length()][s2.length()];
+    }
+}
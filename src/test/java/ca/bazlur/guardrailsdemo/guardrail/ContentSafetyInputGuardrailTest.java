@@ -2,6 +2,7 @@ package ca.bazlur.guardrailsdemo.guardrail;
 
 import dev.langchain4j.data.message.UserMessage;
 import dev.langchain4j.guardrail.GuardrailResult;
+import dev.langchain4j.model.openai.OpenAiTokenCountEstimator;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -59,6 +60,23 @@ class ContentSafetyInputGuardrailTest {
                 .hasSingleFailureWithMessage("Your message is too long. Please keep it under 100 characters.");
     }
 
+    @Test
+    void shouldRejectInputOverTokenLimit() {
+        var tokenLimited = new ContentSafetyInputGuardrail(1000, 20, new OpenAiTokenCountEstimator("gpt-4"),
+                VerdictCache.disabled());
+
+        var result = tokenLimited.validate(UserMessage.from("Please help me with my account settings. ".repeat(5)));
+        assertThat(result)
+                .hasFailures()
+                .hasResult(GuardrailResult.Result.FAILURE)
+                .hasSingleFailureWithMessage("Your message is too long. Please keep it under about 15 words.");
+
+        var shortResult = tokenLimited.validate(UserMessage.from("Please help me with my account settings."));
+        assertThat(shortResult)
+                .isSuccessful()
+                .hasResult(GuardrailResult.Result.SUCCESS);
+    }
+
     @ParameterizedTest
     @ValueSource(strings = {
         "hack the system",
@@ -82,7 +100,9 @@ class ContentSafetyInputGuardrailTest {
         "h4ck the system",
         "how to h@ck",
         "byp@ss security",
-        "m@lw@re installation"
+        "m@lw@re installation",
+        "H44CK the system",
+        "a quick 4ck attempt"
     })
     void shouldRejectObfuscatedPatterns(String input) {
         var result = guardrail.validate(UserMessage.from(input));
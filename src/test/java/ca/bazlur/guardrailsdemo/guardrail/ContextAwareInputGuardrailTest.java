@@ -0,0 +1,47 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import dev.langchain4j.data.message.UserMessage;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static dev.langchain4j.test.guardrail.GuardrailAssertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContextAwareInputGuardrailTest {
+
+    @Test
+    void shouldExpireIdleSessionsInBackground() {
+        // Given
+        ExpiryScheduler scheduler = new ExpiryScheduler(Duration.ofSeconds(1), false);
+        ContextAwareInputGuardrail guardrail = new ContextAwareInputGuardrail(100, Duration.ofMinutes(30), scheduler);
+        assertThat(guardrail.validate(UserMessage.from("Where is my order?"))).isSuccessful();
+        long now = System.nanoTime();
+
+        // When
+        scheduler.advanceTo(now + Duration.ofMinutes(10).toNanos());
+        int afterTenMinutes = guardrail.sessionStats().size();
+        scheduler.advanceTo(now + Duration.ofMinutes(31).toNanos());
+
+        // Then
+        assertThat(afterTenMinutes).isEqualTo(1);
+        assertThat(guardrail.sessionStats().size()).isZero();
+        assertThat(guardrail.sessionStats().expirations()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldKeepSessionCountBoundedForManyDistinctUsers() {
+        // Given
+        ContextAwareInputGuardrail guardrail = new ContextAwareInputGuardrail(
+            10, Duration.ofMinutes(30), new ExpiryScheduler(Duration.ofSeconds(1), false));
+
+        // When
+        for (int i = 0; i < 500; i++) {
+            guardrail.validate(UserMessage.from("Question number " + i));
+        }
+
+        // Then
+        assertThat(guardrail.sessionStats().size()).isLessThanOrEqualTo(10);
+        assertThat(guardrail.sessionStats().evictions()).isPositive();
+    }
+}
@@ -0,0 +1,89 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExpirySchedulerTest {
+
+    private static final long TICK = Duration.ofSeconds(1).toNanos();
+
+    @Test
+    void shouldRunTasksNoEarlierThanDeadlineAndWithinOneTick() {
+        // Given
+        ExpiryScheduler scheduler = new ExpiryScheduler(Duration.ofSeconds(1), false);
+        long start = System.nanoTime();
+        Random random = new Random(11);
+        List<long[]> runs = new ArrayList<>();
+        // Deadlines spread over every level of the wheel, up to about three days out
+        for (int i = 0; i < 2_000; i++) {
+            long deadline = start + (long) (Math.pow(random.nextDouble(), 4) * Duration.ofDays(3).toNanos());
+            scheduler.schedule(deadline, now -> {
+                runs.add(new long[]{deadline, now});
+                return ExpiryScheduler.DONE;
+            });
+        }
+
+        // When
+        for (long now = start; now <= start + Duration.ofDays(3).toNanos() + 2 * TICK; now += TICK) {
+            scheduler.advanceTo(now);
+        }
+
+        // Then
+        assertThat(runs).hasSize(2_000);
+        for (long[] run : runs) {
+            assertThat(run[1]).isGreaterThanOrEqualTo(run[0]);
+            assertThat(run[1] - run[0]).isLessThanOrEqualTo(2 * TICK);
+        }
+    }
+
+    @Test
+    void shouldRescheduleUntilTaskIsDone() {
+        // Given
+        ExpiryScheduler scheduler = new ExpiryScheduler(Duration.ofSeconds(1), false);
+        long start = System.nanoTime();
+        List<Long> runs = new ArrayList<>();
+        scheduler.schedule(start + 10 * TICK, now -> {
+            runs.add(now);
+            return runs.size() < 3 ? now + 100 * TICK : ExpiryScheduler.DONE;
+        });
+
+        // When
+        scheduler.advanceTo(start + 5 * TICK);
+        int beforeDeadline = runs.size();
+        scheduler.advanceTo(start + 11 * TICK);
+        scheduler.advanceTo(start + 112 * TICK);
+        scheduler.advanceTo(start + 213 * TICK);
+        scheduler.advanceTo(start + 1_000 * TICK);
+
+        // Then
+        assertThat(beforeDeadline).isZero();
+        assertThat(runs).containsExactly(start + 11 * TICK, start + 112 * TICK, start + 213 * TICK);
+    }
+
+    @Test
+    void shouldKeepRunningAfterFailingTask() {
+        // Given
+        ExpiryScheduler scheduler = new ExpiryScheduler(Duration.ofSeconds(1), false);
+        long start = System.nanoTime();
+        List<Long> runs = new ArrayList<>();
+        scheduler.schedule(start + TICK, now -> {
+            throw new IllegalStateException("boom");
+        });
+        scheduler.schedule(start + TICK, now -> {
+            runs.add(now);
+            return ExpiryScheduler.DONE;
+        });
+
+        // When
+        scheduler.advanceTo(start + 2 * TICK);
+
+        // Then
+        assertThat(runs).hasSize(1);
+    }
+}
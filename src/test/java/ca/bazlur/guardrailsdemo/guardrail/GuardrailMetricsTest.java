@@ -0,0 +1,165 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.guardrail.InputGuardrail;
+import dev.langchain4j.guardrail.InputGuardrailException;
+import dev.langchain4j.guardrail.InputGuardrailResult;
+import dev.langchain4j.guardrail.OutputGuardrail;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.service.AiServices;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+
+class GuardrailMetricsTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ExpiryScheduler scheduler = new ExpiryScheduler(Duration.ofSeconds(1));
+    private final RateLimitingGuardrail rateLimitingGuardrail = new RateLimitingGuardrail(10, true, "gcra", scheduler);
+    private final ContextAwareInputGuardrail contextAwareGuardrail =
+            new ContextAwareInputGuardrail(100, Duration.ofMinutes(30), scheduler);
+    private final GuardrailMetrics metrics = new GuardrailMetrics(meterRegistry, rateLimitingGuardrail,
+            contextAwareGuardrail, VerdictCache.disabled());
+
+    @AfterEach
+    void tearDown() {
+        scheduler.close();
+    }
+
+    @Test
+    void shouldTimeValidationsByGuardrailAndVerdict() {
+        // Given
+        InputGuardrail contentSafety = metrics.instrument(new ContentSafetyInputGuardrail(100));
+
+        // When
+        contentSafety.validate(UserMessage.from("How do I update my profile?"));
+        contentSafety.validate(UserMessage.from("How do I hack the system?"));
+        contentSafety.validate(UserMessage.from("Where is my order?"));
+
+        // Then
+        assertThat(validations("ContentSafetyInputGuardrail", "success")).isEqualTo(2);
+        assertThat(validations("ContentSafetyInputGuardrail", "failure")).isEqualTo(1);
+        assertThat(meterRegistry.get("guardrail.input.size").tag("guardrail", "ContentSafetyInputGuardrail")
+                .summary().totalAmount()).isEqualTo(27 + 25 + 18);
+    }
+
+    @Test
+    void shouldRecordRewritesAndKeepRewritingMarker() {
+        // Given
+        InputGuardrail sanitizer = metrics.instrument(new InputSanitizerGuardrail());
+
+        // When
+        sanitizer.validate(UserMessage.from("Hello! What's the price of your product?"));
+
+        // Then
+        assertThat(sanitizer).isInstanceOf(RewritingInputGuardrail.class);
+        assertThat(GuardrailMetrics.nameOf(sanitizer)).isEqualTo("InputSanitizerGuardrail");
+        assertThat(validations("InputSanitizerGuardrail", "rewrite")).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRecordRepromptsOfOutputGuardrails() {
+        // Given
+        OutputGuardrail tone = metrics.instrument(new ProfessionalToneOutputGuardrail());
+
+        // When
+        tone.validate(AiMessage.from("It is late, whatever."));
+
+        // Then
+        assertThat(validations("ProfessionalToneOutputGuardrail", "reprompt")).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRecordErrorsAndRethrow() {
+        // Given
+        InputGuardrail broken = metrics.instrument(new BrokenGuardrail());
+
+        // When / Then
+        assertThatThrownBy(() -> broken.validate(UserMessage.from("Where is my order?")))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(validations("BrokenGuardrail", "error")).isEqualTo(1);
+    }
+
+    @Test
+    void shouldTimeStreamingChecks() {
+        // Given
+        ProfessionalToneOutputGuardrail tone = metrics.instrument(new ProfessionalToneOutputGuardrail());
+
+        // When
+        tone.checkPartial("It ships ");
+        tone.checkPartial("It ships tomorrow, whatever.");
+        tone.checkComplete("It ships tomorrow, thank you.");
+
+        // Then
+        assertThat(validations("ProfessionalToneOutputGuardrail", "success")).isEqualTo(2);
+        assertThat(validations("ProfessionalToneOutputGuardrail", "reprompt")).isEqualTo(1);
+    }
+
+    @Test
+    void shouldNameTheRealGuardrailWhenValidationFails() {
+        // Given
+        Assistant assistant = AiServices.builder(Assistant.class)
+                .chatModel(new ChatModel() {
+                    @Override
+                    public ChatResponse doChat(ChatRequest chatRequest) {
+                        return ChatResponse.builder().aiMessage(AiMessage.from("Happy to help.")).build();
+                    }
+                })
+                .inputGuardrails(metrics.instrument(new ContentSafetyInputGuardrail(100)))
+                .build();
+
+        // When
+        InputGuardrailException exception = catchThrowableOfType(InputGuardrailException.class,
+                () -> assistant.chat("How do I hack the system?"));
+
+        // Then
+        assertThat(GuardrailMetrics.unproxied(exception.getMessage())).isEqualTo("The guardrail "
+                + ContentSafetyInputGuardrail.class.getName()
+                + " failed with this message: Your message contains prohibited content related to security threats.");
+        assertThat(validations("ContentSafetyInputGuardrail", "failure")).isEqualTo(1);
+    }
+
+    @Test
+    void shouldReportPerUserStateSizes() {
+        // When
+        rateLimitingGuardrail.validate(UserMessage.from("Where is my order?"));
+        contextAwareGuardrail.validate(UserMessage.from("Where is my order?"));
+
+        // Then
+        assertThat(stateSize("RateLimitingGuardrail")).isEqualTo(1);
+        assertThat(stateSize("ContextAwareInputGuardrail")).isEqualTo(1);
+        assertThat(stateSize("VerdictCache")).isZero();
+    }
+
+    interface Assistant {
+        String chat(String message);
+    }
+
+    private long validations(String guardrail, String verdict) {
+        return meterRegistry.get("guardrail.validation")
+                .tag("guardrail", guardrail)
+                .tag("verdict", verdict)
+                .timer().count();
+    }
+
+    private double stateSize(String guardrail) {
+        return meterRegistry.get("guardrail.state.size").tag("guardrail", guardrail).gauge().value();
+    }
+
+    // Instrumented guardrails are subclassed, so this can be neither private nor final
+    static class BrokenGuardrail implements InputGuardrail {
+        @Override
+        public InputGuardrailResult validate(UserMessage userMessage) {
+            throw new IllegalStateException("Rules unavailable");
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class KeywordAutomatonTest {
+
+    @Test
+    void shouldReportOverlappingKeywordsAtTheirEndPositions() {
+        // Given
+        KeywordAutomaton automaton = KeywordAutomaton.of(List.of("he", "she", "his", "hers"));
+        String text = "ushers";
+
+        // When
+        List<String> found = new ArrayList<>();
+        int state = KeywordAutomaton.ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            state = automaton.step(state, text.charAt(i));
+            for (int keyword : automaton.matchesAt(state)) {
+                found.add(keyword + "@" + i);
+            }
+        }
+
+        // Then
+        assertThat(found).containsExactlyInAnyOrder("1@3", "0@3", "3@5");
+    }
+
+    @Test
+    void shouldMatchLikeStringContains() {
+        // Given
+        List<String> words = List.of("hack", "exploit", "password", "spam", "scam");
+        KeywordAutomaton automaton = KeywordAutomaton.of(words);
+
+        // When & Then
+        for (String text : List.of("please reset my pass word", "my passwords leaked", "spa scam",
+            "café hack", "exploi t", "haéck")) {
+            assertThat(automaton.containsAny(text))
+                .as(text)
+                .isEqualTo(words.stream().anyMatch(text::contains));
+        }
+    }
+
+    @Test
+    void shouldRejectNonAsciiKeywords() {
+        assertThrows(IllegalArgumentException.class, () -> KeywordAutomaton.of(List.of("café")));
+    }
+}
@@ -0,0 +1,142 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.guardrail.OutputGuardrailException;
+import dev.langchain4j.guardrail.OutputGuardrailResult;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.FinishReason;
+import dev.langchain4j.service.AiServices;
+import org.junit.jupiter.api.Test;
+
+import static dev.langchain4j.test.guardrail.GuardrailAssertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ProfessionalToneOutputGuardrailTest {
+
+    private final ProfessionalToneOutputGuardrail guardrail = new ProfessionalToneOutputGuardrail(100);
+
+    @Test
+    void shouldAppendCourtesyClosingInsteadOfReprompting() {
+        // When
+        OutputGuardrailResult result = guardrail.validate(AiMessage.from("Your order ships tomorrow."));
+
+        // Then
+        assertThat(result).hasResult(OutputGuardrailResult.Result.SUCCESS_WITH_RESULT);
+        assertThat(result.successfulText()).isEqualTo("Your order ships tomorrow. Thank you for contacting us.");
+    }
+
+    @Test
+    void shouldTruncateLongAnswerAtSentenceBoundary() {
+        // Given
+        String answer = "Your order left our warehouse this morning. It should arrive within three business days. "
+                + "Tracking is available in your account once the carrier scans it, thank you.";
+
+        // When
+        OutputGuardrailResult result = guardrail.validate(AiMessage.from(answer));
+
+        // Then
+        assertThat(result).hasResult(OutputGuardrailResult.Result.SUCCESS_WITH_RESULT);
+        assertThat(result.successfulText())
+                .isEqualTo("Your order left our warehouse this morning. Thank you for contacting us.")
+                .hasSizeLessThanOrEqualTo(100);
+    }
+
+    @Test
+    void shouldTruncateLongAnswerAfterExclamationMark() {
+        // Given
+        String answer = "Great news, your refund was approved this morning! It will reach your card within "
+                + "five business days, and you will get an email receipt once it posts, thank you.";
+
+        // When
+        OutputGuardrailResult result = guardrail.validate(AiMessage.from(answer));
+
+        // Then
+        assertThat(result).hasResult(OutputGuardrailResult.Result.SUCCESS_WITH_RESULT);
+        assertThat(result.successfulText())
+                .isEqualTo("Great news, your refund was approved this morning! Thank you for contacting us.")
+                .hasSizeLessThanOrEqualTo(100);
+    }
+
+    @Test
+    void shouldStripCodeFences() {
+        // Given
+        String answer = "```text\nPlease restart the router and try again.\n```";
+
+        // When
+        OutputGuardrailResult result = guardrail.validate(AiMessage.from(answer));
+
+        // Then
+        assertThat(result).hasResult(OutputGuardrailResult.Result.SUCCESS_WITH_RESULT);
+        assertThat(result.successfulText()).isEqualTo("Please restart the router and try again.");
+    }
+
+    @Test
+    void shouldPassAcceptableAnswerUnchanged() {
+        // When
+        OutputGuardrailResult result = guardrail.validate(AiMessage.from("Happy to help, it ships tomorrow."));
+
+        // Then
+        assertThat(result).hasResult(OutputGuardrailResult.Result.SUCCESS);
+    }
+
+    @Test
+    void shouldRepromptUnprofessionalAnswer() {
+        // When
+        OutputGuardrailResult result = guardrail.validate(AiMessage.from("Whatever, it ships tomorrow. Thank you."));
+
+        // Then
+        assertThat(result)
+                .hasResult(OutputGuardrailResult.Result.FATAL)
+                .hasSingleFailureWithMessage("Unprofessional tone detected");
+    }
+
+    @Test
+    void shouldDeriveCompletionTokensFromMaxLength() {
+        assertThat(ProfessionalToneOutputGuardrail.maxCompletionTokens(1000)).isEqualTo(1000);
+    }
+
+    @Test
+    void shouldCutAnswerStoppedAtCompletionLimitBackToLastSentence() {
+        // Given
+        Assistant assistant = assistantAnswering("Votre commande est partie ce matin. Elle arrivera dans trois jo");
+
+        // When
+        String answer = assistant.chat("Où est ma commande ?");
+
+        // Then
+        assertThat(answer).isEqualTo("Votre commande est partie ce matin. Thank you for contacting us.");
+    }
+
+    @Test
+    void shouldRepromptAnswerStoppedAtCompletionLimitWithoutWholeSentence() {
+        // Given
+        Assistant assistant = assistantAnswering("Votre commande est partie ce matin et elle arrivera dans trois jo");
+
+        // When / Then
+        assertThatThrownBy(() -> assistant.chat("Où est ma commande ?"))
+                .isInstanceOf(OutputGuardrailException.class);
+    }
+
+    interface Assistant {
+        String chat(String message);
+    }
+
+    // Every answer, reprompts included, stops at the completion limit
+    private Assistant assistantAnswering(String text) {
+        return AiServices.builder(Assistant.class)
+                .chatModel(new ChatModel() {
+                    @Override
+                    public ChatResponse doChat(ChatRequest chatRequest) {
+                        return ChatResponse.builder()
+                                .aiMessage(AiMessage.from(text))
+                                .finishReason(FinishReason.LENGTH)
+                                .build();
+                    }
+                })
+                .outputGuardrails(guardrail)
+                .build();
+    }
+}
@@ -0,0 +1,112 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class QuestionSignatureTest {
+
+    private static final String[] WORDS = {
+        "how", "do", "I", "reset", "my", "password", "order", "Order", "refund", "where", "is",
+        "the", "account", "shipping", "?", "", " ", "  ", "\t", "\n", "Ünïcode", "İstanbul"
+    };
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+        "How do I reset my password? | how do i reset my password?",
+        "How do I reset my password? | How can I change my password?",
+        "'  leading blanks' | 'leading blanks'",
+        "'trailing blanks  ' | 'trailing blanks'",
+        "'' | ''",
+        "'   ' | '   '",
+        "Where is my order | What is the weather"
+    })
+    void shouldMatchJaccardExactlyForShortQuestions(String first, String second) {
+        assertThat(QuestionSignature.of(first).similarity(QuestionSignature.of(second)))
+            .isEqualTo(jaccard(first, second));
+    }
+
+    @Test
+    void shouldMatchJaccardExactlyOnRandomisedShortQuestions() {
+        // Given
+        Random random = new Random(3);
+
+        // When & Then
+        for (int i = 0; i < 20_000; i++) {
+            String first = randomQuestion(random, 12);
+            String second = random.nextBoolean() ? mutate(first, random) : randomQuestion(random, 12);
+            assertThat(QuestionSignature.of(first).similarity(QuestionSignature.of(second)))
+                .as("'%s' vs '%s'", first, second)
+                .isEqualTo(jaccard(first, second));
+        }
+    }
+
+    @Test
+    void shouldStayWithinErrorBoundForLongQuestions() {
+        // Given
+        Random random = new Random(5);
+        double worst = 0;
+
+        // When
+        for (int i = 0; i < 500; i++) {
+            StringBuilder first = new StringBuilder();
+            StringBuilder second = new StringBuilder();
+            for (int w = 0; w < 300; w++) {
+                String word = "w" + random.nextInt(400);
+                first.append(word).append(' ');
+                second.append(random.nextInt(10) < 8 ? word : "x" + random.nextInt(400)).append(' ');
+            }
+            double estimate = QuestionSignature.of(first.toString()).similarity(QuestionSignature.of(second.toString()));
+            worst = Math.max(worst, Math.abs(estimate - jaccard(first.toString(), second.toString())));
+        }
+
+        // Then - four standard errors at K = 64
+        assertThat(worst).isLessThan(0.25);
+    }
+
+    @Test
+    void shouldRecogniseSameTextOnly() {
+        QuestionSignature question = QuestionSignature.of("Where is my order?");
+
+        assertThat(question.sameText(QuestionSignature.of("Where is my order?"))).isTrue();
+        assertThat(question.sameText(QuestionSignature.of("where is my order?"))).isFalse();
+        assertThat(question.similarity(QuestionSignature.of("where is my order?"))).isCloseTo(1.0, within(0.0));
+    }
+
+    private static String randomQuestion(Random random, int maxWords) {
+        StringBuilder text = new StringBuilder();
+        for (int w = random.nextInt(maxWords); w >= 0; w--) {
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+            if (random.nextInt(4) > 0) {
+                text.append(' ');
+            }
+        }
+        return text.toString();
+    }
+
+    private static String mutate(String text, Random random) {
+        return random.nextBoolean() ? text.toUpperCase() : text + " " + WORDS[random.nextInt(WORDS.length)];
+    }
+
+    // The similarity ContextAwareInputGuardrail used before word sets were sketched
+    private static double jaccard(String s1, String s2) {
+        Set<String> set1 = new HashSet<>(Arrays.asList(s1.toLowerCase().split("\\s+")));
+        Set<String> set2 = new HashSet<>(Arrays.asList(s2.toLowerCase().split("\\s+")));
+
+        Set<String> intersection = new HashSet<>(set1);
+        intersection.retainAll(set2);
+
+        Set<String> union = new HashSet<>(set1);
+        union.addAll(set2);
+
+        return union.isEmpty() ? 0 : (double) intersection.size() / union.size();
+    }
+}
@@ -0,0 +1,122 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.guardrail.InputGuardrailResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.time.Duration;
+
+import static dev.langchain4j.test.guardrail.GuardrailAssertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RateLimitingGuardrailTest {
+
+    private static final long ONE_SECOND = Duration.ofSeconds(1).toNanos();
+
+    @ParameterizedTest
+    @ValueSource(strings = {"gcra", "sliding-log"})
+    void shouldRejectRequestsOverPerMinuteLimit(String engine) {
+        // Given
+        RateLimitingGuardrail guardrail = new RateLimitingGuardrail(3, true, engine);
+        UserMessage message = UserMessage.from("Where is my order?");
+
+        // When
+        for (int i = 0; i < 3; i++) {
+            assertThat(guardrail.validate(message)).isSuccessful();
+        }
+        InputGuardrailResult result = guardrail.validate(message);
+
+        // Then
+        assertThat(result)
+            .hasFailures()
+            .hasResult(InputGuardrailResult.Result.FAILURE)
+            .hasSingleFailureWithMessage("Rate limit exceeded. You can make up to 3 requests per minute. Please wait before sending another message.");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"gcra", "sliding-log"})
+    void shouldCheckLimitWithoutConsumingRequests(String engine) {
+        // Given
+        RateLimitingGuardrail guardrail = new RateLimitingGuardrail(2, true, engine);
+        UserMessage message = UserMessage.from("Where is my order?");
+
+        // When
+        boolean before = guardrail.wouldAllow(message);
+        for (int i = 0; i < 5; i++) {
+            guardrail.wouldAllow(message);
+        }
+        InputGuardrailResult first = guardrail.validate(message);
+        InputGuardrailResult second = guardrail.validate(message);
+
+        // Then
+        assertThat(before).isTrue();
+        assertThat(first).isSuccessful();
+        assertThat(second).isSuccessful();
+        assertThat(guardrail.wouldAllow(message)).isFalse();
+        assertThat(guardrail.validate(message)).hasResult(InputGuardrailResult.Result.FAILURE);
+    }
+
+    @Test
+    void gcraShouldAllowBurstThenOneRequestPerInterval() {
+        // Given
+        RateLimiter limiter = new GcraRateLimiter(10, 200, new ExpiryScheduler(Duration.ofSeconds(1), false));
+        long start = 0;
+
+        // When & Then
+        for (int i = 0; i < 10; i++) {
+            assertThat(limiter.tryAcquire("user", start)).isEqualTo(RateLimiter.Verdict.ALLOWED);
+        }
+        assertThat(limiter.tryAcquire("user", start)).isEqualTo(RateLimiter.Verdict.MINUTE_LIMIT_EXCEEDED);
+        assertThat(limiter.tryAcquire("user", start + 5 * ONE_SECOND)).isEqualTo(RateLimiter.Verdict.MINUTE_LIMIT_EXCEEDED);
+        assertThat(limiter.tryAcquire("user", start + 6 * ONE_SECOND)).isEqualTo(RateLimiter.Verdict.ALLOWED);
+        assertThat(limiter.tryAcquire("other", start)).isEqualTo(RateLimiter.Verdict.ALLOWED);
+    }
+
+    @Test
+    void gcraShouldEnforceHourlyLimit() {
+        // Given
+        RateLimiter limiter = new GcraRateLimiter(10, 20, new ExpiryScheduler(Duration.ofSeconds(1), false));
+        long now = 0;
+
+        // When - 10 requests per minute stays within the minute limit
+        int allowed = 0;
+        for (int i = 0; i < 25; i++) {
+            if (limiter.tryAcquire("user", now) == RateLimiter.Verdict.ALLOWED) {
+                allowed++;
+            }
+            now += 6 * ONE_SECOND;
+        }
+
+        // Then
+        assertThat(allowed).isEqualTo(20);
+        assertThat(limiter.tryAcquire("user", now)).isEqualTo(RateLimiter.Verdict.HOUR_LIMIT_EXCEEDED);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"gcra", "sliding-log"})
+    void shouldEvictUsersOnceLimitsHaveRecovered(String engine) {
+        // Given
+        ExpiryScheduler scheduler = new ExpiryScheduler(Duration.ofSeconds(1), false);
+        RateLimiter limiter = RateLimiter.create(engine, 10, 200, scheduler);
+        long start = System.nanoTime();
+        limiter.tryAcquire("user", start);
+        limiter.tryAcquire("user", start + 10 * ONE_SECOND);
+
+        // When
+        scheduler.advanceTo(start + 20 * ONE_SECOND);
+        int afterTwentySeconds = limiter.trackedUsers();
+        scheduler.advanceTo(start + Duration.ofMinutes(62).toNanos());
+
+        // Then
+        assertThat(afterTwentySeconds).isEqualTo(1);
+        assertThat(limiter.trackedUsers()).isZero();
+    }
+
+    @Test
+    void shouldRejectUnknownEngine() {
+        assertThrows(IllegalArgumentException.class, () -> new RateLimitingGuardrail(10, true, "leaky"));
+    }
+}
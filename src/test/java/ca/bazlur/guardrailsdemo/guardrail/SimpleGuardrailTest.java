@@ -5,12 +5,14 @@ import dev.langchain4j.data.message.UserMessage;
 import dev.langchain4j.guardrail.GuardrailResult;
 import dev.langchain4j.guardrail.InputGuardrailResult;
 import dev.langchain4j.guardrail.OutputGuardrailResult;
+import dev.langchain4j.model.openai.OpenAiTokenCountEstimator;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.DisplayName;
 
 import static dev.langchain4j.test.guardrail.GuardrailAssertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatNoException;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class SimpleGuardrailTest {
 
@@ -109,6 +111,27 @@ class SimpleGuardrailTest {
                 .hasResult(InputGuardrailResult.Result.SUCCESS_WITH_RESULT);
     }
 
+    @Test
+    @DisplayName("Input sanitizer should truncate messages at a sentence within the token limit")
+    void inputSanitizerShouldTruncateToTokenLimit() {
+        // Given
+        OpenAiTokenCountEstimator tokenCounter = new OpenAiTokenCountEstimator("gpt-4");
+        InputSanitizerGuardrail tokenLimited = new InputSanitizerGuardrail(tokenCounter, 20, VerdictCache.disabled());
+        String sentences = "My parcel has not arrived yet. ".repeat(10).trim();
+
+        // When
+        InputGuardrailResult result = tokenLimited.validate(UserMessage.from(sentences));
+
+        // Then
+        assertThat(result)
+                .isSuccessful()
+                .hasResult(InputGuardrailResult.Result.SUCCESS_WITH_RESULT);
+        String truncated = result.successfulText();
+        assertTrue(tokenCounter.estimateTokenCountInText(truncated) <= 20);
+        assertTrue(truncated.length() < sentences.length());
+        assertTrue(sentences.startsWith(truncated) && truncated.endsWith("yet."));
+    }
+
     @Test
     @DisplayName("Professional tone guardrail should allow professional responses")
     void professionalToneGuardrailShouldAllowProfessionalResponses() {
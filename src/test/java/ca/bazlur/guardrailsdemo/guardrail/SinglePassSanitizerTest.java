@@ -0,0 +1,94 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.text.Normalizer;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SinglePassSanitizerTest {
+
+    // The regex pipeline InputSanitizerGuardrail used before the single-pass rewrite
+    private static final Pattern DANGEROUS_CHARS = Pattern.compile("[<>{}\\[\\]|\\\\\"';()&%$#@!*+=~`]");
+    private static final Pattern SQL_INJECTION = Pattern.compile("(?i)(union|select|insert|update|delete|drop|exec|script)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern XSS_PATTERNS = Pattern.compile("(?i)(<script|javascript:|vbscript:|onload=|onerror=)", Pattern.CASE_INSENSITIVE);
+
+    private final SinglePassSanitizer sanitizer = new SinglePassSanitizer();
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "Hello! What's the price of your product?",
+        "  SELECT * FROM users; DROP TABLE orders -- \t\t please  ",
+        "javascrscriptipt:alert(1) and vbscrexecipt:",
+        "line one\n\n\n\nline two\r\n\u0000\u0007tab\there",
+        "Ｓｅｌｅｃｔ the ﬁle for my café ①",
+        "<script>alert('x')</script> onload=doEvil()"
+    })
+    void shouldMatchRegexPipeline(String input) {
+        assertThat(sanitizer.sanitize(input)).isEqualTo(legacySanitize(input));
+    }
+
+    @Test
+    void shouldMatchRegexPipelineWhenTruncating() {
+        // Given
+        String sentences = "This is a sentence about my order. ".repeat(30);
+        String words = "word ".repeat(200);
+        String noBreaks = "x".repeat(900);
+
+        // When & Then
+        assertThat(sanitizer.sanitize(sentences)).isEqualTo(legacySanitize(sentences));
+        assertThat(sanitizer.sanitize(words)).isEqualTo(legacySanitize(words));
+        assertThat(sanitizer.sanitize(noBreaks)).isEqualTo(legacySanitize(noBreaks)).endsWith("...");
+    }
+
+    @Test
+    void shouldMatchRegexPipelineOnRandomisedInput() {
+        // Given
+        String[] fragments = {
+            "union", "UNION", "sel", "ect", "script", "scr", "ipt", "javascript:", "vbscript:", "onerror=",
+            "<", ">", "\\", "\"", "'", ";", "&", "%", "@", "!", "=", " ", "  ", "\t", "\n", "\n\n\n", "\r",
+            "\u0000", "\u001f", "\u007f", "é", "ﬁ", "é", ".", "?", "hello", "dropdown", "execute", "a"
+        };
+        Random random = new Random(3);
+
+        // When & Then
+        for (int i = 0; i < 5_000; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int f = random.nextInt(i % 50 == 0 ? 400 : 20); f >= 0; f--) {
+                text.append(fragments[random.nextInt(fragments.length)]);
+            }
+            String input = text.toString();
+            assertThat(sanitizer.sanitize(input)).as(input).isEqualTo(legacySanitize(input));
+        }
+    }
+
+    private static String legacySanitize(String input) {
+        if (input == null || input.trim().isEmpty()) {
+            return input;
+        }
+        String sanitized = Normalizer.normalize(input, Normalizer.Form.NFKC);
+        sanitized = sanitized.replaceAll("[\u0000-\u0008\u000B\u000C\u000E-\u001F\u007F]", "");
+        sanitized = sanitized.replaceAll("[ \\t]+", " ");
+        sanitized = sanitized.replaceAll("\\n{3,}", "\\n\\n");
+        sanitized = DANGEROUS_CHARS.matcher(sanitized).replaceAll("");
+        sanitized = SQL_INJECTION.matcher(sanitized).replaceAll("");
+        sanitized = XSS_PATTERNS.matcher(sanitized).replaceAll("");
+        if (sanitized.length() > 800) {
+            String truncated = sanitized.substring(0, 800);
+            int boundary = Math.max(Math.max(truncated.lastIndexOf('.'), truncated.lastIndexOf('?')), truncated.lastIndexOf('!'));
+            int lastSpace = truncated.lastIndexOf(' ');
+            if (boundary > 400) {
+                sanitized = truncated.substring(0, boundary + 1);
+            } else if (lastSpace > 400) {
+                sanitized = truncated.substring(0, lastSpace) + "...";
+            } else {
+                sanitized = truncated + "...";
+            }
+        }
+        return sanitized.trim();
+    }
+}
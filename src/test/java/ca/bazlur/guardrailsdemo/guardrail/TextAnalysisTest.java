@@ -0,0 +1,118 @@
+package ca.bazlur.guardrailsdemo.guardrail;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TextAnalysisTest {
+
+    private static final String ALPHABET = "aZ09 \t\n\u000B@#$%^&*()_+-=[]{}|;':\",./<>?!~`éÄİßж日  ";
+
+    @Test
+    void shouldShareAnalysisOfSameMessageInstanceWithinOneInvocation() {
+        // Given
+        String message = new String("Where is my order?");
+
+        // When
+        TextAnalysis.shared(() -> {
+            TextAnalysis first = TextAnalysis.of(message);
+            first.lowerCase();
+
+            // Then
+            assertThat(TextAnalysis.of(message)).isSameAs(first);
+            assertThat(TextAnalysis.of(message).lowerCase()).isSameAs(first.lowerCase());
+            assertThat(TextAnalysis.of(new String(message))).isNotSameAs(first);
+            assertThat(TextAnalysis.shared(() -> TextAnalysis.of(message))).isSameAs(first);
+            return null;
+        });
+    }
+
+    @Test
+    void shouldNotShareAnalysisBetweenInvocations() {
+        // Given
+        String message = new String("Where is my order?");
+
+        // When
+        TextAnalysis first = TextAnalysis.shared(() -> TextAnalysis.of(message));
+        TextAnalysis second = TextAnalysis.shared(() -> TextAnalysis.of(message));
+
+        // Then
+        assertThat(second).isNotSameAs(first);
+        assertThat(TextAnalysis.of(message)).isNotSameAs(TextAnalysis.of(message));
+        assertThat(TextAnalysis.currentScope()).isNull();
+    }
+
+    @Test
+    void shouldShareAnalysisWithGuardrailsOnOtherThreads() {
+        // Given
+        String message = new String("Where is my order?");
+
+        // When
+        TextAnalysis[] analyses = TextAnalysis.shared(() -> {
+            TextAnalysis.Scope scope = TextAnalysis.currentScope();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                Future<TextAnalysis> other = executor.submit(() -> TextAnalysis.within(scope, () -> TextAnalysis.of(message)));
+                return new TextAnalysis[]{TextAnalysis.of(message), other.get()};
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        // Then
+        assertThat(analyses[1]).isSameAs(analyses[0]);
+    }
+
+    @Test
+    void shouldMatchPerGuardrailComputationsOnRandomisedText() {
+        // Given
+        Random random = new Random(13);
+
+        // When & Then
+        for (int i = 0; i < 10_000; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int c = random.nextInt(40); c > 0; c--) {
+                text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+            String message = text.toString();
+            TextAnalysis analysis = TextAnalysis.of(message);
+            TextAnalysis.CharProfile chars = analysis.chars();
+
+            assertThat(analysis.lowerCase()).isEqualTo(message.toLowerCase());
+            assertThat(chars.length()).isEqualTo(message.length());
+            assertThat(chars.substitutionSymbols())
+                .isEqualTo(message.chars().filter(c -> "@#$%^&*()_+-=[]{}|;':\",./<>?".indexOf(c) != -1).count());
+            assertThat(chars.symbols())
+                .isEqualTo(message.chars().filter(c -> !Character.isLetterOrDigit(c) && !Character.isWhitespace(c)).count());
+            assertThat(chars.asciiLetterRange() > 0).isEqualTo(message.chars().anyMatch(c -> c >= 'A' && c <= 'z'));
+            assertThat(chars.nonAsciiLetters() > 0).isEqualTo(message.chars().anyMatch(c -> c > 127 && Character.isLetter(c)));
+            assertThat(tokens(analysis)).isEqualTo(nonEmpty(analysis.lowerCase().split("\\s+")));
+        }
+    }
+
+    private static List<String> tokens(TextAnalysis analysis) {
+        int[] offsets = analysis.tokenOffsets();
+        List<String> tokens = new ArrayList<>();
+        for (int t = 0; t < offsets.length; t += 2) {
+            tokens.add(analysis.lowerCase().substring(offsets[t], offsets[t + 1]));
+        }
+        return tokens;
+    }
+
+    private static List<String> nonEmpty(String[] parts) {
+        List<String> tokens = new ArrayList<>();
+        for (String part : parts) {
+            if (!part.isEmpty()) {
+                tokens.add(part);
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,97 @@
+package ca.bazlur.guardrailsdemo.memory;
+
+import ca.bazlur.guardrailsdemo.guardrail.ExpiryScheduler;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BoundedChatMemoryStoreTest {
+
+    private final ExpiryScheduler scheduler = new ExpiryScheduler(Duration.ofMillis(10));
+
+    @AfterEach
+    void tearDown() {
+        scheduler.close();
+    }
+
+    @Test
+    void shouldKeepSeparateHistoryPerSession() {
+        // Given
+        BoundedChatMemoryStore store = new BoundedChatMemoryStore(100, Duration.ofMinutes(30), scheduler);
+        ChatMemory alice = memory(store, "alice");
+        ChatMemory bob = memory(store, "bob");
+
+        // When
+        alice.add(UserMessage.from("Where is my order?"));
+        alice.add(AiMessage.from("It ships tomorrow, thank you."));
+        bob.add(UserMessage.from("How do I reset my password?"));
+
+        // Then
+        assertThat(memory(store, "alice").messages()).containsExactly(
+                UserMessage.from("Where is my order?"), AiMessage.from("It ships tomorrow, thank you."));
+        assertThat(memory(store, "bob").messages()).containsExactly(UserMessage.from("How do I reset my password?"));
+        assertThat(memory(store, "carol").messages()).isEmpty();
+    }
+
+    @Test
+    void shouldBoundNumberOfSessions() {
+        // Given
+        BoundedChatMemoryStore store = new BoundedChatMemoryStore(100, Duration.ofMinutes(30), scheduler);
+
+        // When
+        for (int i = 0; i < 1_000; i++) {
+            memory(store, "session-" + i).add(UserMessage.from("Hello"));
+        }
+
+        // Then
+        assertThat(store.stats().size()).isLessThanOrEqualTo(100);
+        assertThat(store.stats().evictions()).isGreaterThanOrEqualTo(900);
+    }
+
+    @Test
+    void shouldDropIdleSessions() throws InterruptedException {
+        // Given
+        BoundedChatMemoryStore store = new BoundedChatMemoryStore(100, Duration.ofMillis(50), scheduler);
+        memory(store, "alice").add(UserMessage.from("Where is my order?"));
+
+        // When
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (store.stats().size() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // Then
+        assertThat(store.stats().expirations()).isEqualTo(1);
+        assertThat(store.getMessages("alice")).isEmpty();
+    }
+
+    @Test
+    void shouldDeleteSessionHistory() {
+        // Given
+        BoundedChatMemoryStore store = new BoundedChatMemoryStore(100, Duration.ofMinutes(30), scheduler);
+        ChatMemory alice = memory(store, "alice");
+        alice.add(UserMessage.from("Where is my order?"));
+
+        // When
+        alice.clear();
+
+        // Then
+        assertThat(store.getMessages("alice")).isEmpty();
+        assertThat(store.stats().size()).isZero();
+    }
+
+    private static ChatMemory memory(BoundedChatMemoryStore store, String sessionId) {
+        return MessageWindowChatMemory.builder()
+                .id(sessionId)
+                .maxMessages(10)
+                .chatMemoryStore(store)
+                .build();
+    }
+}
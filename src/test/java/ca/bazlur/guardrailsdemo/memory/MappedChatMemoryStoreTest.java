@@ -0,0 +1,158 @@
+package ca.bazlur.guardrailsdemo.memory;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MappedChatMemoryStoreTest {
+
+    private static final Instant NOW = Instant.parse("2025-06-01T10:00:00Z");
+    private static final int SEGMENT_SIZE = 4096;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldKeepSeparateHistoryPerSession() throws IOException {
+        // Given
+        try (MappedChatMemoryStore store = open(NOW)) {
+
+            // When
+            store.updateMessages("alice", conversation("Where is my order?", "It ships tomorrow, thank you."));
+            store.updateMessages("bob", List.of(UserMessage.from("How do I reset my password?")));
+
+            // Then
+            assertThat(store.getMessages("alice")).isEqualTo(
+                    conversation("Where is my order?", "It ships tomorrow, thank you."));
+            assertThat(store.getMessages("bob")).containsExactly(UserMessage.from("How do I reset my password?"));
+            assertThat(store.getMessages("carol")).isEmpty();
+        }
+    }
+
+    @Test
+    void shouldRecoverLatestHistoryAfterRestart() throws IOException {
+        // Given
+        try (MappedChatMemoryStore store = open(NOW)) {
+            store.updateMessages("alice", List.of(UserMessage.from("Where is my order?")));
+            store.updateMessages("alice", conversation("Where is my order?", "It ships tomorrow, thank you."));
+            store.updateMessages("bob", List.of(UserMessage.from("How do I reset my password?")));
+            store.deleteMessages("bob");
+        }
+
+        // When
+        try (MappedChatMemoryStore reopened = open(NOW)) {
+
+            // Then
+            assertThat(reopened.getMessages("alice")).isEqualTo(
+                    conversation("Where is my order?", "It ships tomorrow, thank you."));
+            assertThat(reopened.getMessages("bob")).isEmpty();
+            assertThat(reopened.stats().sessions()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void shouldIgnoreRecordTornByCrash() throws IOException {
+        // Given
+        try (MappedChatMemoryStore store = open(NOW)) {
+            store.updateMessages("alice", List.of(UserMessage.from("Where is my order?")));
+            store.updateMessages("alice", conversation("Where is my order?", "It ships tomorrow, thank you."));
+        }
+        Path segment;
+        try (var files = Files.list(directory)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        long secondRecord = firstRecordLength(segment);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            // Corrupt the payload of the second record, as if the crash hit mid-write
+            file.seek(secondRecord + 40);
+            file.write(new byte[] {1, 2, 3, 4});
+        }
+
+        // When
+        try (MappedChatMemoryStore reopened = open(NOW)) {
+
+            // Then
+            assertThat(reopened.getMessages("alice")).containsExactly(UserMessage.from("Where is my order?"));
+
+            // And writing resumes over the torn record
+            reopened.updateMessages("bob", List.of(UserMessage.from("Hello")));
+        }
+        try (MappedChatMemoryStore reopened = open(NOW)) {
+            assertThat(reopened.getMessages("bob")).containsExactly(UserMessage.from("Hello"));
+            assertThat(reopened.getMessages("alice")).containsExactly(UserMessage.from("Where is my order?"));
+        }
+    }
+
+    @Test
+    void shouldCompactSupersededRecordsIntoNewSegments() throws IOException {
+        // Given
+        try (MappedChatMemoryStore store = open(NOW)) {
+            for (int i = 0; i < 500; i++) {
+                store.updateMessages("session-" + (i % 5), conversation("Question " + i, "Answer " + i));
+            }
+            MappedChatMemoryStore.Stats before = store.stats();
+
+            // When
+            store.compact();
+
+            // Then
+            assertThat(before.segments()).isGreaterThan(2);
+            assertThat(store.stats().segments()).isLessThan(before.segments());
+            assertThat(store.stats().bytes()).isLessThan(before.bytes());
+            for (int i = 495; i < 500; i++) {
+                assertThat(store.getMessages("session-" + (i % 5))).isEqualTo(
+                        conversation("Question " + i, "Answer " + i));
+            }
+        }
+        try (MappedChatMemoryStore reopened = open(NOW)) {
+            assertThat(reopened.stats().sessions()).isEqualTo(5);
+            assertThat(reopened.getMessages("session-0")).isEqualTo(conversation("Question 495", "Answer 495"));
+        }
+    }
+
+    @Test
+    void shouldDropSessionsPastRetention() throws IOException {
+        // Given
+        try (MappedChatMemoryStore store = open(NOW)) {
+            store.updateMessages("alice", List.of(UserMessage.from("Where is my order?")));
+        }
+
+        // When
+        try (MappedChatMemoryStore later = open(NOW.plus(Duration.ofDays(8)))) {
+            later.updateMessages("bob", List.of(UserMessage.from("Hello")));
+
+            // Then
+            assertThat(later.getMessages("alice")).isEmpty();
+            assertThat(later.getMessages("bob")).containsExactly(UserMessage.from("Hello"));
+            assertThat(later.stats().sessions()).isEqualTo(1);
+        }
+    }
+
+    private MappedChatMemoryStore open(Instant now) throws IOException {
+        return new MappedChatMemoryStore(directory, SEGMENT_SIZE, Duration.ofDays(7), Clock.fixed(now, ZoneOffset.UTC));
+    }
+
+    private static long firstRecordLength(Path segment) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "r")) {
+            return file.readInt();
+        }
+    }
+
+    private static List<ChatMessage> conversation(String question, String answer) {
+        return List.of(UserMessage.from(question), AiMessage.from(answer));
+    }
+}
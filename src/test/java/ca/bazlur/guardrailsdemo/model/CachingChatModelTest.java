@@ -0,0 +1,187 @@
+package ca.bazlur.guardrailsdemo.model;
+
+import ca.bazlur.guardrailsdemo.guardrail.ExpiryScheduler;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CachingChatModelTest {
+
+    private final ExpiryScheduler scheduler = new ExpiryScheduler(Duration.ofSeconds(1));
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ResponseCache cache = new ResponseCache(100, Duration.ofHours(1), 0.9, scheduler, meterRegistry);
+    private final ScriptedModel model = new ScriptedModel();
+    private final CachingChatModel cachingModel = new CachingChatModel(model, cache);
+
+    @AfterEach
+    void tearDown() {
+        scheduler.close();
+    }
+
+    @Test
+    void shouldAnswerRepeatedQuestionFromCache() {
+        // Given
+        model.answers.add("Go to Settings, thank you.");
+        cachingModel.turn(() -> cachingModel.chat(question("How do I reset my password?")));
+
+        // When
+        ChatResponse response = cachingModel.turn(() -> cachingModel.chat(question("how do I reset my password")));
+
+        // Then
+        assertThat(response.aiMessage().text()).isEqualTo("Go to Settings, thank you.");
+        assertThat(model.requests).hasSize(1);
+    }
+
+    @Test
+    void shouldSendGuardrailRetriesToModelAndCacheTheAcceptedAnswer() {
+        // Given
+        model.answers.add("Whatever.");
+        model.answers.add("Please go to Settings, thank you.");
+
+        // When - the second request in the turn is an output guardrail reprompt
+        cachingModel.turn(() -> {
+            cachingModel.chat(question("How do I reset my password?"));
+            return cachingModel.chat(question("Please maintain a professional and helpful tone"));
+        });
+        ChatResponse cached = cachingModel.turn(() -> cachingModel.chat(question("How do I reset my password?")));
+
+        // Then
+        assertThat(model.requests).hasSize(2);
+        assertThat(cached.aiMessage().text()).isEqualTo("Please go to Settings, thank you.");
+    }
+
+    @Test
+    void shouldDropCachedAnswerRejectedByOutputGuardrails() {
+        // Given
+        model.answers.add("Go to Settings.");
+        model.answers.add("Please go to Settings, thank you.");
+        cachingModel.turn(() -> cachingModel.chat(question("How do I reset my password?")));
+
+        // When
+        assertThatThrownBy(() -> cachingModel.turn(() -> {
+            cachingModel.chat(question("How do I reset my password?"));
+            throw new IllegalStateException("Output guardrail failed");
+        })).isInstanceOf(IllegalStateException.class);
+        ChatResponse response = cachingModel.turn(() -> cachingModel.chat(question("How do I reset my password?")));
+
+        // Then
+        assertThat(response.aiMessage().text()).isEqualTo("Please go to Settings, thank you.");
+        assertThat(model.requests).hasSize(2);
+    }
+
+    @Test
+    void shouldShareOneModelRequestBetweenConcurrentIdenticalQuestions() throws Exception {
+        // Given
+        CountDownLatch release = new CountDownLatch(1);
+        List<ChatRequest> requests = new ArrayList<>();
+        ChatModel slowModel = new ChatModel() {
+            @Override
+            public ChatResponse doChat(ChatRequest request) {
+                synchronized (requests) {
+                    requests.add(request);
+                }
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return ChatResponse.builder().aiMessage(AiMessage.from("We are aware of the outage, thank you.")).build();
+            }
+        };
+        CachingChatModel coalescing = new CachingChatModel(slowModel, cache);
+        List<Future<ChatResponse>> responses = new ArrayList<>();
+
+        // When
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 20; i++) {
+                String question = i % 2 == 0 ? "Is the site down?" : "is the site down";
+                responses.add(executor.submit(() -> coalescing.turn(() -> coalescing.chat(question(question)))));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (meterRegistry.get("chat.response.cache.coalesced").counter().count() < 19 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            // Then
+            for (Future<ChatResponse> response : responses) {
+                assertThat(response.get(5, TimeUnit.SECONDS).aiMessage().text()).isEqualTo("We are aware of the outage, thank you.");
+            }
+        }
+        assertThat(requests).hasSize(1);
+    }
+
+    @Test
+    void shouldNotCacheFollowUpQuestions() {
+        // Given
+        model.answers.add("It ships tomorrow, thank you.");
+        model.answers.add("The second order ships next week, thank you.");
+        ChatRequest followUp = ChatRequest.builder()
+            .messages(SystemMessage.from("You are a helpful customer support assistant."),
+                UserMessage.from("Where is my first order?"),
+                AiMessage.from("It shipped yesterday, thank you."),
+                UserMessage.from("When does it ship?"))
+            .build();
+
+        // When
+        cachingModel.turn(() -> cachingModel.chat(followUp));
+        ChatResponse response = cachingModel.turn(() -> cachingModel.chat(question("When does it ship?")));
+
+        // Then
+        assertThat(response.aiMessage().text()).isEqualTo("The second order ships next week, thank you.");
+        assertThat(model.requests).hasSize(2);
+        assertThat(cache.stats().size()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldNotCacheOutsideTurns() {
+        // Given
+        model.answers.add("First.");
+        model.answers.add("Second.");
+
+        // When
+        cachingModel.chat(question("How do I reset my password?"));
+        ChatResponse response = cachingModel.chat(question("How do I reset my password?"));
+
+        // Then
+        assertThat(response.aiMessage().text()).isEqualTo("Second.");
+        assertThat(cache.stats().size()).isZero();
+    }
+
+    private static ChatRequest question(String text) {
+        return ChatRequest.builder()
+            .messages(SystemMessage.from("You are a helpful customer support assistant."), UserMessage.from(text))
+            .build();
+    }
+
+    private static class ScriptedModel implements ChatModel {
+        private final Deque<String> answers = new ArrayDeque<>();
+        private final List<ChatRequest> requests = new ArrayList<>();
+
+        @Override
+        public ChatResponse doChat(ChatRequest request) {
+            requests.add(request);
+            return ChatResponse.builder().aiMessage(AiMessage.from(answers.remove())).build();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package ca.bazlur.guardrailsdemo.model;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.openai.OpenAiTokenCountEstimator;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PromptBudgetTest {
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final ChatModel model = new ChatModel() {
+        @Override
+        public ChatResponse doChat(ChatRequest request) {
+            requests.incrementAndGet();
+            return ChatResponse.builder().aiMessage(AiMessage.from("Go to Settings, thank you.")).build();
+        }
+    };
+
+    @Test
+    void shouldSendRequestsThatFitTheContextWindow() {
+        // Given
+        PromptBudget budget = new PromptBudget(new OpenAiTokenCountEstimator("gpt-4"), 200, 100);
+
+        // When
+        ChatResponse response = budget.guard(model).chat(question("How do I reset my password?"));
+
+        // Then
+        assertThat(response.aiMessage().text()).isEqualTo("Go to Settings, thank you.");
+        assertThat(requests).hasValue(1);
+    }
+
+    @Test
+    void shouldRejectPromptThatLeavesNoRoomForTheCompletion() {
+        // Given
+        PromptBudget budget = new PromptBudget(new OpenAiTokenCountEstimator("gpt-4"), 200, 100);
+        ChatRequest request = question("Where is my order? ".repeat(30));
+
+        // When / Then
+        assertThatThrownBy(() -> budget.guard(model).chat(request))
+                .isInstanceOf(PromptBudget.PromptTooLargeException.class);
+        assertThat(requests).hasValue(0);
+    }
+
+    @Test
+    void shouldReserveTheRequestedOutputTokens() {
+        // Given
+        PromptBudget budget = new PromptBudget(new OpenAiTokenCountEstimator("gpt-4"), 200, 100);
+        ChatRequest request = ChatRequest.builder()
+                .messages(UserMessage.from("How do I reset my password?"))
+                .maxOutputTokens(190)
+                .build();
+
+        // When / Then
+        assertThatThrownBy(() -> budget.guard(model).chat(request))
+                .isInstanceOf(PromptBudget.PromptTooLargeException.class);
+    }
+
+    private static ChatRequest question(String text) {
+        return ChatRequest.builder()
+                .messages(SystemMessage.from("You are a helpful customer support assistant."), UserMessage.from(text))
+                .build();
+    }
+}
@@ -0,0 +1,153 @@
+package ca.bazlur.guardrailsdemo.model;
+
+import ca.bazlur.guardrailsdemo.model.ReplayChatModel.ReplayMissException;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.TokenUsage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ReplayChatModelTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldReplayRecordedResponsesWithTheirLatency() throws IOException {
+        // Given
+        Path file = directory.resolve("recording.gz");
+        record(file, new ScriptedChatModel(Duration.ofMillis(50), "Your order ships tomorrow, thank you."),
+                request("Where is my order?"));
+
+        // When
+        ReplayChatModel replay = new ReplayChatModel(file, 1);
+        long start = System.nanoTime();
+        ChatResponse response = replay.chat(request("Where is my order?"));
+        long elapsed = System.nanoTime() - start;
+
+        // Then
+        assertThat(response.aiMessage().text()).isEqualTo("Your order ships tomorrow, thank you.");
+        assertThat(response.tokenUsage().inputTokenCount()).isEqualTo(12);
+        assertThat(response.tokenUsage().outputTokenCount()).isEqualTo(8);
+        assertThat(elapsed).isGreaterThanOrEqualTo(Duration.ofMillis(50).toNanos());
+    }
+
+    @Test
+    void shouldServeRepeatedRequestsInRecordedOrder() throws IOException {
+        // Given
+        Path file = directory.resolve("recording.gz");
+        record(file, new ScriptedChatModel(Duration.ZERO, "Whatever.", "Happy to help, it ships tomorrow."),
+                request("Where is my order?"), request("Where is my order?"));
+
+        // When
+        ReplayChatModel replay = new ReplayChatModel(file, 0);
+
+        // Then
+        assertThat(replay.chat(request("Where is my order?")).aiMessage().text()).isEqualTo("Whatever.");
+        assertThat(replay.chat(request("Where is my order?")).aiMessage().text())
+                .isEqualTo("Happy to help, it ships tomorrow.");
+        assertThat(replay.chat(request("Where is my order?")).aiMessage().text())
+                .isEqualTo("Happy to help, it ships tomorrow.");
+    }
+
+    @Test
+    void shouldFallBackToLastUserMessageWhenPromptChanged() throws IOException {
+        // Given
+        Path file = directory.resolve("recording.gz");
+        record(file, new ScriptedChatModel(Duration.ZERO, "It ships tomorrow, thank you."), request("Where is my order?"));
+        ReplayChatModel replay = new ReplayChatModel(file, 0);
+
+        // When
+        ChatResponse response = replay.chat(ChatRequest.builder()
+                .messages(SystemMessage.from("You are a concise support assistant."), UserMessage.from("Where is my order?"))
+                .build());
+
+        // Then
+        assertThat(response.aiMessage().text()).isEqualTo("It ships tomorrow, thank you.");
+        assertThat(replay.questionMatches()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldFailOnRequestThatWasNotRecorded() throws IOException {
+        // Given
+        Path file = directory.resolve("recording.gz");
+        record(file, new ScriptedChatModel(Duration.ZERO, "It ships tomorrow, thank you."), request("Where is my order?"));
+        ReplayChatModel replay = new ReplayChatModel(file, 0);
+
+        // When / Then
+        assertThatThrownBy(() -> replay.chat(request("How do I reset my password?")))
+                .isInstanceOf(ReplayMissException.class);
+        assertThat(replay.misses()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldAppendRunsToTheSameRecording() throws IOException {
+        // Given
+        Path file = directory.resolve("recording.gz");
+        record(file, new ScriptedChatModel(Duration.ZERO, "It ships tomorrow, thank you."), request("Where is my order?"));
+        record(file, new ScriptedChatModel(Duration.ZERO, "Use the reset link, thank you."),
+                request("How do I reset my password?"));
+
+        // When
+        ReplayChatModel replay = new ReplayChatModel(file, 0);
+
+        // Then
+        assertThat(replay.chat(request("Where is my order?")).aiMessage().text()).isEqualTo("It ships tomorrow, thank you.");
+        assertThat(replay.chat(request("How do I reset my password?")).aiMessage().text())
+                .isEqualTo("Use the reset link, thank you.");
+    }
+
+    private static void record(Path file, ChatModel model, ChatRequest... requests) throws IOException {
+        try (ChatRecording.Writer writer = new ChatRecording.Writer(file)) {
+            RecordingChatModel recording = new RecordingChatModel(model, writer);
+            for (ChatRequest request : requests) {
+                recording.chat(request);
+            }
+        }
+    }
+
+    private static ChatRequest request(String question) {
+        List<ChatMessage> messages = List.of(
+                SystemMessage.from("You are a helpful customer support assistant."),
+                UserMessage.from(question));
+        return ChatRequest.builder().messages(messages).build();
+    }
+
+    private static class ScriptedChatModel implements ChatModel {
+        private final Duration latency;
+        private final Queue<String> answers;
+
+        ScriptedChatModel(Duration latency, String... answers) {
+            this.latency = latency;
+            this.answers = new ArrayDeque<>(List.of(answers));
+        }
+
+        @Override
+        public ChatResponse doChat(ChatRequest request) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return ChatResponse.builder()
+                    .aiMessage(AiMessage.from(answers.remove()))
+                    .tokenUsage(new TokenUsage(12, 8))
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package ca.bazlur.guardrailsdemo.model;
+
+import ca.bazlur.guardrailsdemo.guardrail.ExpiryScheduler;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class ResponseCacheTest {
+
+    private static final String CONTEXT = "You are a helpful customer support assistant.";
+
+    private final ExpiryScheduler scheduler = new ExpiryScheduler(Duration.ofSeconds(1));
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @AfterEach
+    void tearDown() {
+        scheduler.close();
+    }
+
+    @Test
+    void shouldMatchQuestionsThatOnlyDifferInCaseAndPunctuation() {
+        // Given
+        ResponseCache cache = new ResponseCache(100, Duration.ofHours(1), 1.0, scheduler, meterRegistry);
+        cache.store(CONTEXT, "How do I reset my password?", answer("Go to Settings."), Duration.ofSeconds(2).toNanos());
+
+        // When
+        ResponseCache.Entry entry = cache.lookup(CONTEXT, "  how do I RESET my password ");
+
+        // Then
+        assertThat(entry).isNotNull();
+        assertThat(entry.response().aiMessage().text()).isEqualTo("Go to Settings.");
+        assertThat(meterRegistry.get("chat.response.cache.lookups").tag("result", "hit").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("chat.response.cache.latency.saved").counter().count()).isCloseTo(2.0, within(1e-9));
+    }
+
+    @Test
+    void shouldMatchNearDuplicateQuestions() {
+        // Given
+        ResponseCache cache = new ResponseCache(100, Duration.ofHours(1), 0.8, scheduler, meterRegistry);
+        cache.store(CONTEXT, "How do I reset my account password?", answer("Go to Settings."), 1);
+        cache.store(CONTEXT, "How do I cancel my order?", answer("Open your orders."), 1);
+
+        // When
+        ResponseCache.Entry typo = cache.lookup(CONTEXT, "How do I reset my acount password?");
+        ResponseCache.Entry different = cache.lookup(CONTEXT, "How do I track my order?");
+
+        // Then
+        assertThat(typo).isNotNull();
+        assertThat(typo.response().aiMessage().text()).isEqualTo("Go to Settings.");
+        assertThat(different).isNull();
+        assertThat(meterRegistry.get("chat.response.cache.hit.ratio").gauge().value()).isEqualTo(0.5);
+    }
+
+    @Test
+    void shouldReportCachedQuestionsWithoutCountingLookups() {
+        // Given
+        ResponseCache cache = new ResponseCache(100, Duration.ofHours(1), 0.8, scheduler, meterRegistry);
+        cache.store(CONTEXT, "How do I reset my account password?", answer("Go to Settings."), 1);
+
+        // When
+        boolean exact = cache.contains(CONTEXT, "how do I reset my account password");
+        boolean nearDuplicate = cache.contains(CONTEXT, "How do I reset my acount password?");
+        boolean different = cache.contains(CONTEXT, "How do I track my order?");
+
+        // Then
+        assertThat(exact).isTrue();
+        assertThat(nearDuplicate).isTrue();
+        assertThat(different).isFalse();
+        assertThat(meterRegistry.get("chat.response.cache.hit.ratio").gauge().value()).isZero();
+        assertThat(cache.stats().hits()).isZero();
+    }
+
+    @Test
+    void shouldNotMatchQuestionsThatDifferInAnOrderNumber() {
+        // Given
+        ResponseCache cache = new ResponseCache(100, Duration.ofHours(1), 0.9, scheduler, meterRegistry);
+        cache.store(CONTEXT, "where is my order 12345", answer("Order 12345 ships tomorrow."), 1);
+
+        // When
+        ResponseCache.Entry otherOrder = cache.lookup(CONTEXT, "where is my order 12346");
+        ResponseCache.Entry sameOrder = cache.lookup(CONTEXT, "Where is my order #12345?");
+
+        // Then
+        assertThat(otherOrder).isNull();
+        assertThat(cache.contains(CONTEXT, "where is my order 12346")).isFalse();
+        assertThat(sameOrder).isNotNull();
+        assertThat(sameOrder.response().aiMessage().text()).isEqualTo("Order 12345 ships tomorrow.");
+    }
+
+    @Test
+    void shouldNotShareAnswersBetweenSystemPrompts() {
+        // Given
+        ResponseCache cache = new ResponseCache(100, Duration.ofHours(1), 0.9, scheduler, meterRegistry);
+        cache.store(CONTEXT, "How do I reset my password?", answer("Go to Settings."), 1);
+
+        // When
+        ResponseCache.Entry entry = cache.lookup("You are a billing assistant.", "How do I reset my password?");
+
+        // Then
+        assertThat(entry).isNull();
+    }
+
+    @Test
+    void shouldNotServeAnswersOlderThanTtl() throws InterruptedException {
+        // Given
+        ResponseCache cache = new ResponseCache(100, Duration.ofMillis(20), 0.9, scheduler, meterRegistry);
+        cache.store(CONTEXT, "How do I reset my password?", answer("Go to Settings."), 1);
+
+        // When
+        Thread.sleep(50);
+
+        // Then
+        assertThat(cache.lookup(CONTEXT, "How do I reset my password?")).isNull();
+    }
+
+    @Test
+    void shouldDropRejectedAnswers() {
+        // Given
+        ResponseCache cache = new ResponseCache(100, Duration.ofHours(1), 0.9, scheduler, meterRegistry);
+        cache.store(CONTEXT, "How do I reset my password?", answer("Whatever."), 1);
+
+        // When
+        cache.reject(cache.lookup(CONTEXT, "How do I reset my password?"));
+
+        // Then
+        assertThat(cache.lookup(CONTEXT, "How do I reset my password?")).isNull();
+        assertThat(cache.lookup(CONTEXT, "How do I reset my password")).isNull();
+        assertThat(meterRegistry.get("chat.response.cache.rejected").counter().count()).isEqualTo(1);
+    }
+
+    private static ChatResponse answer(String text) {
+        return ChatResponse.builder().aiMessage(AiMessage.from(text)).build();
+    }
+}
@@ -0,0 +1,132 @@
+package ca.bazlur.guardrailsdemo.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+    private final SingleFlight<String, String> flights = new SingleFlight<>();
+
+    @Test
+    void shouldShareOneCallBetweenConcurrentCallers() throws Exception {
+        // Given
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch waiting = new CountDownLatch(9);
+        AtomicInteger calls = new AtomicInteger();
+        List<Future<String>> results = new ArrayList<>();
+
+        // When
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 10; i++) {
+                results.add(executor.submit(() -> flights.execute("outage", () -> {
+                    calls.incrementAndGet();
+                    await(release);
+                    return "We are aware of the outage.";
+                }, waiting::countDown)));
+            }
+            assertThat(waiting.await(5, TimeUnit.SECONDS)).isTrue();
+            release.countDown();
+
+            // Then
+            for (Future<String> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("We are aware of the outage.");
+            }
+        }
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(flights.inFlight()).isZero();
+    }
+
+    @Test
+    void shouldGiveWaitersTheLeadersException() throws Exception {
+        // Given
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch waiting = new CountDownLatch(1);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<String> leader = executor.submit(() -> flights.execute("outage", () -> {
+                await(release);
+                throw new IllegalStateException("Model timed out");
+            }, () -> {
+            }));
+            Future<String> waiter = executor.submit(() -> {
+                while (flights.inFlight() == 0) {
+                    Thread.onSpinWait();
+                }
+                return flights.execute("outage", () -> "not called", waiting::countDown);
+            });
+
+            // When
+            assertThat(waiting.await(5, TimeUnit.SECONDS)).isTrue();
+            release.countDown();
+
+            // Then
+            assertThatThrownBy(() -> leader.get(5, TimeUnit.SECONDS)).hasRootCauseMessage("Model timed out");
+            assertThatThrownBy(() -> waiter.get(5, TimeUnit.SECONDS)).hasRootCauseMessage("Model timed out");
+        }
+    }
+
+    @Test
+    void shouldAskAgainForWaitersWhenLeaderIsInterrupted() throws Exception {
+        // Given
+        CountDownLatch leading = new CountDownLatch(1);
+        CountDownLatch waiting = new CountDownLatch(1);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<String> leader = executor.submit(() -> flights.execute("outage", () -> {
+                leading.countDown();
+                try {
+                    Thread.sleep(Duration.ofSeconds(5));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Model request aborted", e);
+                }
+                return "not returned";
+            }, () -> {
+            }));
+            assertThat(leading.await(5, TimeUnit.SECONDS)).isTrue();
+            Future<String> waiter = executor.submit(() ->
+                    flights.execute("outage", () -> "We are aware of the outage.", waiting::countDown));
+            assertThat(waiting.await(5, TimeUnit.SECONDS)).isTrue();
+
+            // When
+            leader.cancel(true);
+
+            // Then
+            assertThat(waiter.get(5, TimeUnit.SECONDS)).isEqualTo("We are aware of the outage.");
+        }
+        assertThat(flights.inFlight()).isZero();
+    }
+
+    @Test
+    void shouldNotRememberFinishedCalls() {
+        // When
+        String first = flights.execute("outage", () -> "first", () -> {
+        });
+        String second = flights.execute("outage", () -> "second", () -> {
+        });
+
+        // Then
+        assertThat(first).isEqualTo("first");
+        assertThat(second).isEqualTo("second");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package ca.bazlur.guardrailsdemo.model;
+
+import ca.bazlur.guardrailsdemo.model.StubChatModel.InjectedFailureException;
+import ca.bazlur.guardrailsdemo.model.StubChatModel.LatencyDistribution;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import dev.langchain4j.model.openai.OpenAiTokenCountEstimator;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StubChatModelTest {
+
+    private final OpenAiTokenCountEstimator tokenCounter = new OpenAiTokenCountEstimator("gpt-4");
+
+    @Test
+    void shouldAnswerFromTemplateWithTheQuestion() {
+        // Given
+        StubChatModel model = new StubChatModel(Duration.ZERO, LatencyDistribution.FIXED, 0, 1_000_000, 0,
+                List.of("Thank you for asking \"{question}\"."), tokenCounter);
+
+        // When
+        ChatResponse response = model.chat(request("Where is my order?"));
+
+        // Then
+        assertThat(response.aiMessage().text()).isEqualTo("Thank you for asking \"Where is my order?\".");
+        assertThat(response.tokenUsage().outputTokenCount())
+                .isEqualTo(tokenCounter.estimateTokenCountInText(response.aiMessage().text()));
+        assertThat(model.calls()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldTakeFirstTokenLatencyPlusGenerationTime() {
+        // Given
+        StubChatModel model = new StubChatModel(Duration.ofMillis(100), LatencyDistribution.FIXED, 0, 100, 0,
+                List.of("Thank you for your patience."), tokenCounter);
+
+        // When
+        long start = System.nanoTime();
+        model.chat(request("Where is my order?"));
+        long elapsed = System.nanoTime() - start;
+
+        // Then
+        long generation = TimeUnit.SECONDS.toNanos(tokenCounter.estimateTokenCountInText("Thank you for your patience.")) / 100;
+        assertThat(elapsed).isGreaterThanOrEqualTo(Duration.ofMillis(100).toNanos() + generation);
+    }
+
+    @Test
+    void shouldInjectFailures() {
+        // Given
+        StubChatModel model = new StubChatModel(Duration.ZERO, LatencyDistribution.LOGNORMAL, 0.5, 1_000_000, 1,
+                List.of("Thank you for your patience."), tokenCounter);
+
+        // When / Then
+        assertThatThrownBy(() -> model.chat(request("Where is my order?")))
+                .isInstanceOf(InjectedFailureException.class);
+        assertThat(model.failures()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldStreamTheSameAnswerWordByWord() throws Exception {
+        // Given
+        StubChatModel model = new StubChatModel(Duration.ZERO, LatencyDistribution.FIXED, 0, 1_000_000, 0,
+                List.of("Happy to help with your order."), tokenCounter);
+        StringBuilder streamed = new StringBuilder();
+        CompletableFuture<ChatResponse> completed = new CompletableFuture<>();
+
+        // When
+        model.streaming().chat(request("Where is my order?"), new StreamingChatResponseHandler() {
+            @Override
+            public void onPartialResponse(String partialResponse) {
+                streamed.append(partialResponse);
+            }
+
+            @Override
+            public void onCompleteResponse(ChatResponse completeResponse) {
+                completed.complete(completeResponse);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                completed.completeExceptionally(error);
+            }
+        });
+
+        // Then
+        assertThat(completed.get(5, TimeUnit.SECONDS).aiMessage().text()).isEqualTo("Happy to help with your order.");
+        assertThat(streamed.toString()).isEqualTo("Happy to help with your order.");
+    }
+
+    @Test
+    void shouldRejectErrorRateOutsideZeroToOne() {
+        assertThatThrownBy(() -> new StubChatModel(Duration.ZERO, LatencyDistribution.FIXED, 0, 50, 1.5,
+                List.of("Thank you."), tokenCounter))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static ChatRequest request(String question) {
+        return ChatRequest.builder().messages(UserMessage.from(question)).build();
+    }
+}
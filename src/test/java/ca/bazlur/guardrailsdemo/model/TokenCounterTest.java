@@ -0,0 +1,77 @@
+package ca.bazlur.guardrailsdemo.model;
+
+import ca.bazlur.guardrailsdemo.guardrail.ExpiryScheduler;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.TokenWindowChatMemory;
+import dev.langchain4j.model.openai.OpenAiTokenCountEstimator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenCounterTest {
+
+    private final ExpiryScheduler scheduler = new ExpiryScheduler(Duration.ofSeconds(1));
+    private final OpenAiTokenCountEstimator encoder = new OpenAiTokenCountEstimator("gpt-4");
+    private final TokenCounter tokenCounter = new TokenCounter(encoder, scheduler);
+
+    @AfterEach
+    void tearDown() {
+        scheduler.close();
+    }
+
+    @Test
+    void shouldCountLikeTheModelEncoding() {
+        // Given
+        List<ChatMessage> messages = List.of(
+                SystemMessage.from("You are a helpful customer support assistant."),
+                UserMessage.from("Where is my order?"),
+                AiMessage.from("It ships tomorrow, thank you."));
+
+        // When
+        int count = tokenCounter.estimateTokenCountInMessages(messages);
+
+        // Then
+        assertThat(count).isEqualTo(encoder.estimateTokenCountInMessages(messages));
+        assertThat(tokenCounter.estimateTokenCountInText("How do I reset my password?"))
+                .isEqualTo(encoder.estimateTokenCountInText("How do I reset my password?"));
+    }
+
+    @Test
+    void shouldEncodeEachMessageOnce() {
+        // Given
+        UserMessage question = UserMessage.from("Where is my order?");
+        tokenCounter.estimateTokenCountInMessage(question);
+
+        // When
+        int count = tokenCounter.estimateTokenCountInMessage(UserMessage.from("Where is my order?"));
+
+        // Then
+        assertThat(count).isEqualTo(encoder.estimateTokenCountInMessage(question));
+        assertThat(tokenCounter.stats().hits()).isEqualTo(1);
+        assertThat(tokenCounter.stats().misses()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldDropOldestMessagesOverTokenBudget() {
+        // Given
+        ChatMemory memory = TokenWindowChatMemory.withMaxTokens(60, tokenCounter);
+
+        // When
+        for (int i = 0; i < 10; i++) {
+            memory.add(UserMessage.from("Question number " + i + " about my order"));
+        }
+
+        // Then
+        assertThat(tokenCounter.estimateTokenCountInMessages(memory.messages())).isLessThanOrEqualTo(60);
+        assertThat(memory.messages()).hasSizeLessThan(10)
+                .last().isEqualTo(UserMessage.from("Question number 9 about my order"));
+    }
+}